@@ -0,0 +1,54 @@
+package com.tracker.controller;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+import org.opencv.core.Point;
+
+import com.tracker.model.TrackerModel;
+
+public class DrawTankEdit extends AbstractUndoableEdit {
+	private static final long serialVersionUID = -2179806435263318541L;
+	private TrackerModel model;
+	private List<Point> oldPolygon, newPolygon;
+	
+	public DrawTankEdit(TrackerModel model, List<Point> polygon) {
+		this.model = model;
+		oldPolygon = model.getTankPolygon();
+		newPolygon = polygon;
+		redo();
+	}
+	
+	@Override
+	public void undo() throws CannotUndoException {
+		super.undo();
+		System.out.println(oldPolygon == null ? "Removing the tank outline" : "Restoring the previous tank outline");
+		model.setTankPolygon(oldPolygon);
+	}
+
+	@Override
+	public boolean canUndo() {
+		return Objects.equals(model.getTankPolygon(), newPolygon);
+	}
+
+	@Override
+	public void redo() throws CannotRedoException {
+		super.redo();
+		System.out.println("Setting a tank outline with " + newPolygon.size() + " corners");
+		model.setTankPolygon(newPolygon);
+	}
+
+	@Override
+	public boolean canRedo() {
+		return Objects.equals(model.getTankPolygon(), oldPolygon);
+	}
+	
+	@Override
+	public String getPresentationName() {
+		return "Tank Outline";
+	}
+}
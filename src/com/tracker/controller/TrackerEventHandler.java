@@ -9,6 +9,7 @@ import java.awt.event.MouseMotionAdapter;
 import java.awt.event.MouseMotionListener;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Observable;
@@ -54,8 +55,10 @@ public class TrackerEventHandler extends Observable {
 		gui.mntmRedo.addActionListener(new RedoAction());
 		gui.mntmSave.addActionListener(new SaveAction(SaveAction.SAVE));
 		gui.mntmSaveAs.addActionListener(new SaveAction(SaveAction.SAVE_AS));
+		gui.mntmLoadTracks.addActionListener(new LoadTracksAction());
 		gui.mntmCalibrateFish.addActionListener(new CalibrateFishAction());
 		gui.mntmCalibrateScale.addActionListener(new CalibrateScaleAction());
+		gui.mntmDrawTank.addActionListener(new DrawTankAction());
 
 	}
 	
@@ -133,6 +136,33 @@ public class TrackerEventHandler extends Observable {
 		}
 	}
 	
+	/**
+	 * The load tracks action replays the tracks in a previously saved csv file over the video, so that they can be
+	 * checked without tracking the fish again.
+	 */
+	private class LoadTracksAction extends AbstractAction {
+		private static final long serialVersionUID = 4402398151860187517L;
+		
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			JFileChooser fileChooser = new JFileChooser();
+			fileChooser.setDialogTitle("Specify the tracks to replay");
+			fileChooser.setFileFilter(new FileNameExtensionFilter("CSV or TSV File", "csv", "tsv"));
+			if (fileChooser.showOpenDialog(new JFrame()) != JFileChooser.APPROVE_OPTION 
+					|| fileChooser.getSelectedFile() == null) {
+				System.out.println("No tracks loaded.");
+				return;
+			}
+			File file = fileChooser.getSelectedFile();
+			System.out.println("Loading tracks from file: " + file.getAbsolutePath());
+			try {
+				model.loadTracks(file);
+			} catch (IOException ex) {
+				System.out.println("Error: Unable to load the tracks, " + ex.getMessage());
+			}
+		}
+	}
+	
     /**
     * Calibration of Fish action. Under this action, the user can drag the fish marker to its correct location without
     * adding to the fish's distance travelled. 
@@ -282,6 +312,61 @@ public class TrackerEventHandler extends Observable {
          }
       }
 
+     /**
+     * Drawing of the tank action. The user clicks on each corner of the tank in turn, and finishes by clicking on the
+     * first corner again. Motion is then only captured inside the tank, so the rim, the bench and any reflections are
+     * ignored. The tank is saved next to the video, so it only needs to be drawn once.
+     */
+     private class DrawTankAction extends AbstractAction {
+     	private static final long serialVersionUID = 3182873560311452871L;
+     	final String COMMAND = "Please click on corner %d of the tank, or on the first corner again to finish.";
+     	final double CLOSE_DISTANCE = 10; // pixels from the first corner that count as closing the outline
+     	private MouseListener tankMouseListener;
+     	private List<Point> corners;
+     	
+     	public DrawTankAction() {
+     		gui.mntmDrawTank.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_T, KeyEvent.SHIFT_MASK));
+     		tankMouseListener = new MouseListener() {
+    			@Override
+    			public void mouseClicked(MouseEvent e) {}
+    			@Override 
+    			public void mousePressed(MouseEvent e) {
+    				Point userClickLocation = new Point(e.getX(), e.getY());
+    				if (corners.size() >= 3 
+    						&& Fish.distSquared(userClickLocation, corners.get(0)) < CLOSE_DISTANCE*CLOSE_DISTANCE) {
+    					UndoableEdit edit = new DrawTankEdit(model, corners);
+				        undoSupport.postEdit(edit);
+    					gui.videoContainer.resetCommand();
+    					panel.removeMouseListener(tankMouseListener);
+    					panel.setTankCorners(null);
+    				} else {
+    					corners.add(userClickLocation);
+    					gui.videoContainer.setCommand(String.format(COMMAND, corners.size() + 1));
+    					panel.setTankCorners(corners);
+    				}
+    				panel.repaint();
+    			}
+    			@Override
+    			public void mouseReleased(MouseEvent e) {}
+    			@Override
+    			public void mouseEntered(MouseEvent e) {
+    				panel.setCursor(new Cursor(Cursor.CROSSHAIR_CURSOR));
+    			}
+    			@Override
+    			public void mouseExited(MouseEvent e) {
+    				panel.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+    			}
+    		};	
+     	}
+     	
+ 		public void actionPerformed(ActionEvent evt) {
+ 			corners = new ArrayList<Point>();	// Reset corner list
+ 			gui.videoContainer.setCommand(String.format(COMMAND, 1));
+ 			model.pauseMovie();
+ 			panel.addMouseListener(tankMouseListener);
+         }
+      }
+
      /**
      *  undo action
      */
@@ -0,0 +1,110 @@
+package com.tracker.engine;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import com.tracker.model.BackgroundModel;
+import com.tracker.model.Detections;
+import com.tracker.model.Fish;
+import com.tracker.model.FrameDelayBackground;
+import com.tracker.model.MotionChain;
+import com.tracker.model.MotionProfile;
+
+/**
+ * One of several tanks filmed in the same camera view. Each arena is a rectangle of the frame with its own fish, its own
+ * background model and its own FrameAssigner, so arenas never share any state and can be tracked at the same time on
+ * different threads from a single decoded frame.
+ * <p> Motion is captured in the arena's rectangle through a MotionChain, as in MotionVideoCapture, with the 
+ * MotionProfile the arena is built with, and the fish positions are kept in frame coordinates.
+ */
+public class Arena implements Callable<Void> {
+	private final MotionProfile profile;
+	private final String name;
+	private final Rect region;
+	private final FrameAssigner assigner;
+	private final MotionChain chain;
+	private BackgroundModel background;
+	private Detections detections = new Detections(0, 16);
+
+	/* Shared state for one frame, written before the arena is called */
+	private Mat frame;
+	private double timestamp;
+
+	/* Scratch buffers, reused for every frame */
+	private Mat grey = new Mat(), delta = new Mat(), binary = new Mat();
+
+	/**
+	 * @param name The name of the arena, used to tell its tracks apart.
+	 * @param region The rectangle of the scaled frame that the arena covers.
+	 * @param fishes The fish in the arena, already placed at their starting positions in frame coordinates.
+	 */
+	public Arena(String name, Rect region, List<Fish> fishes) {
+		this(name, region, fishes, MotionProfile.DEFAULT);
+	}
+
+	/**
+	 * @param name The name of the arena, used to tell its tracks apart.
+	 * @param region The rectangle of the scaled frame that the arena covers.
+	 * @param fishes The fish in the arena, already placed at their starting positions in frame coordinates.
+	 * @param profile The blur, frame delay, threshold and dilation that motion is captured with.
+	 */
+	public Arena(String name, Rect region, List<Fish> fishes, MotionProfile profile) {
+		this.name = name;
+		this.region = region;
+		this.assigner = new FrameAssigner(fishes);
+		this.profile = profile;
+		this.chain = new MotionChain(profile);
+		this.background = new FrameDelayBackground(profile.getFrameDelay());
+	}
+
+	/* Getters */
+	public String getName() { return name; }
+	public Rect getRegion() { return region; }
+	public List<Fish> getFishes() { return assigner.getFishes(); }
+	public FrameAssigner getAssigner() { return assigner; }
+	public MotionProfile getMotionProfile() { return profile; }
+
+	/**
+	 * Hands the arena the frame that it tracks the next time it is called.
+	 * @param frame The scaled colour frame.
+	 * @param timestamp Time from the video of the frame.
+	 */
+	public void setFrame(Mat frame, double timestamp) {
+		this.frame = frame;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Captures the motion in the arena's rectangle of the frame, and assigns it to the arena's fish. The first frame an
+	 * arena is given only starts its background.
+	 */
+	@Override
+	public Void call() {
+		Mat colour = frame.submat(region);
+		chain.greyBlur(colour, grey);
+		colour.release();
+		if (!background.isReady()) {
+			background.learn(grey);
+			return null;
+		}
+		chain.capture(grey, background, delta, binary);
+
+		detections.clear(timestamp);
+		chain.addComponents(binary, region.x, region.y, detections);
+		assigner.assign(detections);
+		return null;
+	}
+
+	/**
+	 * Frees the native memory of the arena's background and scratch buffers.
+	 */
+	public void release() {
+		background.release();
+		chain.release();
+		for (Mat mat: new Mat[] {grey, delta, binary}) {
+			mat.release();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.tracker.engine;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.videoio.Videoio;
+
+import com.tracker.model.MotionVideoCapture;
+
+/**
+ * Tracks several arenas filmed in the same camera view. Each frame is decoded and scaled once, and then handed to every
+ * Arena, which capture motion in their own rectangles and assign it to their own fish in parallel on the common
+ * ForkJoinPool. This is far cheaper than tracking the same video once per arena, as decoding is usually the most
+ * expensive step.
+ * <p> The arenas keep their backgrounds from one video to the next, so tracking carries on smoothly across a queue of
+ * videos, as with a TrackingEngine.
+ */
+public class ArenaTracker {
+	private List<File> videoFiles;
+	private double scale;
+	private List<Arena> arenas;
+	private int frameCounter = 0;
+
+	/**
+	 * @param videoFiles The videos to be tracked, in order.
+	 * @param scale The scale applied to each frame before tracking.
+	 * @param arenas The arenas in the camera view, with their fish already placed.
+	 */
+	public ArenaTracker(List<File> videoFiles, double scale, List<Arena> arenas) {
+		this.videoFiles = videoFiles;
+		this.scale = scale;
+		this.arenas = arenas;
+	}
+
+	/* Getters */
+	public List<Arena> getArenas() { return arenas; }
+	public int getFrameCounter() { return frameCounter; }
+
+	/**
+	 * Tracks every frame of every video in every arena.
+	 * @throws ExecutionException If tracking fails in one of the arenas.
+	 * @throws InterruptedException If the thread is interrupted while waiting for the arenas.
+	 * @throws IllegalArgumentException If an arena reaches outside the scaled frame.
+	 */
+	public void run() throws ExecutionException, InterruptedException {
+		Mat frame = new Mat();
+		try {
+			for (int i = 0; i < videoFiles.size(); i++) {
+				MotionVideoCapture video = MotionVideoCapture.frameReader(videoFiles.get(i).getAbsolutePath(), scale);
+				try {
+					if (i == 0) {
+						checkRegions(video.getSize());
+					}
+					// the first frame of the first video starts every arena's background
+					while (video.isOpened() && video.read(frame)) {
+						fanOut(frame, video.get(Videoio.CAP_PROP_POS_MSEC));
+						frameCounter++;
+					}
+				} finally {
+					video.release();
+					video.releaseShared();
+				}
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * Makes sure that every arena lies inside the frame.
+	 * @throws IllegalArgumentException If an arena reaches outside the frame.
+	 */
+	private void checkRegions(Size frameSize) {
+		for (Arena arena: arenas) {
+			Rect r = arena.getRegion();
+			if (r.x < 0 || r.y < 0 || r.width <= 0 || r.height <= 0 || r.x + r.width > frameSize.width 
+					|| r.y + r.height > frameSize.height) {
+				throw new IllegalArgumentException(arena.getName() + " reaches outside the " + (int) frameSize.width + "x" 
+						+ (int) frameSize.height + " frame");
+			}
+		}
+	}
+
+	/**
+	 * Tracks a frame in every arena at once, and waits for them all to finish.
+	 */
+	private void fanOut(Mat frame, double timestamp) throws ExecutionException, InterruptedException {
+		for (Arena arena: arenas) {
+			arena.setFrame(frame, timestamp);
+		}
+		for (Future<Void> result: ForkJoinPool.commonPool().invokeAll(arenas)) {
+			result.get();
+		}
+	}
+
+	/**
+	 * Frees the native memory of every arena.
+	 */
+	public void release() {
+		for (Arena arena: arenas) {
+			arena.release();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package com.tracker.engine;
+import java.util.Arrays;
+
+import com.tracker.model.Detections;
+
+/**
+ * Assigns the candidate centres of a frame to the fish all at once, so that the total squared distance moved by the
+ * fish is as small as possible. Unlike letting each fish grab its nearest candidate in turn, this does not depend on
+ * the order of the fish, and a fish can't steal a candidate that another fish needs more.
+ * <p> Each fish has a gate around its expected position, and only candidates inside the gate are considered. A fish
+ * may also stay where it is, which costs as much as moving right to the edge of its gate, so a fish only stays if every
+ * candidate in its gate is better used by another fish.
+ * <p> The gated candidates are found with a SpatialGrid, and fish that share no candidates with each other are solved
+ * separately. Only the small clusters of fish competing for the same candidates go through the Hungarian algorithm, so
+ * the cost per frame stays close to linear in the number of fish when they are spread out.
+ */
+public class AssignmentSolver {
+	private final static double FORBIDDEN = 1e12;
+	private SpatialGrid grid = new SpatialGrid();
+
+	/* Gated candidates of each fish, stored as edges */
+	private int[] edgeStart = new int[1], edgeCandidate = new int[16];
+	private double[] edgeCost = new double[16];
+
+	/* Clusters of fish that compete for candidates */
+	private int[] parent = new int[0], clusterNext = new int[0], clusterHead = new int[0], members = new int[0];
+	private int[] owner = new int[0], column = new int[0], stamp = new int[0], columns = new int[0];
+
+	/* Hungarian algorithm */
+	private double[] cost = new double[0], u = new double[0], v = new double[0], minv = new double[0];
+	private int[] p = new int[0], way = new int[0];
+	private boolean[] used = new boolean[0];
+
+	/**
+	 * Solves the assignment for a frame.
+	 * @param fx The x coordinate of each fish's expected position.
+	 * @param fy The y coordinate of each fish's expected position.
+	 * @param gate The radius around its expected position that each fish may move to a candidate within.
+	 * @param numFish The number of fish.
+	 * @param detections The candidate centres of the frame. Claimed candidates are ignored.
+	 * @param result The destination for the index of the candidate assigned to each fish, or -1 if the fish stays.
+	 */
+	public void solve(double[] fx, double[] fy, double[] gate, int numFish, Detections detections, int[] result) {
+		int n = detections.size();
+		ensureCapacity(numFish, n);
+		double maxGate = 0;
+		for (int i = 0; i < numFish; i++) {
+			maxGate = Math.max(maxGate, gate[i]);
+			result[i] = -1;
+		}
+		grid.build(detections, maxGate);
+		findEdges(fx, fy, gate, numFish, detections);
+
+		// join fish that share a candidate into clusters
+		for (int i = 0; i < numFish; i++) {
+			parent[i] = i;
+		}
+		Arrays.fill(owner, 0, n, -1);
+		for (int i = 0; i < numFish; i++) {
+			for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+				int j = edgeCandidate[e];
+				if (owner[j] < 0) {
+					owner[j] = i;
+				} else {
+					union(owner[j], i);
+				}
+			}
+		}
+		Arrays.fill(clusterHead, 0, numFish, -1);
+		for (int i = numFish - 1; i >= 0; i--) {
+			int root = find(i);
+			clusterNext[i] = clusterHead[root];
+			clusterHead[root] = i;
+		}
+
+		Arrays.fill(stamp, 0, n, -1);
+		for (int root = 0; root < numFish; root++) {
+			if (clusterHead[root] < 0) {
+				continue;
+			}
+			int k = 0;
+			for (int i = clusterHead[root]; i >= 0; i = clusterNext[i]) {
+				members[k++] = i;
+			}
+			if (k == 1) {
+				solveSingle(members[0], gate, result);
+			} else {
+				solveCluster(k, root, gate, result);
+			}
+		}
+	}
+
+	/**
+	 * Finds every unclaimed candidate inside each fish's gate.
+	 */
+	private void findEdges(double[] fx, double[] fy, double[] gate, int numFish, Detections detections) {
+		int e = 0;
+		for (int i = 0; i < numFish; i++) {
+			edgeStart[i] = e;
+			double gateSquared = gate[i]*gate[i];
+			int found = grid.query(fx[i], fy[i], gate[i]);
+			for (int k = 0; k < found; k++) {
+				int j = grid.get(k);
+				if (detections.isClaimed(j)) {
+					continue;
+				}
+				double dx = detections.getX(j) - fx[i];
+				double dy = detections.getY(j) - fy[i];
+				double distanceSquared = dx*dx + dy*dy;
+				if (distanceSquared < gateSquared) {
+					if (e == edgeCandidate.length) {
+						edgeCandidate = Arrays.copyOf(edgeCandidate, 2*e);
+						edgeCost = Arrays.copyOf(edgeCost, 2*e);
+					}
+					edgeCandidate[e] = j;
+					edgeCost[e] = distanceSquared;
+					e++;
+				}
+			}
+		}
+		edgeStart[numFish] = e;
+	}
+
+	/**
+	 * A fish that doesn't compete with any other fish simply takes its nearest candidate.
+	 */
+	private void solveSingle(int i, double[] gate, int[] result) {
+		double best = gate[i]*gate[i];
+		for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+			if (edgeCost[e] < best) {
+				best = edgeCost[e];
+				result[i] = edgeCandidate[e];
+			}
+		}
+	}
+
+	/**
+	 * Solves a cluster of competing fish with the Hungarian algorithm. Each of the k fish is a row, and the columns are
+	 * the candidates in the cluster followed by one "stay" column per fish.
+	 */
+	private void solveCluster(int k, int clusterId, double[] gate, int[] result) {
+		// number the candidates of the cluster
+		int m = 0;
+		for (int r = 0; r < k; r++) {
+			int i = members[r];
+			for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+				int j = edgeCandidate[e];
+				if (stamp[j] != clusterId) {
+					stamp[j] = clusterId;
+					column[j] = m;
+					if (m == columns.length) {
+						columns = Arrays.copyOf(columns, 2*m + 1);
+					}
+					columns[m++] = j;
+				}
+			}
+		}
+		int cols = m + k;
+		ensureMatrix(k, cols);
+		Arrays.fill(cost, 0, k*cols, FORBIDDEN);
+		for (int r = 0; r < k; r++) {
+			int i = members[r];
+			for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+				cost[r*cols + column[edgeCandidate[e]]] = edgeCost[e];
+			}
+			cost[r*cols + m + r] = gate[i]*gate[i];
+		}
+
+		hungarian(k, cols);
+		for (int c = 1; c <= cols; c++) {
+			if (p[c] != 0 && c - 1 < m) {
+				result[members[p[c] - 1]] = columns[c - 1];
+			}
+		}
+	}
+
+	/**
+	 * Minimum cost assignment of every row to a distinct column, for rows no greater than columns. The rows and columns
+	 * are 1-based inside the algorithm, and p[c] holds the row assigned to column c, or 0 if the column is free.
+	 */
+	private void hungarian(int rows, int cols) {
+		Arrays.fill(u, 0, rows + 1, 0);
+		Arrays.fill(v, 0, cols + 1, 0);
+		Arrays.fill(p, 0, cols + 1, 0);
+		for (int r = 1; r <= rows; r++) {
+			p[0] = r;
+			int c0 = 0;
+			Arrays.fill(minv, 0, cols + 1, Double.MAX_VALUE);
+			Arrays.fill(used, 0, cols + 1, false);
+			do {
+				used[c0] = true;
+				int r0 = p[c0], c1 = 0;
+				double delta = Double.MAX_VALUE;
+				for (int c = 1; c <= cols; c++) {
+					if (!used[c]) {
+						double cur = cost[(r0 - 1)*cols + c - 1] - u[r0] - v[c];
+						if (cur < minv[c]) {
+							minv[c] = cur;
+							way[c] = c0;
+						}
+						if (minv[c] < delta) {
+							delta = minv[c];
+							c1 = c;
+						}
+					}
+				}
+				for (int c = 0; c <= cols; c++) {
+					if (used[c]) {
+						u[p[c]] += delta;
+						v[c] -= delta;
+					} else {
+						minv[c] -= delta;
+					}
+				}
+				c0 = c1;
+			} while (p[c0] != 0);
+			do {
+				int c1 = way[c0];
+				p[c0] = p[c1];
+				c0 = c1;
+			} while (c0 != 0);
+		}
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int a, int b) {
+		int ra = find(a), rb = find(b);
+		if (ra != rb) {
+			parent[Math.max(ra, rb)] = Math.min(ra, rb);
+		}
+	}
+
+	private void ensureCapacity(int numFish, int numCandidates) {
+		if (parent.length < numFish) {
+			parent = new int[numFish];
+			clusterNext = new int[numFish];
+			clusterHead = new int[numFish];
+			members = new int[numFish];
+			edgeStart = new int[numFish + 1];
+		}
+		if (owner.length < numCandidates) {
+			owner = new int[numCandidates];
+			column = new int[numCandidates];
+			stamp = new int[numCandidates];
+		}
+	}
+
+	private void ensureMatrix(int rows, int cols) {
+		if (cost.length < rows*cols) {
+			cost = new double[rows*cols];
+		}
+		if (v.length < cols + 1) {
+			v = new double[cols + 1];
+			minv = new double[cols + 1];
+			p = new int[cols + 1];
+			way = new int[cols + 1];
+			used = new boolean[cols + 1];
+		}
+		if (u.length < rows + 1) {
+			u = new double[rows + 1];
+		}
+	}
+}
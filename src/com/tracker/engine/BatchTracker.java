@@ -0,0 +1,584 @@
+package com.tracker.engine;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.opencv.core.Core;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import com.tracker.model.BackgroundModel;
+import com.tracker.model.Fish;
+import com.tracker.model.MotionProfile;
+import com.tracker.model.MotionVideoCapture;
+import com.tracker.model.TankMask;
+
+/**
+ * Command line entry point for tracking videos without a GUI. This is intended for processing large numbers of
+ * recordings overnight on headless machines, where nothing needs to be drawn and the tracker should run as fast as the
+ * videos can be decoded.
+ * <p> Usage: <pre>
+ * java com.tracker.engine.BatchTracker [options] video...
+ *   --fish x,y        starting position of a fish in pixels, repeated once per fish (at least one is needed)
+ *   --scale n         pixels per mm of the videos, from a previous scale calibration
+ *   --video-scale s   scale applied to each frame before tracking (default 0.8)
+ *   --every n         number of frames between recorded data points (default 10)
+ *   --out file        csv file the tracks are written to (default fishdata.csv), or a binary track file if the name
+ *                     ends in .trk, see TrackFile
+ *   --threads n       number of videos or segments detected at the same time (default 1)
+ *   --segments n      number of segments each video is split into for detection (default 1)
+ *   --pipeline n      decode, capture motion and assign on separate threads, with up to n frames in flight
+ *   --roi n           only capture motion around the fish, searching the whole frame every n frames
+ *   --pyramid n       capture motion after halving each frame n times, then refine the candidates on the scaled frame
+ *   --background m    background model, one of delay (default), average or mog2
+ *   --kernel k        motion kernel, either opencv (default) or fused, see KernelBenchmark
+ *   --strips n        split each frame into n strips whose motion is captured on separate threads
+ *   --profile file    motion profile with the blur, frame delay, threshold and dilation, such as one saved by
+ *                     ParameterSweep (default blur 21, delay 3, threshold 15, dilation 3)
+ *   --static n        skip frames where no part changes by more than n grey levels, see FrameSignature
+ *   --flow k          only capture motion every k frames, following the fish by optical flow between, see FlowBenchmark
+ *   --tank file       only capture motion inside the tank outline saved in file, such as video.mp4.tank from the GUI
+ *   --arena x,y,w,h   rectangle of one of several tanks in view, repeated once per tank; each fish belongs to the
+ *                     arena it starts in, and each arena's tracks go to their own file, e.g. fishdata-arena1.csv
+ *   --flush ms        write the tracks to the output file while tracking, syncing it to disk every ms milliseconds,
+ *                     instead of keeping them in memory until the end, see StreamingTrackWriter
+ *   --checkpoint file write a checkpoint to file while tracking, and if file already exists, resume from it instead of
+ *                     starting again; it is deleted once the tracks are saved, see TrackingCheckpoint
+ *   --checkpoint-every s  seconds between checkpoints (default 60)
+ *   --cache dir       keep each video's detections in dir, and assign the fish from them instead of decoding the video
+ *                     again whenever they are there for the same motion options, see DetectionCache
+ *   --from n          with --cache, start the fish from their --fish positions at frame n of the queue, such as after
+ *                     correcting an identity, and only record the frames from there on
+ * </pre>
+ */
+public class BatchTracker {
+	private List<File> videoFiles = new ArrayList<File>();
+	private List<Point> startPositions = new ArrayList<Point>();
+	private double videoScale = 0.8;
+	private int framesPerDataCount = 10;
+	private File output = new File("fishdata.csv");
+	private List<Point> tankPolygon = null;
+	private List<Rect> arenaRegions = new ArrayList<Rect>();
+	private String backgroundModel = BackgroundModel.FRAME_DELAY;
+	private boolean fusedKernel = false;
+	private MotionProfile profile = MotionProfile.DEFAULT;
+	private int threads = 1, segments = 1, pipelineFrames = 0, fullFramePeriod = 0, pyramidLevels = 0, strips = 1,
+			staticFloor = 0, flowPeriod = 1;
+	private long flushMillis = 0;
+	private File checkpointFile = null;
+	private long checkpointSeconds = 60;
+	private File cacheDirectory = null;
+	private long startFrame = 0;
+
+	public static void main(String[] args) {
+		BatchTracker tracker = new BatchTracker();
+		try {
+			tracker.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error: " + e.getMessage());
+			printUsage();
+			System.exit(1);
+		}
+
+		// load library
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		try {
+			tracker.run();
+		} catch (IOException e) {
+			System.err.println("Error: Unable to write to " + tracker.output.getAbsolutePath());
+			System.exit(1);
+		} catch (IllegalStateException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		} catch (ExecutionException | InterruptedException e) {
+			System.err.println("Error: Tracking failed");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Reads the command line options into the tracker's settings.
+	 * @param args The command line arguments.
+	 * @throws IllegalArgumentException If an option is malformed or no videos are given.
+	 */
+	public void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				videoFiles.add(new File(arg));
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String value = args[++i];
+			try {
+				switch (arg) {
+				case "--fish":
+					String[] xy = value.split(",");
+					if (xy.length != 2) {
+						throw new IllegalArgumentException("Fish position must be given as x,y: " + value);
+					}
+					startPositions.add(new Point(Double.parseDouble(xy[0]), Double.parseDouble(xy[1])));
+					break;
+				case "--scale":
+					Fish.setPixelToMM(1/Double.parseDouble(value));
+					break;
+				case "--video-scale":
+					videoScale = Double.parseDouble(value);
+					break;
+				case "--every":
+					framesPerDataCount = Integer.parseInt(value);
+					if (framesPerDataCount < 1) {
+						throw new IllegalArgumentException("Data points can't be recorded more often than every frame");
+					}
+					break;
+				case "--out":
+					output = new File(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					if (threads < 1) {
+						throw new IllegalArgumentException("At least one thread is needed");
+					}
+					break;
+				case "--segments":
+					segments = Integer.parseInt(value);
+					if (segments < 1) {
+						throw new IllegalArgumentException("At least one segment is needed");
+					}
+					break;
+				case "--pipeline":
+					pipelineFrames = Integer.parseInt(value);
+					if (pipelineFrames < 3) {
+						throw new IllegalArgumentException("The pipeline needs at least 3 frames in flight");
+					}
+					break;
+				case "--roi":
+					fullFramePeriod = Integer.parseInt(value);
+					if (fullFramePeriod < 1) {
+						throw new IllegalArgumentException("The whole frame must be searched at least every frame");
+					}
+					break;
+				case "--pyramid":
+					pyramidLevels = Integer.parseInt(value);
+					if (pyramidLevels < 0) {
+						throw new IllegalArgumentException("The pyramid can't have a negative number of levels");
+					}
+					break;
+				case "--background":
+					if (!value.equals(BackgroundModel.FRAME_DELAY) && !value.equals(BackgroundModel.RUNNING_AVERAGE) 
+							&& !value.equals(BackgroundModel.MOG2)) {
+						throw new IllegalArgumentException("Unknown background model " + value);
+					}
+					backgroundModel = value;
+					break;
+				case "--kernel":
+					if (!value.equals("opencv") && !value.equals("fused")) {
+						throw new IllegalArgumentException("Unknown motion kernel " + value);
+					}
+					fusedKernel = value.equals("fused");
+					break;
+				case "--strips":
+					strips = Integer.parseInt(value);
+					if (strips < 1) {
+						throw new IllegalArgumentException("At least one strip is needed");
+					}
+					break;
+				case "--profile":
+					try {
+						profile = MotionProfile.load(new File(value));
+					} catch (IOException e) {
+						throw new IllegalArgumentException("Unable to read the motion profile: " + e.getMessage());
+					}
+					break;
+				case "--static":
+					staticFloor = Integer.parseInt(value);
+					if (staticFloor < 0) {
+						throw new IllegalArgumentException("The noise floor can't be negative");
+					}
+					break;
+				case "--flow":
+					flowPeriod = Integer.parseInt(value);
+					if (flowPeriod < 1) {
+						throw new IllegalArgumentException("Motion must be captured at least every so many frames");
+					}
+					break;
+				case "--arena":
+					String[] xywh = value.split(",");
+					if (xywh.length != 4) {
+						throw new IllegalArgumentException("Arena must be given as x,y,w,h: " + value);
+					}
+					arenaRegions.add(new Rect(Integer.parseInt(xywh[0]), Integer.parseInt(xywh[1]), 
+							Integer.parseInt(xywh[2]), Integer.parseInt(xywh[3])));
+					break;
+				case "--tank":
+					try {
+						tankPolygon = TankMask.load(new File(value));
+					} catch (IOException e) {
+						throw new IllegalArgumentException("Unable to read the tank from " + value + ": " + e.getMessage());
+					}
+					break;
+				case "--flush":
+					flushMillis = Long.parseLong(value);
+					if (flushMillis < 1) {
+						throw new IllegalArgumentException("The flush interval must be at least 1 ms");
+					}
+					break;
+				case "--checkpoint":
+					checkpointFile = new File(value);
+					break;
+				case "--checkpoint-every":
+					checkpointSeconds = Long.parseLong(value);
+					if (checkpointSeconds < 1) {
+						throw new IllegalArgumentException("Checkpoints can't be taken more often than every second");
+					}
+					break;
+				case "--cache":
+					cacheDirectory = new File(value);
+					break;
+				case "--from":
+					startFrame = Long.parseLong(value);
+					if (startFrame < 0) {
+						throw new IllegalArgumentException("The first frame can't be negative");
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number for " + arg + ": " + value);
+			}
+		}
+		if (videoFiles.isEmpty()) {
+			throw new IllegalArgumentException("No videos given");
+		}
+		if (startPositions.isEmpty()) {
+			throw new IllegalArgumentException("No fish given");
+		}
+		if ((fullFramePeriod > 0 || strips > 1 || staticFloor > 0 || flowPeriod > 1 || tankPolygon != null) 
+				&& (threads > 1 || segments > 1 || pipelineFrames > 0)) {
+			// these follow the fish or the previous frame, so each frame can only be handled once the last is assigned
+			throw new IllegalArgumentException("--roi, --strips, --static, --flow and --tank can't be combined with "
+					+ "--threads, --segments or --pipeline");
+		}
+		if (pyramidLevels > 0 && pipelineFrames > 0) {
+			throw new IllegalArgumentException("--pyramid can't be combined with --pipeline");
+		}
+		try {
+			MotionVideoCapture.validateModes(fullFramePeriod > 0, pyramidLevels, backgroundModel, fusedKernel, strips, 
+					flowPeriod > 1, tankPolygon != null);
+		} catch (IllegalStateException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+		if (!arenaRegions.isEmpty() && (threads > 1 || segments > 1 || pipelineFrames > 0 || fullFramePeriod > 0 
+				|| pyramidLevels > 0 || strips > 1 || staticFloor > 0 || flowPeriod > 1 || tankPolygon != null || fusedKernel
+				|| !backgroundModel.equals(BackgroundModel.FRAME_DELAY))) {
+			// each arena already runs on a thread of its own
+			throw new IllegalArgumentException("--arena can only be combined with --fish, --scale, --video-scale, --every, "
+					+ "--out, --profile and --flush");
+		}
+		if (checkpointFile != null && (threads > 1 || segments > 1 || pipelineFrames > 0 || fullFramePeriod > 0 
+				|| pyramidLevels > 0 || strips > 1 || flowPeriod > 1 || fusedKernel || !arenaRegions.isEmpty() 
+				|| flushMillis > 0 || backgroundModel.equals(BackgroundModel.MOG2))) {
+			// only the plain engine's state is captured, and the mog2 model and the streamed file can't be copied
+			throw new IllegalArgumentException("--checkpoint can only be combined with --fish, --scale, --video-scale, "
+					+ "--every, --out, --profile, --static, --tank, --checkpoint-every and the delay or average background");
+		}
+		if (cacheDirectory != null && (pipelineFrames > 0 || fullFramePeriod > 0 || strips > 1 || staticFloor > 0 
+				|| flowPeriod > 1 || tankPolygon != null || !arenaRegions.isEmpty() || checkpointFile != null)) {
+			// the cached detections are those of the parallel tracker, which detects each video on its own
+			throw new IllegalArgumentException("--cache can't be combined with --pipeline, --roi, --strips, --static, "
+					+ "--flow, --tank, --arena or --checkpoint");
+		}
+		if (startFrame > 0 && cacheDirectory == null) {
+			throw new IllegalArgumentException("--from needs --cache");
+		}
+		if (flushMillis > 0 && isTrackFile(output)) {
+			throw new IllegalArgumentException("--flush only writes csv files");
+		}
+		if (!arenaRegions.isEmpty()) {
+			int[] fishPerArena = new int[arenaRegions.size()];
+			for (Point pos: startPositions) {
+				int a = arenaOf(pos);
+				if (a < 0) {
+					throw new IllegalArgumentException("The fish at " + pos.x + "," + pos.y + " isn't in any arena");
+				}
+				fishPerArena[a]++;
+			}
+			for (int a = 0; a < fishPerArena.length; a++) {
+				if (fishPerArena[a] == 0) {
+					throw new IllegalArgumentException("No fish given in arena " + (a + 1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tracks every video in order and writes the resulting tracks to the output file. With more than one thread or
+	 * segment, the videos are detected in parallel by a ParallelVideoTracker. Otherwise they are tracked one frame at a
+	 * time, either by a TrackingEngine or, if asked for, a PipelinedTracker. With --flush, the tracks are streamed to the
+	 * output file as they are recorded instead.
+	 * @throws IOException If the output location is invalid, or the tracks couldn't be written.
+	 * @throws ExecutionException If detection fails for one of the videos.
+	 * @throws InterruptedException If the tracker is interrupted while waiting for the workers.
+	 */
+	public void run() throws IOException, ExecutionException, InterruptedException {
+		if (!arenaRegions.isEmpty()) {
+			runArenas();
+			return;
+		}
+		List<Fish> fishes = new ArrayList<Fish>();
+		for (int i = 0; i < startPositions.size(); i++) {
+			fishes.add(new Fish(startPositions.get(i), i));
+		}
+		StreamingTrackWriter writer = flushMillis > 0 ? new StreamingTrackWriter(output, flushMillis, true) : null;
+
+		long start = System.nanoTime();
+		int frames;
+		if (threads > 1 || segments > 1 || cacheDirectory != null) {
+			ParallelVideoTracker tracker = new ParallelVideoTracker(videoFiles, videoScale, fishes, threads);
+			if (cacheDirectory != null && !cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+				throw new IOException("Unable to create the cache directory " + cacheDirectory);
+			}
+			tracker.setCacheDirectory(cacheDirectory);
+			tracker.setStartFrame(startFrame);
+			tracker.setSegmentsPerVideo(segments);
+			tracker.setPyramidLevels(pyramidLevels);
+			tracker.setBackgroundModel(backgroundModel);
+			tracker.setFusedKernel(fusedKernel);
+			tracker.setMotionProfile(profile);
+			tracker.getAssigner().setFramesPerDataCount(framesPerDataCount);
+			tracker.getAssigner().setWriter(writer);
+			tracker.addListener(new VideoQueueListener() {
+				@Override
+				public void videoAssigned(ParallelVideoTracker tracker, File file) {
+					// the fish start the next video from here
+					StringBuilder sb = new StringBuilder("Finished " + file.getName() + ":");
+					for (Fish fish: tracker.getAssigner().getFishes()) {
+						sb.append(String.format(" %s (%.1f, %.1f)", fish.getName(), fish.getCenter().x, 
+								fish.getCenter().y));
+					}
+					System.out.println(sb.toString());
+				}
+
+				@Override
+				public void segmentShifted(ParallelVideoTracker tracker, File file, int segment, int shift) {
+					System.out.printf("Segment %d of %s was found %+d frames from where it was expected.\n",
+							segment, file.getName(), shift);
+				}
+			});
+			tracker.run();
+			frames = tracker.getAssigner().getFrameCounter() - (int) startFrame;
+		} else {
+			List<MotionVideoCapture> videos = new ArrayList<MotionVideoCapture>();
+			for (File file: videoFiles) {
+				MotionVideoCapture video = new MotionVideoCapture(file.getAbsolutePath(), videoScale, 0, profile);
+				video.setDrawContours(false);
+				if (!backgroundModel.equals(BackgroundModel.FRAME_DELAY)) {
+					video.setBackgroundModel(backgroundModel);
+				}
+				if (fusedKernel) {
+					video.setFusedKernel(true);
+				}
+				if (strips > 1) {
+					video.setStrips(strips);
+				}
+				videos.add(video);
+			}
+			if (pipelineFrames > 0) {
+				PipelinedTracker tracker = new PipelinedTracker(videos, fishes, pipelineFrames);
+				tracker.getAssigner().setFramesPerDataCount(framesPerDataCount);
+				tracker.getAssigner().setWriter(writer);
+				tracker.run();
+				frames = tracker.getAssigner().getFrameCounter();
+				for (MotionVideoCapture video: videos) {
+					video.release();
+				}
+				videos.get(videos.size() - 1).releaseShared();
+			} else {
+				TrackingEngine engine = new TrackingEngine(videos, fishes);
+				engine.setFramesPerDataCount(framesPerDataCount);
+				engine.setRegionsOfInterest(fullFramePeriod);
+				engine.setStaticFrameFloor(staticFloor);
+				engine.setFlowPeriod(flowPeriod);
+				engine.setTrackWriter(writer);
+				TankMask tank = tankPolygon != null ? new TankMask(tankPolygon, videos.get(0).getSize()) : null;
+				if (tank != null) {
+					engine.setTankMask(tank);
+				}
+				if (pyramidLevels > 0) {
+					engine.setPyramidLevels(pyramidLevels);
+				}
+				Checkpointer checkpointer = checkpointFile != null ? startCheckpoints(engine) : null;
+				try {
+					engine.run();
+				} finally {
+					if (checkpointer != null) {
+						checkpointer.close();
+					}
+				}
+				if (checkpointer != null) {
+					System.out.printf("Wrote %d checkpoints, skipping %d while the previous one was being written\n", 
+							checkpointer.getWritten(), checkpointer.getSkipped());
+				}
+				frames = engine.getFrameCounter();
+				if (fullFramePeriod > 0) {
+					System.out.printf("Motion captured in %.1f%% of the pixels\n", 100*engine.getProcessedFraction());
+				}
+				if (staticFloor > 0) {
+					System.out.printf("Skipped %d static frames (%.1f%%)\n", engine.getStaticFrames(), 
+							100.0*engine.getStaticFrames()/Math.max(frames, 1));
+				}
+				if (flowPeriod > 1) {
+					System.out.printf("Followed the fish by optical flow in %d frames, with %d fallbacks to full detection\n", 
+							engine.getFlowFrames(), engine.getFlowFallbacks());
+				}
+				engine.release();
+				if (tank != null) {
+					tank.release();
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - start)/1e9;
+		System.out.printf("Tracked %d frames in %.1f s (%.1f frames/s)\n", frames, seconds, frames/seconds);
+
+		if (writer != null) {
+			writer.close();
+			System.out.printf("%d rows streamed to %s\n", writer.getRows(), output.getAbsolutePath());
+		} else {
+			save(fishes, output);
+			System.out.println("Data saved to " + output.getAbsolutePath());
+		}
+		if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+			System.err.println("Unable to delete the checkpoint " + checkpointFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Resumes the engine from the checkpoint file if there is one, and starts writing checkpoints to it.
+	 * @return The listener writing the checkpoints, which must be closed once tracking stops.
+	 * @throws IllegalStateException If the checkpoint can't be read, or was taken over other videos or fish.
+	 */
+	private Checkpointer startCheckpoints(TrackingEngine engine) {
+		TrackingCheckpoint checkpoint = new TrackingCheckpoint(videoFiles);
+		if (checkpointFile.exists()) {
+			try {
+				TrackingCheckpoint previous = TrackingCheckpoint.load(checkpointFile);
+				if (!previous.getVideoFiles().equals(checkpoint.getVideoFiles())) {
+					throw new IOException("it was taken over other videos");
+				}
+				previous.restore(engine);
+				checkpoint = previous;
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to resume from " + checkpointFile.getAbsolutePath() + ": " 
+						+ e.getMessage());
+			}
+			System.out.printf("Resumed from %s at frame %d of video %d, after %d frames tracked\n", 
+					checkpointFile.getAbsolutePath(), checkpoint.getPosition(), checkpoint.getVideoIndex() + 1, 
+					checkpoint.getFrameCounter());
+		}
+		Checkpointer checkpointer = new Checkpointer(checkpointFile, checkpoint, 1000*checkpointSeconds);
+		engine.addListener(checkpointer);
+		return checkpointer;
+	}
+
+	/**
+	 * Tracks every video with an Arena for each --arena rectangle, decoding each frame only once, and writes the tracks
+	 * of each arena to a file of its own.
+	 * @throws IOException If the output location is invalid, or the tracks couldn't be written.
+	 * @throws ExecutionException If tracking fails in one of the arenas.
+	 * @throws InterruptedException If the tracker is interrupted while waiting for the arenas.
+	 */
+	private void runArenas() throws IOException, ExecutionException, InterruptedException {
+		List<Arena> arenas = new ArrayList<Arena>();
+		for (int a = 0; a < arenaRegions.size(); a++) {
+			List<Fish> fishes = new ArrayList<Fish>();
+			for (Point pos: startPositions) {
+				if (arenaOf(pos) == a) {
+					fishes.add(new Fish(pos, fishes.size()));
+				}
+			}
+			Arena arena = new Arena("arena" + (a + 1), arenaRegions.get(a), fishes, profile);
+			arena.getAssigner().setFramesPerDataCount(framesPerDataCount);
+			if (flushMillis > 0) {
+				arena.getAssigner().setWriter(new StreamingTrackWriter(arenaOutput(arena), flushMillis, true));
+			}
+			arenas.add(arena);
+		}
+
+		long start = System.nanoTime();
+		ArenaTracker tracker = new ArenaTracker(videoFiles, videoScale, arenas);
+		try {
+			tracker.run();
+		} finally {
+			tracker.release();
+		}
+		int frames = tracker.getFrameCounter();
+		double seconds = (System.nanoTime() - start)/1e9;
+		System.out.printf("Tracked %d frames in %d arenas in %.1f s (%.1f frames/s)\n", frames, arenas.size(), seconds, 
+				frames/seconds);
+
+		for (Arena arena: arenas) {
+			File file = arenaOutput(arena);
+			StreamingTrackWriter writer = arena.getAssigner().getWriter();
+			if (writer != null) {
+				writer.close();
+				System.out.printf("%d rows for %s streamed to %s\n", writer.getRows(), arena.getName(), 
+						file.getAbsolutePath());
+			} else {
+				save(arena.getFishes(), file);
+				System.out.println("Data for " + arena.getName() + " saved to " + file.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Writes the tracks as a binary track file if the file's name ends in .trk, or as a csv file otherwise.
+	 */
+	private static void save(List<Fish> fishes, File file) throws IOException {
+		if (isTrackFile(file)) {
+			TrackFileWriter.write(fishes, file);
+		} else {
+			CsvTrackWriter.write(fishes, file);
+		}
+	}
+
+	private static boolean isTrackFile(File file) {
+		return file.getName().endsWith(TrackFile.EXTENSION);
+	}
+
+	/**
+	 * @return The index of the first arena that contains the point, or -1 if none do.
+	 */
+	private int arenaOf(Point pos) {
+		for (int a = 0; a < arenaRegions.size(); a++) {
+			if (arenaRegions.get(a).contains(pos)) {
+				return a;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The output file with the arena's name added before the extension, such as fishdata-arena1.csv.
+	 */
+	private File arenaOutput(Arena arena) {
+		String name = output.getName();
+		int dot = name.lastIndexOf('.');
+		String arenaName = dot > 0 ? name.substring(0, dot) + "-" + arena.getName() + name.substring(dot) 
+				: name + "-" + arena.getName();
+		return new File(output.getAbsoluteFile().getParentFile(), arenaName);
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: BatchTracker --fish x,y [--fish x,y]... [--scale pixelsPerMM] [--video-scale s] [--every n] "
+				+ "[--out file] [--threads n] [--segments n] [--pipeline n] [--roi n] [--pyramid n] [--background m] [--kernel k] [--strips n] "
+				+ "[--profile file] [--static n] [--flow k] [--tank file] [--arena x,y,w,h]... [--flush ms] [--checkpoint file] "
+				+ "[--checkpoint-every s] [--cache dir] [--from n] video...");
+	}
+}
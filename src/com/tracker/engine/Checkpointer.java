@@ -0,0 +1,82 @@
+package com.tracker.engine;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes a TrackingCheckpoint of an engine every so often while it tracks, so that a long run that is stopped or
+ * crashes can be resumed from close to where it got to, rather than from the start.
+ * <p> The state is copied on the tracking thread, and written to disk on a background thread. If the previous
+ * checkpoint is still being written when the next is due, that one is skipped rather than holding up tracking.
+ */
+public class Checkpointer implements TrackingListener {
+	private final File file;
+	private final TrackingCheckpoint checkpoint;
+	private final long periodNanos;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor();
+	private final AtomicBoolean writing = new AtomicBoolean(false);
+	private long lastTaken = System.nanoTime();
+	private volatile int written = 0, skipped = 0;
+
+	/**
+	 * @param file The file the checkpoints are written to, replacing the previous one each time.
+	 * @param checkpoint The checkpoint that the engine's state is copied into, either new or the one it was resumed from.
+	 * @param periodMillis The time between checkpoints.
+	 */
+	public Checkpointer(File file, TrackingCheckpoint checkpoint, long periodMillis) {
+		this.file = file;
+		this.checkpoint = checkpoint;
+		this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+	}
+
+	/* Getters */
+	public int getWritten() { return written; }
+	public int getSkipped() { return skipped; } // checkpoints that were due while the previous one was being written
+
+	@Override
+	public void frameTracked(TrackingEngine engine) {
+		long now = System.nanoTime();
+		if (now - lastTaken < periodNanos) {
+			return;
+		}
+		lastTaken = now;
+		if (!writing.compareAndSet(false, true)) {
+			skipped++;
+			return;
+		}
+		checkpoint.take(engine);
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkpoint.write(file);
+					written++;
+				} catch (IOException e) {
+					System.err.println("Unable to write the checkpoint to " + file.getAbsolutePath() + ": " + e.getMessage());
+				} finally {
+					writing.set(false);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void trackingFinished(TrackingEngine engine) {
+		close();
+	}
+
+	/**
+	 * Waits for the checkpoint being written, if any, and stops the background thread.
+	 */
+	public void close() {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package com.tracker.engine;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.tracker.model.Fish;
+import com.tracker.model.TrackStore;
+
+/**
+ * Loads the tracks from a csv file, in the layout read by CsvTrackReader, as fast as the disk allows. The file is
+ * memory-mapped and cut into chunks at line breaks, and the chunks are parsed in parallel on the common ForkJoinPool
+ * straight from the mapped bytes, without making a String for any cell.
+ * <p> Whether a time written by Excel means one mm:ss:SSS time or another depends on the row before it, which may be
+ * in another chunk, so the chunks only keep the raw times. Once every chunk is parsed, a single pass in order turns
+ * them into ms, as CsvTrackReader does, and fills in a TrackStore for each fish.
+ */
+public class CsvTrackImporter {
+	private final static int MIN_CHUNK = 1 << 20; // smaller files aren't worth splitting any further
+	private final static int MAX_LINE = 1 << 20; // longest a line may be, and how far a chunk may read past its end
+	private final static int CELLS_PER_FISH = 5;
+	private final static byte CLOCK = 0, DAY_FRACTION = 1; // the two ways a time can be written
+	private final static double[] POWERS_OF_TEN = new double[23]; // all exactly representable as doubles
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1]*10;
+		}
+	}
+	private final File file;
+	private final byte delimiter;
+	private int fishCount = 0, chunkCount = 0;
+	private int[] fishIndices = new int[0];
+	private List<TrackStore> tracks = new ArrayList<TrackStore>();
+	private long rows = 0;
+
+	/**
+	 * @param file The csv file.
+	 * @param delimiter The character between cells, such as ',' or a tab.
+	 */
+	public CsvTrackImporter(File file, char delimiter) {
+		this.file = file;
+		this.delimiter = (byte) delimiter;
+	}
+
+	/* Getters */
+	public long getRows() { return rows; }
+	public int getChunkCount() { return chunkCount; }
+	public int getFishCount() { return fishCount; }
+	public int getFishIndex(int k) { return fishIndices[k]; }
+	public List<TrackStore> getTracks() { return tracks; } // in pixels, with the row number as each sample's frame
+
+	/**
+	 * Reads the whole file. A fish with no sample in a row is left out of its track for that row, so the tracks may
+	 * end up with different lengths.
+	 * @throws IOException If the file can't be read, or a row is malformed or has a different number of fish.
+	 * @throws InterruptedException If the thread is interrupted while waiting for the chunks.
+	 */
+	public void run() throws IOException, InterruptedException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			fishCount = (countCells(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_LINE))) + 1)
+					/CELLS_PER_FISH;
+			if (fishCount == 0) {
+				throw new IOException(file + " has no rows");
+			}
+			chunkCount = (int) Math.max(1, Math.min(size/MIN_CHUNK, 4*ForkJoinPool.commonPool().getParallelism()));
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			for (int i = 0; i < chunkCount; i++) {
+				chunks.add(new Chunk(channel, size, size*i/chunkCount, size*(i + 1)/chunkCount));
+			}
+			for (Future<Void> result: ForkJoinPool.commonPool().invokeAll(chunks)) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException("Unable to read " + file, e.getCause());
+				}
+			}
+			fishIndices = chunks.get(0).firstIndices;
+			resolve(chunks);
+		}
+	}
+
+	/**
+	 * Turns the raw times of every chunk into ms, in order, and moves the samples into the tracks.
+	 */
+	private void resolve(List<Chunk> chunks) throws IOException {
+		tracks = new ArrayList<TrackStore>();
+		for (int k = 0; k < fishCount; k++) {
+			tracks.add(new TrackStore());
+		}
+		double pixelToMM = Fish.getPixelToMM(), previous = -1;
+		rows = 0;
+		for (Chunk chunk: chunks) {
+			for (int r = 0; r < chunk.rows; r++, rows++) {
+				double timestamp = chunk.kinds[r] == CLOCK ? CsvTrackReader.resolveClock(chunk.times[r], previous)
+						: CsvTrackReader.resolveDayFraction(chunk.times[r], previous);
+				if (timestamp < 0) {
+					throw new IOException("Row " + rows + " of " + file + " has a time that isn't mm:ss:SSS");
+				}
+				previous = timestamp;
+				for (int k = 0, i = r*fishCount; k < fishCount; k++, i++) {
+					if (chunk.present[i]) {
+						tracks.get(k).append(rows, timestamp, (float) (chunk.xs[i]/pixelToMM),
+								(float) (chunk.ys[i]/pixelToMM), 0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of cells in the first line that isn't blank.
+	 */
+	private int countCells(MappedByteBuffer buffer) {
+		int i = 0, limit = buffer.limit();
+		while (i < limit && (buffer.get(i) == '\n' || buffer.get(i) == '\r')) {
+			i++;
+		}
+		if (i == limit) {
+			return 0;
+		}
+		int cells = 1;
+		for (; i < limit && buffer.get(i) != '\n'; i++) {
+			if (buffer.get(i) == delimiter) {
+				cells++;
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Parses the lines that start between two byte offsets of the file. The samples are kept in flat arrays, with one
+	 * entry per row for the times and one per row and fish for the rest.
+	 */
+	private class Chunk implements Callable<Void> {
+		private final FileChannel channel;
+		private final long size, start, end;
+		private MappedByteBuffer buffer;
+		private long offset; // where in the file the buffer starts
+		private int pos, limit;
+		private int rows = 0;
+		private long[] times = new long[1024];
+		private byte[] kinds = new byte[1024];
+		private float[] xs, ys;
+		private boolean[] present;
+		private int[] firstIndices;
+		private final long[] fields = new long[3]; // scratch for the parts of a mm:ss:SSS time
+
+		Chunk(FileChannel channel, long size, long start, long end) {
+			this.channel = channel;
+			this.size = size;
+			this.start = start;
+			this.end = end;
+			xs = new float[times.length*fishCount];
+			ys = new float[xs.length];
+			present = new boolean[xs.length];
+			firstIndices = new int[fishCount];
+			for (int k = 0; k < fishCount; k++) {
+				firstIndices[k] = k;
+			}
+		}
+
+		@Override
+		public Void call() throws IOException {
+			// a line belongs to the chunk it starts in, so look back one byte to see whether this chunk starts a line
+			offset = Math.max(start - 1, 0);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size, end + MAX_LINE) - offset);
+			limit = buffer.limit();
+			pos = (int) (start - offset);
+			if (start > 0 && buffer.get(0) != '\n') {
+				skipLine();
+			}
+			while (pos < end - offset && pos < limit) {
+				if (buffer.get(pos) == '\n' || buffer.get(pos) == '\r') {
+					pos++; // blank line
+					continue;
+				}
+				parseRow();
+			}
+			return null;
+		}
+
+		private void parseRow() throws IOException {
+			if (rows == times.length) {
+				grow();
+			}
+			int base = rows*fishCount;
+			boolean timed = false; // the row's time is taken from the first fish with a sample
+			for (int k = 0; k < fishCount; k++) {
+				if (k > 0) {
+					// past the previous fish's y and the empty separator
+					nextCell();
+					nextCell();
+				}
+				int indexCell = pos;
+				nextCell();
+				present[base + k] = !isCellEnd(pos);
+				if (!present[base + k]) {
+					nextCell();
+					nextCell();
+					continue;
+				}
+				if (rows == 0) {
+					firstIndices[k] = (int) parseNumber(indexCell);
+				}
+				if (!timed) {
+					parseTime();
+					timed = true;
+				}
+				nextCell();
+				xs[base + k] = (float) parseNumber(pos);
+				nextCell();
+				ys[base + k] = (float) parseNumber(pos);
+			}
+			// anything after the last fish's y must be empty cells
+			while (!isCellEnd(pos)) {
+				pos++;
+			}
+			for (; pos < limit && buffer.get(pos) != '\n'; pos++) {
+				byte b = buffer.get(pos);
+				if (b != delimiter && b != '\r' && b != ' ') {
+					throw error("has more than " + fishCount + " fish");
+				}
+			}
+			if (pos == limit && offset + limit < size) {
+				throw error("is longer than " + MAX_LINE + " bytes");
+			}
+			pos++;
+			rows++;
+		}
+
+		/**
+		 * Reads the time in the current cell, either mm:ss:SSS or a fraction of a day, without resolving it.
+		 */
+		private void parseTime() throws IOException {
+			Arrays.fill(fields, 0);
+			int n = 0, i = pos;
+			boolean digits = false;
+			for (; !isCellEnd(i) && n < 3; i++) {
+				byte b = buffer.get(i);
+				if (b >= '0' && b <= '9') {
+					fields[n] = fields[n]*10 + (b - '0');
+					digits = true;
+				} else if (b == ':' && digits) {
+					n++;
+					digits = false;
+				} else {
+					break;
+				}
+			}
+			if (n == 2 && digits && isCellEnd(i)) {
+				times[rows] = fields[0]*60000 + fields[1]*1000 + fields[2];
+				kinds[rows] = CLOCK;
+			} else {
+				times[rows] = Math.round(parseNumber(pos)*CsvTrackReader.DAY_SECONDS);
+				kinds[rows] = DAY_FRACTION;
+			}
+		}
+
+		/**
+		 * Reads a decimal number, which may have a sign and an exponent, from the cell starting at i. With no more than
+		 * 22 digits after the point, the division is by an exact power of ten, so the result is the same as
+		 * Double.parseDouble() gives.
+		 */
+		private double parseNumber(int i) throws IOException {
+			int from = i;
+			while (!isCellEnd(i) && buffer.get(i) == ' ') {
+				i++;
+			}
+			boolean negative = !isCellEnd(i) && buffer.get(i) == '-';
+			if (negative || (!isCellEnd(i) && buffer.get(i) == '+')) {
+				i++;
+			}
+			long mantissa = 0;
+			int digits = 0, scale = 0;
+			boolean point = false;
+			for (; !isCellEnd(i); i++) {
+				byte b = buffer.get(i);
+				if (b >= '0' && b <= '9') {
+					if (digits < 18) {
+						mantissa = mantissa*10 + (b - '0');
+						digits++;
+						scale += point ? 1 : 0;
+					} else if (!point) {
+						scale--; // too many digits to hold, so the rest only count towards the size
+					}
+				} else if (b == '.' && !point) {
+					point = true;
+				} else {
+					break;
+				}
+			}
+			if (i < limit && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+				i++;
+				boolean negativeExponent = !isCellEnd(i) && buffer.get(i) == '-';
+				if (negativeExponent || (!isCellEnd(i) && buffer.get(i) == '+')) {
+					i++;
+				}
+				int exponent = 0;
+				for (; !isCellEnd(i) && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+					exponent = Math.min(exponent*10 + (buffer.get(i) - '0'), 1000);
+				}
+				scale += negativeExponent ? exponent : -exponent;
+			}
+			while (!isCellEnd(i) && buffer.get(i) == ' ') {
+				i++;
+			}
+			if (digits == 0 || !isCellEnd(i)) {
+				pos = from;
+				throw error("has a cell that isn't a number");
+			}
+			double value;
+			if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+				value = mantissa/POWERS_OF_TEN[scale];
+			} else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+				value = mantissa*POWERS_OF_TEN[-scale];
+			} else {
+				value = mantissa*Math.pow(10, -scale);
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Moves to the start of the next cell in the line.
+		 * @throws IOException If the line has no more cells.
+		 */
+		private void nextCell() throws IOException {
+			while (!isCellEnd(pos)) {
+				pos++;
+			}
+			if (pos >= limit || buffer.get(pos) != delimiter) {
+				throw error("has fewer than " + fishCount + " fish");
+			}
+			pos++;
+		}
+
+		private boolean isCellEnd(int i) {
+			if (i >= limit) {
+				return true;
+			}
+			byte b = buffer.get(i);
+			return b == delimiter || b == '\n' || b == '\r';
+		}
+
+		private void skipLine() {
+			while (pos < limit && buffer.get(pos) != '\n') {
+				pos++;
+			}
+			pos++;
+		}
+
+		private void grow() {
+			int capacity = 2*times.length;
+			times = Arrays.copyOf(times, capacity);
+			kinds = Arrays.copyOf(kinds, capacity);
+			xs = Arrays.copyOf(xs, capacity*fishCount);
+			ys = Arrays.copyOf(ys, capacity*fishCount);
+			present = Arrays.copyOf(present, capacity*fishCount);
+		}
+
+		/**
+		 * @return An exception for the line at the current position, giving where it starts in the file.
+		 */
+		private IOException error(String problem) {
+			int lineStart = Math.min(pos, limit);
+			while (lineStart > 0 && buffer.get(lineStart - 1) != '\n') {
+				lineStart--;
+			}
+			return new IOException("The line at byte " + (offset + lineStart) + " of " + file + " " + problem);
+		}
+	}
+}
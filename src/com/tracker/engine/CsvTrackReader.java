@@ -0,0 +1,190 @@
+package com.tracker.engine;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the rows of a csv file written by CsvTrackWriter, or by an older version of the tracker, one at a time. Each
+ * row holds a group of cells for each fish: its index, the video time, its x and y position in mm, and an empty
+ * separator. A fish with no sample in the row has all of its cells empty.
+ * <p> The times are normally mm:ss:SSS, but many files have been through Excel, which reads mm:ss:SSS as hh:mm:ss
+ * whenever it can and saves it back as a fraction of a day. Both are turned back into ms; see parseTime().
+ * <pre>
+ * CsvTrackReader reader = new CsvTrackReader(file, ',');
+ * while (reader.next()) {
+ *     use(reader.getTimestamp(), reader.getX(0), reader.getY(0));
+ * }
+ * </pre>
+ */
+public class CsvTrackReader implements Closeable {
+	final static long HOUR = 3600000, DAY_SECONDS = 86400;
+	private final static int CELLS_PER_FISH = 5;
+	private final BufferedReader reader;
+	private final String delimiter;
+	private int fishCount = -1, line = 0;
+	private long row = -1;
+	private double timestamp = -1;
+	private int[] fishIndices;
+	private float[] xs, ys;
+	private boolean[] present;
+
+	/**
+	 * @param file The csv file.
+	 * @param delimiter The character between cells, such as ',' or a tab.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public CsvTrackReader(File file, char delimiter) throws IOException {
+		reader = new BufferedReader(new FileReader(file));
+		this.delimiter = Pattern.quote(String.valueOf(delimiter));
+	}
+
+	/* Getters for the current row */
+	public long getRow() { return row; } // the csv files don't record the frame, so rows are numbered from 0 instead
+	public double getTimestamp() { return timestamp; }
+	public int getFishCount() { return fishCount; }
+	public int getFishIndex(int k) { return fishIndices[k]; }
+	public boolean hasSample(int k) { return present[k]; }
+	public float getX(int k) { return xs[k]; }
+	public float getY(int k) { return ys[k]; }
+
+	/**
+	 * Moves on to the next row, skipping blank lines.
+	 * @return True, if there is a next row.
+	 * @throws IOException If the file can't be read, or the row is malformed or has a different number of fish.
+	 */
+	public boolean next() throws IOException {
+		String text;
+		do {
+			text = reader.readLine();
+			line++;
+			if (text == null) {
+				return false;
+			}
+		} while (text.trim().isEmpty());
+
+		String[] cells = text.split(delimiter, -1);
+		int n = (cells.length + 1)/CELLS_PER_FISH;
+		if (fishCount < 0) {
+			fishCount = n;
+			fishIndices = new int[n];
+			xs = new float[n];
+			ys = new float[n];
+			present = new boolean[n];
+			for (int k = 0; k < n; k++) {
+				fishIndices[k] = k;
+			}
+		} else if (n != fishCount) {
+			throw new IOException("Line " + line + " has " + n + " fish instead of " + fishCount);
+		}
+		row++;
+		double previous = timestamp;
+		boolean timed = false; // the row's time is taken from the first fish with a sample
+		try {
+			for (int k = 0; k < n; k++) {
+				int c = k*CELLS_PER_FISH;
+				present[k] = !cells[c + 1].trim().isEmpty();
+				if (!present[k]) {
+					xs[k] = ys[k] = 0;
+					continue;
+				}
+				if (row == 0) {
+					fishIndices[k] = Integer.parseInt(cells[c].trim());
+				}
+				if (!timed) {
+					timestamp = parseTime(cells[c + 1].trim(), previous);
+					timed = true;
+				}
+				xs[k] = Float.parseFloat(cells[c + 2].trim());
+				ys[k] = Float.parseFloat(cells[c + 3].trim());
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Line " + line + " isn't a row of fish data: " + text);
+		}
+		return true;
+	}
+
+	/**
+	 * Turns a time cell back into ms. The csv files leave the hours out of mm:ss:SSS, so whenever the time falls by
+	 * more than half an hour from the previous row, an hour has passed.
+	 * <p> A time Excel has read as hh:mm:ss is a fraction of a day, which is really (mm*3600 + ss*60 + SSS) seconds.
+	 * As SSS goes up to 999, several mm:ss:SSS times give the same fraction, so the one picked is the first at or after
+	 * the previous row's time, or the nearest if they are all before it.
+	 * @param cell The time, as mm:ss:SSS or a fraction of a day.
+	 * @param previous The previous row's time in ms, or a negative number for the first row.
+	 * @return The time in ms.
+	 * @throws NumberFormatException If the cell isn't a time.
+	 */
+	public static double parseTime(String cell, double previous) {
+		if (cell.indexOf(':') >= 0) {
+			String[] parts = cell.split(":");
+			if (parts.length != 3) {
+				throw new NumberFormatException("Not a time: " + cell);
+			}
+			return resolveClock(Long.parseLong(parts[0])*60000 + Long.parseLong(parts[1])*1000 + Long.parseLong(parts[2]),
+					previous);
+		}
+		double time = resolveDayFraction(Math.round(Double.parseDouble(cell)*DAY_SECONDS), previous);
+		if (time < 0) {
+			throw new NumberFormatException("Not a time: " + cell);
+		}
+		return time;
+	}
+
+	/**
+	 * Adds the hours back to a mm:ss:SSS time, going by the previous row.
+	 * @param ms The mm:ss:SSS time, in ms.
+	 * @param previous The previous row's time in ms, or a negative number for the first row.
+	 * @return The time in ms.
+	 */
+	static double resolveClock(long ms, double previous) {
+		long reference = previous < 0 ? 0 : (long) previous;
+		return unwrap(reference - reference % HOUR + ms, reference);
+	}
+
+	/**
+	 * Picks the mm:ss:SSS time that Excel turned into a number of seconds which is the best guess after the previous
+	 * row.
+	 * @param seconds The Excel time as whole seconds, which is the fraction of a day times 86400.
+	 * @param previous The previous row's time in ms, or a negative number for the first row.
+	 * @return The time in ms, or -1 if no mm:ss:SSS time gives that many seconds.
+	 */
+	static double resolveDayFraction(long seconds, double previous) {
+		long reference = previous < 0 ? 0 : (long) previous;
+		long hour = reference - reference % HOUR;
+		long best = -1;
+		// only the few mm and ss that leave 0 to 999 seconds over for SSS are tried
+		for (long mm = Math.max(0, (seconds - 59*60 - 999 + 3599)/3600); mm < 60 && mm*3600 <= seconds; mm++) {
+			long rest = seconds - mm*3600;
+			for (long ss = Math.max(0, (rest - 999 + 59)/60); ss < 60 && ss*60 <= rest; ss++) {
+				long sss = rest - ss*60;
+				long ms = unwrap(hour + mm*60000 + ss*1000 + sss, reference);
+				if (best < 0 || isCloser(ms, best, reference)) {
+					best = ms;
+				}
+			}
+		}
+		return best;
+	}
+
+	private static long unwrap(long ms, long reference) {
+		return ms < reference - HOUR/2 ? ms + HOUR : ms;
+	}
+
+	/**
+	 * @return True, if time a is a better guess than time b for the row after one at the reference time.
+	 */
+	private static boolean isCloser(long a, long b, long reference) {
+		if ((a >= reference) != (b >= reference)) {
+			return a >= reference;
+		}
+		return Math.abs(a - reference) < Math.abs(b - reference);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
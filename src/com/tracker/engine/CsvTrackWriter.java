@@ -0,0 +1,103 @@
+package com.tracker.engine;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+
+import com.tracker.model.Fish;
+import com.tracker.model.TrackStore;
+
+/**
+ * Writes the recorded track of a group of fish to a csv file. Each row holds one data point per fish, and each fish is
+ * separated by an empty column. A data point is the fish's index, the video time as mm:ss:SSS, and the fish's position
+ * in mm.
+ */
+public class CsvTrackWriter {
+	
+	/**
+	 * Saves the data from each fish into a csv file.
+	 * @param fishes The fish whose data should be saved.
+	 * @param file The location for the data to be saved to.
+	 * @throws FileNotFoundException If location is invalid.
+	 */
+	public static void write(List<Fish> fishes, File file) throws FileNotFoundException {
+		try (PrintWriter writer = new PrintWriter(file)) {
+			int n_data = 0;
+			for (Fish fish: fishes) {
+				n_data = Math.max(n_data, fish.getTrack().size());
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < n_data; i++) {
+				sb.setLength(0);
+				for (Fish fish: fishes) {
+					TrackStore track = fish.getTrack();
+					if (i >= track.size()) {
+						sb.append(",,,,,"); // empty cells where a fish has fewer data points than the others
+						continue;
+					}
+					sb.append(fish.getIndex()).append(',');
+					appendTime(sb, track.getTimestamp(i));
+					sb.append(String.format(Locale.ROOT, ",%.2f,%.2f", Fish.toMM(track.getX(i)), Fish.toMM(track.getY(i))));
+					sb.append(",,");
+				}
+				sb.append("\n");
+				writer.write(sb.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Saves the tracks in a binary track file as a csv file, in the same layout as when they are saved from the fish.
+	 * Positions are kept to two decimal places, which is all that the csv files have ever held, so a track file converted
+	 * from a csv file gives the same values back.
+	 * @param track The track file.
+	 * @param file The location for the data to be saved to.
+	 * @param delimiter The character between cells, such as ',' or a tab.
+	 * @throws FileNotFoundException If location is invalid.
+	 */
+	public static void write(TrackFile track, File file, char delimiter) throws FileNotFoundException {
+		try (PrintWriter writer = new PrintWriter(file)) {
+			StringBuilder sb = new StringBuilder();
+			for (long i = 0; i < track.getRows(); i++) {
+				sb.setLength(0);
+				for (int k = 0; k < track.getFishCount(); k++) {
+					if (!track.hasSample(i, k)) {
+						for (int c = 0; c < 5; c++) {
+							sb.append(delimiter);
+						}
+						continue;
+					}
+					sb.append(track.getFishIndex(k)).append(delimiter);
+					appendTime(sb, track.getTimestamp(i));
+					sb.append(String.format(Locale.ROOT, "%c%.2f%c%.2f", delimiter, track.getX(i, k), delimiter, track.getY(i, k)));
+					sb.append(delimiter).append(delimiter);
+				}
+				sb.append("\n");
+				writer.write(sb.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Appends a video timestamp as minutes, seconds and milliseconds. Hours are left out, as they always have been in
+	 * the csv files.
+	 * @param sb The destination.
+	 * @param timeMillis Time from the video, in ms.
+	 */
+	public static void appendTime(StringBuilder sb, double timeMillis) {
+		long ms = (long) timeMillis;
+		appendPadded(sb, ms/60000 % 60, 2).append(':');
+		appendPadded(sb, ms/1000 % 60, 2).append(':');
+		appendPadded(sb, ms % 1000, 3);
+	}
+	
+	private static StringBuilder appendPadded(StringBuilder sb, long value, int digits) {
+		for (long limit = 10; digits > 1; digits--, limit *= 10) {
+			if (value < limit) {
+				sb.append('0');
+			}
+		}
+		return sb.append(value);
+	}
+}
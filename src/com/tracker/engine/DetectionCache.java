@@ -0,0 +1,193 @@
+package com.tracker.engine;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.tracker.model.Detections;
+
+/**
+ * Reads back the detections of a video from a cache file written by DetectionCacheWriter, so that the fish can be
+ * assigned again, such as with a different assignment rule or after correcting a fish's position, without decoding the
+ * video or capturing any motion. Assigning a frame takes microseconds where decoding it takes milliseconds.
+ * <p> Each cache file is named after a key, see keyOf(), made from the video and the motion parameters, so a cache is
+ * only ever used for the video and settings that it was made with. The file is little-endian, and is laid out as:
+ * <pre>
+ * header     64 bytes: magic, version, the number of frames, the offset of the index, then the key
+ * frames     for each frame: timestamp in ms (double), number of candidates (int), flags (int), then for each
+ *            candidate x (double), y (double) and area (float), all in pixels of the scaled frame
+ * index      one long per frame, the offset of the frame
+ * </pre>
+ * <pre>
+ * DetectionCache cache = new DetectionCache(file);
+ * cache.seek(frame);
+ * while (cache.next(detections)) {
+ *     assigner.assign(detections);
+ * }
+ * </pre>
+ */
+public class DetectionCache implements Closeable {
+	public final static String EXTENSION = ".det";
+	public final static int MAGIC = 0x54454446; // "FDET" when read as little-endian bytes
+	public final static int VERSION = 1;
+	public final static int STATIC = 1; // flag for a frame that was skipped as static
+	final static int HEADER_SIZE = 64, FRAME_HEADER = 16, CANDIDATE_SIZE = 20;
+	final static int OFFSET_FRAMES = 8, OFFSET_INDEX = 16, OFFSET_KEY = 24, KEY_SIZE = 32;
+	private final static int BUFFER_SIZE = 1 << 16;
+	private final static int SAMPLE_SIZE = 1 << 20; // bytes hashed from each part of a video for its key
+	private final FileChannel channel;
+	private final long frames, indexOffset;
+	private final String key;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private long frame = 0, bufferStart = HEADER_SIZE;
+
+	/**
+	 * Opens a cache file.
+	 * @param file The cache file.
+	 * @throws IOException If the file can't be read, or isn't a whole cache file.
+	 */
+	public DetectionCache(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// keep reading
+			}
+			if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+				throw new IOException(file + " isn't a detection cache");
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException(file + " is version " + header.getInt(4) + " of the cache format, not " + VERSION);
+			}
+			frames = header.getLong(OFFSET_FRAMES);
+			indexOffset = header.getLong(OFFSET_INDEX);
+			if (frames < 0 || indexOffset < HEADER_SIZE || indexOffset + 8*frames != channel.size()) {
+				throw new IOException(file + " is truncated");
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < KEY_SIZE; i++) {
+				sb.append(String.format("%02x", header.get(OFFSET_KEY + i)));
+			}
+			key = sb.toString();
+			buffer.limit(0);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/* Getters */
+	public long getFrames() { return frames; }
+	public String getKey() { return key; }
+
+	/**
+	 * Moves to a frame, so that it is the next one read.
+	 * @param index The 0-based index of the frame in the video.
+	 * @throws IOException If the index can't be read.
+	 */
+	public void seek(long index) throws IOException {
+		if (index >= frames) {
+			frame = frames;
+			return;
+		}
+		ByteBuffer offset = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(offset, indexOffset + 8*Math.max(index, 0));
+		frame = Math.max(index, 0);
+		bufferStart = offset.getLong(0);
+		buffer.limit(0);
+	}
+
+	/**
+	 * Reads the next frame's detections.
+	 * @param detections The detections to be filled in, which are cleared first.
+	 * @return True, if there was a next frame.
+	 * @throws IOException If the file can't be read.
+	 */
+	public boolean next(Detections detections) throws IOException {
+		if (frame >= frames) {
+			return false;
+		}
+		fill(FRAME_HEADER);
+		detections.clear(buffer.getDouble());
+		int count = buffer.getInt(), flags = buffer.getInt();
+		if ((flags & STATIC) != 0) {
+			detections.markStatic();
+		}
+		for (int i = 0; i < count; i++) {
+			fill(CANDIDATE_SIZE);
+			detections.add(buffer.getDouble(), buffer.getDouble(), buffer.getFloat());
+		}
+		frame++;
+		return true;
+	}
+
+	/**
+	 * Makes sure the buffer holds at least the next n bytes of the file.
+	 */
+	private void fill(int n) throws IOException {
+		if (buffer.remaining() >= n) {
+			return;
+		}
+		bufferStart += buffer.position();
+		buffer.compact();
+		while (buffer.position() < n) {
+			if (channel.read(buffer, bufferStart + buffer.position()) < 0) {
+				throw new IOException("The detection cache ends part way through frame " + frame);
+			}
+		}
+		buffer.flip();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Makes the key that a video's cache is named after. Hashing a whole video would take a good part of the time it
+	 * takes to decode it, so only its length and a megabyte from its start, middle and end are hashed, together with
+	 * the parameters. Any re-encoding or edit of the video changes at least one of those.
+	 * @param video The video.
+	 * @param parameters Everything that changes which candidates are detected, such as the scale and background model.
+	 * @return The key, as 64 hex digits.
+	 * @throws IOException If the video can't be read.
+	 */
+	public static String keyOf(File video, String parameters) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 isn't available", e);
+		}
+		digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+		try (RandomAccessFile file = new RandomAccessFile(video, "r")) {
+			long length = file.length();
+			digest.update(ByteBuffer.allocate(8).putLong(length).array());
+			byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, length)];
+			for (long start: new long[] {0, (length - sample.length)/2, length - sample.length}) {
+				file.seek(start);
+				file.readFully(sample);
+				digest.update(sample);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b: digest.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return The cache file for a key in a cache directory.
+	 */
+	public static File fileFor(File directory, String key) {
+		return new File(directory, key + EXTENSION);
+	}
+}
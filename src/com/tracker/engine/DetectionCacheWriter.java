@@ -0,0 +1,132 @@
+package com.tracker.engine;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.tracker.model.Detections;
+
+/**
+ * Writes the detections of a video, frame by frame, to a cache file that can be read back with DetectionCache. The
+ * frames go to a temporary file, which only replaces the cache file once finish() is called, so a run that stops part
+ * way through a video never leaves a cache that looks whole.
+ */
+public class DetectionCacheWriter implements Closeable {
+	private final static int BUFFER_SIZE = 1 << 16;
+	private final File file, temporary;
+	private final byte[] key;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private long[] index = new long[1024];
+	private long frames = 0, offset = DetectionCache.HEADER_SIZE;
+	private boolean closed = false;
+
+	/**
+	 * Creates the temporary file.
+	 * @param file The cache file, normally DetectionCache.fileFor() the key.
+	 * @param key The key from DetectionCache.keyOf().
+	 * @throws IOException If the file can't be created.
+	 */
+	public DetectionCacheWriter(File file, String key) throws IOException {
+		if (key.length() != 2*DetectionCache.KEY_SIZE) {
+			throw new IllegalArgumentException("Not a key: " + key);
+		}
+		this.file = file;
+		this.key = new byte[DetectionCache.KEY_SIZE];
+		for (int i = 0; i < this.key.length; i++) {
+			this.key[i] = (byte) Integer.parseInt(key.substring(2*i, 2*i + 2), 16);
+		}
+		temporary = new File(file.getPath() + ".tmp");
+		channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		// the header is only filled in by finish()
+		buffer.position(DetectionCache.HEADER_SIZE);
+	}
+
+	public long getFrames() { return frames; }
+
+	/**
+	 * Adds the next frame's detections to the end of the file.
+	 * @param detections The frame's detections.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public void append(Detections detections) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("The detection cache has been closed");
+		}
+		if (frames == index.length) {
+			index = Arrays.copyOf(index, 2*index.length);
+		}
+		index[(int) frames++] = offset;
+		reserve(DetectionCache.FRAME_HEADER);
+		buffer.putDouble(detections.getTimestamp()).putInt(detections.size())
+				.putInt(detections.isStatic() ? DetectionCache.STATIC : 0);
+		for (int i = 0; i < detections.size(); i++) {
+			reserve(DetectionCache.CANDIDATE_SIZE);
+			buffer.putDouble(detections.getX(i)).putDouble(detections.getY(i)).putFloat((float) detections.getArea(i));
+		}
+		offset += DetectionCache.FRAME_HEADER + detections.size()*DetectionCache.CANDIDATE_SIZE;
+	}
+
+	/**
+	 * Writes the index and the header, syncs the file and moves it into place as the cache file.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public void finish() throws IOException {
+		if (closed) {
+			throw new IllegalStateException("The detection cache has been closed");
+		}
+		for (int i = 0; i < frames; i++) {
+			reserve(8);
+			buffer.putLong(index[i]);
+		}
+		flush();
+		buffer.putInt(DetectionCache.MAGIC).putInt(DetectionCache.VERSION).putLong(frames).putLong(offset).put(key);
+		while (buffer.position() < DetectionCache.HEADER_SIZE) {
+			buffer.put((byte) 0);
+		}
+		buffer.flip();
+		for (long position = 0; buffer.hasRemaining(); ) {
+			position += channel.write(buffer, position);
+		}
+		channel.force(true);
+		channel.close();
+		closed = true;
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Closes the file. If finish() hasn't been called, the temporary file is deleted and no cache is left behind.
+	 * @throws IOException If the file couldn't be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		channel.close();
+		Files.deleteIfExists(temporary.toPath());
+	}
+
+	private void reserve(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
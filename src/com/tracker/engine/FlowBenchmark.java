@@ -0,0 +1,88 @@
+package com.tracker.engine;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Point;
+
+import com.tracker.model.Fish;
+import com.tracker.model.MotionVideoCapture;
+import com.tracker.model.TrackStore;
+
+/**
+ * Tracks the same video twice, once capturing motion in every frame and once only every k frames with the fish followed
+ * by optical flow in between, and reports how much faster the hybrid is and how far its tracks stray from the
+ * every-frame baseline. Both runs record a data point every frame, so every frame's positions are compared.
+ * <p> Usage: <pre>
+ * java com.tracker.engine.FlowBenchmark video k x,y [x,y]...
+ * </pre>
+ */
+public class FlowBenchmark {
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: FlowBenchmark video k x,y [x,y]...");
+			System.exit(1);
+		}
+		int period = Integer.parseInt(args[1]);
+		List<Point> starts = new ArrayList<Point>();
+		for (int i = 2; i < args.length; i++) {
+			String[] xy = args[i].split(",");
+			starts.add(new Point(Double.parseDouble(xy[0]), Double.parseDouble(xy[1])));
+		}
+
+		// load library
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		List<Fish> baseline = placeFish(starts), hybrid = placeFish(starts);
+		TrackingEngine baselineEngine = newEngine(args[0], baseline, 1);
+		TrackingEngine hybridEngine = newEngine(args[0], hybrid, period);
+		long start = System.nanoTime();
+		baselineEngine.run();
+		long middle = System.nanoTime();
+		hybridEngine.run();
+		long end = System.nanoTime();
+
+		int frames = Math.max(baselineEngine.getFrameCounter(), 1);
+		System.out.printf("Detecting every frame: %.2f ms/frame\n", (middle - start)/1e6/frames);
+		System.out.printf("Detecting every %d frames: %.2f ms/frame (%.2fx faster)\n", period, (end - middle)/1e6/frames, 
+				(double) (middle - start)/(end - middle));
+		System.out.printf("Followed by flow in %d frames, with %d fallbacks to full detection\n", 
+				hybridEngine.getFlowFrames(), hybridEngine.getFlowFallbacks());
+
+		for (int i = 0; i < starts.size(); i++) {
+			TrackStore expected = baseline.get(i).getTrack(), actual = hybrid.get(i).getTrack();
+			int n = Math.min(expected.size(), actual.size());
+			double total = 0, worst = 0;
+			for (int j = 0; j < n; j++) {
+				double deviation = Math.hypot(expected.getX(j) - actual.getX(j), expected.getY(j) - actual.getY(j));
+				total += deviation;
+				worst = Math.max(worst, deviation);
+			}
+			System.out.printf("%s: mean deviation %.2f px, max %.2f px over %d frames\n", baseline.get(i).getName(), 
+					n == 0 ? 0 : total/n, worst, n);
+		}
+
+		baselineEngine.release();
+		hybridEngine.release();
+	}
+
+	private static List<Fish> placeFish(List<Point> starts) {
+		List<Fish> fishes = new ArrayList<Fish>();
+		for (int i = 0; i < starts.size(); i++) {
+			fishes.add(new Fish(starts.get(i).clone(), i));
+		}
+		return fishes;
+	}
+
+	private static TrackingEngine newEngine(String video, List<Fish> fishes, int period) {
+		List<MotionVideoCapture> videos = new ArrayList<MotionVideoCapture>();
+		MotionVideoCapture capture = new MotionVideoCapture(video);
+		capture.setDrawContours(false);
+		videos.add(capture);
+		TrackingEngine engine = new TrackingEngine(videos, fishes);
+		engine.setFramesPerDataCount(1);
+		engine.setFlowPeriod(period);
+		return engine;
+	}
+}
@@ -0,0 +1,118 @@
+package com.tracker.engine;
+import java.util.List;
+
+import org.opencv.core.Point;
+
+import com.tracker.model.Detections;
+import com.tracker.model.Fish;
+import com.tracker.model.MotionPredictor;
+import com.tracker.model.TrackStore;
+
+/**
+ * Assigns the candidate centres detected in each frame to the fish, and records the fish positions every few frames.
+ * Assignment only needs the detections of a frame, so it can be run straight after motion detection, or later on 
+ * detections that were gathered elsewhere.
+ * <p> All the fish are assigned together by an AssignmentSolver. Each fish's MotionPredictor gives the position it is
+ * expected at and a gate around it, so only the candidates the fish could plausibly have moved to are considered.
+ * <p> Frames in which nothing changed are not assigned at all. The fish stay where they are, without counting as
+ * missed, and their positions are still recorded on the usual cadence.
+ */
+public class FrameAssigner {
+	private List<Fish> fishes;
+	private int frameCounter = 0, staticFrames = 0, dataCounter = 0, framesPerDataCount = 10;
+	private AssignmentSolver solver = new AssignmentSolver();
+	private double[] fx = new double[0], fy = new double[0], gate = new double[0];
+	private int[] assignment = new int[0];
+	private StreamingTrackWriter writer = null;
+
+	/**
+	 * @param fishes The fish to be tracked, already placed at their starting positions.
+	 */
+	public FrameAssigner(List<Fish> fishes) {
+		this.fishes = fishes;
+	}
+
+	/* Getters and Setters */
+	public List<Fish> getFishes() { return fishes; }
+	public int getFrameCounter() { return frameCounter; }
+	public int getStaticFrames() { return staticFrames; }
+	public int getDataCounter() { return dataCounter; } // frames since the last data point, modulo the cadence
+	public int getFramesPerDataCount() { return framesPerDataCount; }
+	public void setFramesPerDataCount(int n) { framesPerDataCount = n; }
+	public StreamingTrackWriter getWriter() { return writer; }
+	public void setWriter(StreamingTrackWriter writer) { this.writer = writer; } // streams each data point to a file
+
+	/**
+	 * Restarts the sampling cadence, so that the next data point is recorded framesPerDataCount frames from now.
+	 */
+	public void resetDataCounter() {
+		dataCounter = 0;
+	}
+
+	/**
+	 * Puts the counters back to where they were when a checkpoint was taken, so that data points are recorded on the
+	 * same frames as they would have been without stopping.
+	 * @param frames The number of frames assigned.
+	 * @param staticFrames The number of those frames that were skipped as static.
+	 * @param dataCounter The value of getDataCounter().
+	 */
+	public void restoreCounters(int frames, int staticFrames, int dataCounter) {
+		this.frameCounter = frames;
+		this.staticFrames = staticFrames;
+		this.dataCounter = dataCounter;
+	}
+
+	/**
+	 * Moves the fish to the candidate centres in the frame that minimise their total movement, and records the fish
+	 * positions if a data point is due. If nothing changed in the frame, the fish are left where they are.
+	 * @param detections The candidate centres of movement in the frame.
+	 */
+	public void assign(Detections detections) {
+		frameCounter++;
+		dataCounter = (dataCounter + 1) % framesPerDataCount;
+		if (detections.isStatic()) {
+			staticFrames++;
+			if (dataCounter == 0) {
+				for (Fish fish: fishes) {
+					fish.addData(frameCounter, detections.getTimestamp(), TrackStore.STATIC);
+				}
+				if (writer != null) {
+					writer.writeRow(fishes);
+				}
+			}
+			return;
+		}
+		int n = fishes.size();
+		if (fx.length < n) {
+			fx = new double[n];
+			fy = new double[n];
+			gate = new double[n];
+			assignment = new int[n];
+		}
+		for (int i = 0; i < n; i++) {
+			Fish fish = fishes.get(i);
+			MotionPredictor predictor = fish.getPredictor();
+			fx[i] = predictor.getX();
+			fy[i] = predictor.getY();
+			gate[i] = predictor.getGate();
+		}
+		solver.solve(fx, fy, gate, n, detections, assignment);
+		for (int i = 0; i < n; i++) {
+			Fish fish = fishes.get(i);
+			int j = assignment[i];
+			if (j >= 0) {
+				fish.updateCenter(new Point(detections.getX(j), detections.getY(j)));
+				detections.claim(j);
+			} else {
+				fish.stayStill();
+			}
+			fish.getPredictor().predict(); // ready for the next frame
+			if (dataCounter == 0) {
+				fish.addData(frameCounter, detections.getTimestamp(), 0);
+			}
+		}
+		if (dataCounter == 0 && writer != null) {
+			writer.writeRow(fishes);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.tracker.engine;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.opencv.core.Mat;
+
+import com.tracker.model.Detections;
+import com.tracker.model.MotionVideoCapture;
+
+/**
+ * A fixed ring of frame slots that are passed from one stage of the tracking pipeline to the next, and recycled once
+ * the last stage is done with them. Slots are allocated once up front, so the Mats inside them are reused for every
+ * frame of the run.
+ * <p> A slot is always in exactly one queue: free, decoded or detected. Since there are only as many slots as the ring
+ * was built with, a stage that runs ahead of the others blocks until a slot comes back, which keeps the stages from
+ * drifting apart and bounds the memory used by frames in flight.
+ */
+public class FrameRing {
+	private final Slot[] slots;
+	private final BlockingQueue<Slot> free, decoded, detected;
+
+	/**
+	 * A single frame in flight, along with everything the later stages need to know about it.
+	 */
+	public static class Slot {
+		public final Mat frame = new Mat();
+		public final Mat binary = new Mat();
+		public final Detections detections = new Detections(0, 16);
+		public MotionVideoCapture video;
+		public double timestamp;
+		public boolean endOfStream;
+	}
+
+	/**
+	 * @param size The number of frames that may be in flight at once.
+	 */
+	public FrameRing(int size) {
+		slots = new Slot[size];
+		free = new ArrayBlockingQueue<Slot>(size);
+		decoded = new ArrayBlockingQueue<Slot>(size);
+		detected = new ArrayBlockingQueue<Slot>(size);
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+			free.add(slots[i]);
+		}
+	}
+
+	public int size() { return slots.length; }
+
+	/* Decoding stage */
+	public Slot takeFree() throws InterruptedException { return free.take(); }
+	public void putDecoded(Slot slot) throws InterruptedException { decoded.put(slot); }
+
+	/* Motion stage */
+	public Slot takeDecoded() throws InterruptedException { return decoded.take(); }
+	public void putDetected(Slot slot) throws InterruptedException { detected.put(slot); }
+
+	/* Assignment stage */
+	public Slot takeDetected() throws InterruptedException { return detected.take(); }
+	public void recycle(Slot slot) throws InterruptedException { free.put(slot); }
+
+	/**
+	 * Frees the native memory held by every slot. The ring must not be used afterwards.
+	 */
+	public void release() {
+		for (Slot slot: slots) {
+			slot.frame.release();
+			slot.binary.release();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.tracker.engine;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import com.tracker.model.MotionVideoCapture;
+
+/**
+ * A sample of a video's frames, decoded once, scaled and turned to greyscale, and kept in a memory-mapped temporary
+ * file rather than on the heap. Motion capture can then be run over the same frames many times, on several threads at
+ * once, without decoding anything again.
+ * <p> The frames are unblurred, since the blur is one of the things ParameterSweep varies.
+ */
+public class GreyFrameCache implements Closeable {
+	private final static long MAP_SIZE = 1L << 30; // each mapping is under 2 GB, as a MappedByteBuffer can't be larger
+	private final File file;
+	private final FileChannel channel;
+	private final int rows, cols, frameSize, framesPerMap;
+	private final MappedByteBuffer[] maps;
+	private int frames = 0;
+
+	/**
+	 * Decodes a sample of a video into the cache.
+	 * @param video The video.
+	 * @param scale The scale applied to each frame, as when tracking.
+	 * @param startFrame The 0-based index of the first frame sampled.
+	 * @param maxFrames The number of frames sampled, unless the video runs out first.
+	 * @throws IOException If the video can't be read, or the temporary file can't be created.
+	 */
+	public GreyFrameCache(File video, double scale, int startFrame, int maxFrames) throws IOException {
+		MotionVideoCapture capture = new MotionVideoCapture(video.getAbsolutePath(), scale, startFrame);
+		Mat frame = capture.getFrame(), grey = new Mat();
+		try {
+			if (!capture.isOpened() || frame.empty()) {
+				throw new IOException("Unable to read " + video);
+			}
+			rows = frame.rows();
+			cols = frame.cols();
+			frameSize = rows*cols;
+			framesPerMap = (int) (MAP_SIZE/frameSize);
+			file = File.createTempFile("frames", ".grey");
+			file.deleteOnExit();
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			maps = new MappedByteBuffer[(maxFrames + framesPerMap - 1)/framesPerMap];
+			for (int m = 0; m < maps.length; m++) {
+				long count = Math.min(framesPerMap, maxFrames - (long) m*framesPerMap);
+				maps[m] = channel.map(FileChannel.MapMode.READ_WRITE, (long) m*framesPerMap*frameSize, count*frameSize);
+			}
+
+			byte[] pixels = new byte[frameSize];
+			do {
+				Imgproc.cvtColor(frame, grey, Imgproc.COLOR_BGR2GRAY);
+				grey.get(0, 0, pixels);
+				slice(frames).put(pixels);
+				frames++;
+			} while (frames < maxFrames && capture.read(frame));
+		} finally {
+			grey.release();
+			capture.release();
+			capture.releaseShared();
+		}
+	}
+
+	/* Getters */
+	public int getFrames() { return frames; }
+	public int getRows() { return rows; }
+	public int getCols() { return cols; }
+
+	/**
+	 * Copies a frame out of the cache. This can be called from several threads at once.
+	 * @param i The index of the frame in the sample.
+	 * @param pixels A buffer of getRows()*getCols() bytes, for the frame to be copied through.
+	 * @param grey The destination, which is made a single channel 8 bit Mat of the frame's size.
+	 */
+	public void get(int i, byte[] pixels, Mat grey) {
+		if (i < 0 || i >= frames) {
+			throw new IndexOutOfBoundsException("Frame " + i + " of " + frames);
+		}
+		slice(i).get(pixels);
+		grey.create(rows, cols, CvType.CV_8UC1);
+		grey.put(0, 0, pixels);
+	}
+
+	/**
+	 * @return A buffer of its own over frame i, so that threads don't share a position.
+	 */
+	private ByteBuffer slice(int i) {
+		ByteBuffer buffer = maps[i/framesPerMap].duplicate();
+		buffer.position((i % framesPerMap)*frameSize);
+		buffer.limit(buffer.position() + frameSize);
+		return buffer;
+	}
+
+	/**
+	 * Closes and deletes the temporary file. The mappings stay valid until they are garbage collected, but shouldn't be
+	 * used any more.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		file.delete();
+	}
+}
@@ -0,0 +1,73 @@
+package com.tracker.engine;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import com.tracker.model.MotionVideoCapture;
+
+/**
+ * Times motion capture with OpenCV against the FusedMotionKernel on the same video, so that the faster one can be
+ * chosen for the machine the tracker runs on. Both captures read the same frames, and the motion masks they produce
+ * are compared to show how closely the fused kernel's box blur follows the Gaussian.
+ * <p> Usage: <pre>
+ * java com.tracker.engine.KernelBenchmark video [frames] [video-scale]
+ * </pre>
+ */
+public class KernelBenchmark {
+	private final static int WARM_UP = 30; // frames left out of the timings while the JIT compiler settles
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: KernelBenchmark video [frames] [video-scale]");
+			System.exit(1);
+		}
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		double scale = args.length > 2 ? Double.parseDouble(args[2]) : 0.8;
+
+		// load library
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		MotionVideoCapture opencv = new MotionVideoCapture(args[0], scale);
+		MotionVideoCapture fused = new MotionVideoCapture(args[0], scale);
+		opencv.setDrawContours(false);
+		fused.setDrawContours(false);
+		fused.setFusedKernel(true);
+
+		Mat frameA = new Mat(), frameB = new Mat(), binaryA = new Mat(), binaryB = new Mat(), difference = new Mat();
+		long opencvTime = 0, fusedTime = 0, differentPixels = 0, totalPixels = 0;
+		int timed = 0;
+		for (int i = 0; i < frames + WARM_UP && opencv.read(frameA) && fused.read(frameB); i++) {
+			long start = System.nanoTime();
+			opencv.captureMotionInFrame(frameA, binaryA);
+			long middle = System.nanoTime();
+			fused.captureMotionInFrame(frameB, binaryB);
+			long end = System.nanoTime();
+			if (i < WARM_UP) {
+				continue;
+			}
+			opencvTime += middle - start;
+			fusedTime += end - middle;
+			timed++;
+
+			Core.absdiff(binaryA, binaryB, difference);
+			differentPixels += Core.countNonZero(difference);
+			totalPixels += binaryA.total();
+		}
+
+		if (timed == 0) {
+			System.err.println("Error: The video is too short to benchmark");
+		} else {
+			System.out.printf("OpenCV: %.2f ms/frame\n", opencvTime/1e6/timed);
+			System.out.printf("Fused:  %.2f ms/frame\n", fusedTime/1e6/timed);
+			System.out.printf("Motion masks agree on %.2f%% of pixels over %d frames\n",
+					100*(1 - (double) differentPixels/totalPixels), timed);
+		}
+
+		for (Mat mat: new Mat[] {frameA, frameB, binaryA, binaryB, difference}) {
+			mat.release();
+		}
+		opencv.release();
+		opencv.releaseShared();
+		fused.release();
+		fused.releaseShared();
+	}
+}
@@ -0,0 +1,337 @@
+package com.tracker.engine;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Core;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import com.tracker.model.BackgroundModel;
+import com.tracker.model.Detections;
+import com.tracker.model.Fish;
+import com.tracker.model.MotionProfile;
+import com.tracker.model.MotionVideoCapture;
+
+/**
+ * Tracks a queue of videos using a bounded pool of worker threads.
+ * <p> Decoding and motion detection are by far the most expensive part of tracking, and each video can be detected on
+ * its own, so every video is handed to a VideoDetector on the worker pool. Only LOOKAHEAD videos more than there are
+ * threads are detected ahead of the one being assigned, and the next video in the queue is handed out as each one is
+ * assigned, so the detections held in memory don't grow with the length of the queue. Assigning the detections to the fish is
+ * cheap but has to happen in order, so it is done on the calling thread, one video after another as each video's
+ * detections become available. The fish positions at the end of one video are handed over as the starting positions
+ * for the next, and all data points end up in one track in the order of the queue.
+ * <p> Long videos can also be split into segments, which are detected on their own threads and then stitched back
+ * together. Each segment starts some frames before the end of the previous one. The first of those warm up the 
+ * segment's background, for as many frames as the background model remembers, and the next MATCHED are matched 
+ * against the previous segment's detections to find where the two line up, since seeking does not always land on the
+ * exact frame asked for. Because the stitched detections are then assigned in order, the fish keep their identities
+ * across segment boundaries.
+ * <p> Unlike the TrackingEngine, the videos do not share their background history, so the first few frames of each
+ * video are compared against that video's own first frame.
+ * <p> With a cache directory, each video's detections are written to a DetectionCache once they are found, and a
+ * video that already has a cache for the same motion parameters isn't decoded at all. The fish can then be assigned
+ * again in seconds, such as from a frame where a fish's position was corrected, see setStartFrame().
+ * <p> Progress through the queue is reported to VideoQueueListeners.
+ */
+public class ParallelVideoTracker {
+	public final static int MATCHED = 25; // frames of each overlap matched against the previous segment
+	public final static int MAX_SHIFT = 10; // frames
+	public final static int MIN_WARM_UP = 5; // frames
+	public final static int LOOKAHEAD = 2; // videos detected ahead of the one being assigned, besides one per thread
+	private final static double MISMATCH = 50; // pixels
+	private List<File> videoFiles;
+	private double scale;
+	private int threads, segmentsPerVideo = 1, pyramidLevels = 0;
+	private String backgroundModel = BackgroundModel.FRAME_DELAY;
+	private boolean fusedKernel = false;
+	private MotionProfile profile = MotionProfile.DEFAULT;
+	private File cacheDirectory = null;
+	private long startFrame = 0;
+	private int warmUp = MIN_WARM_UP, overlap = MIN_WARM_UP + MATCHED; // frames, set from the background model by run()
+	private FrameAssigner assigner;
+	private List<VideoQueueListener> listeners = new ArrayList<VideoQueueListener>();
+
+	/**
+	 * @param videoFiles The videos to be tracked, in order.
+	 * @param scale The scale applied to each frame before detection.
+	 * @param fishes The fish to be tracked, already placed at their starting positions.
+	 * @param threads The maximum number of videos or segments to be detected at once.
+	 */
+	public ParallelVideoTracker(List<File> videoFiles, double scale, List<Fish> fishes, int threads) {
+		this.videoFiles = videoFiles;
+		this.scale = scale;
+		this.threads = threads;
+		this.assigner = new FrameAssigner(fishes);
+	}
+
+	/* Getters and Setters */
+	public FrameAssigner getAssigner() { return assigner; }
+	public int getSegmentsPerVideo() { return segmentsPerVideo; }
+	public void setSegmentsPerVideo(int n) { segmentsPerVideo = n; }
+	public int getPyramidLevels() { return pyramidLevels; }
+	public void setPyramidLevels(int levels) { pyramidLevels = levels; }
+	public String getBackgroundModel() { return backgroundModel; }
+	public void setBackgroundModel(String name) { backgroundModel = name; }
+	public boolean isUsingFusedKernel() { return fusedKernel; }
+	public void setFusedKernel(boolean fused) { fusedKernel = fused; }
+	public MotionProfile getMotionProfile() { return profile; }
+	public void setMotionProfile(MotionProfile p) { profile = p; }
+	public File getCacheDirectory() { return cacheDirectory; }
+	public void setCacheDirectory(File directory) { cacheDirectory = directory; } // null to always detect
+	public long getStartFrame() { return startFrame; }
+	public void setStartFrame(long frame) { startFrame = frame; } // frames of the queue before this aren't assigned
+
+	public void addListener(VideoQueueListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(VideoQueueListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Detects all the videos on the worker pool, unless they are already cached, and assigns their detections to the
+	 * fish in order. If there is a start frame, the fish start from their current positions at that frame of the 
+	 * queue, and the frames before it are detected but not assigned.
+	 * @throws IOException If a cache can't be read or written.
+	 * @throws ExecutionException If detection fails for one of the videos.
+	 * @throws InterruptedException If the thread is interrupted while waiting for a video to be detected.
+	 */
+	public void run() throws IOException, ExecutionException, InterruptedException {
+		// each worker already has a core to itself, so stop opencv from spawning threads of its own
+		Core.setNumThreads(1);
+		// the frames after a cut must not be compared against a background that is still warming up
+		warmUp = Math.max(MIN_WARM_UP, MotionVideoCapture.getBackgroundMemory(backgroundModel, profile));
+		overlap = warmUp + MATCHED;
+		if (startFrame > 0) {
+			// data points are recorded on the same frames as they would have been from the start
+			int every = assigner.getFramesPerDataCount();
+			assigner.restoreCounters((int) startFrame, 0, (int) (startFrame % every));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<String> keys = new ArrayList<String>();
+			List<List<Future<List<Detections>>>> results = new ArrayList<List<Future<List<Detections>>>>();
+			int inFlight = Math.min(threads + LOOKAHEAD, videoFiles.size());
+			while (results.size() < inFlight) {
+				submit(pool, videoFiles.get(results.size()), keys, results);
+			}
+			long frame = 0; // frames of the queue so far
+			for (int i = 0; i < videoFiles.size(); i++) {
+				String key = keys.get(i);
+				if (results.get(i) == null) {
+					frame += assignFromCache(DetectionCache.fileFor(cacheDirectory, key), key, frame);
+				} else {
+					List<Detections> frames = stitch(videoFiles.get(i), results.get(i));
+					results.set(i, null); // let the detections be collected once assigned
+					if (key != null) {
+						writeCache(frames, DetectionCache.fileFor(cacheDirectory, key), key);
+					}
+					for (Detections detections: frames) {
+						if (frame++ >= startFrame) {
+							assigner.assign(detections);
+						}
+					}
+				}
+				if (results.size() < videoFiles.size()) {
+					submit(pool, videoFiles.get(results.size()), keys, results);
+				}
+				for (VideoQueueListener listener: listeners) {
+					listener.videoAssigned(this, videoFiles.get(i));
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Hands the segments of the next video in the queue to the worker pool, unless the video is already cached.
+	 * @param file The video.
+	 * @param keys The cache key of each video handed out so far, or null where there is no cache.
+	 * @param results The pending detections of each video handed out so far, or null where they are read from the 
+	 * cache.
+	 */
+	private void submit(ExecutorService pool, File file, List<String> keys, List<List<Future<List<Detections>>>> results)
+			throws IOException {
+		String key = cacheDirectory != null ? DetectionCache.keyOf(file, motionParameters()) : null;
+		keys.add(key);
+		if (key != null && DetectionCache.fileFor(cacheDirectory, key).exists()) {
+			results.add(null); // read from the cache instead
+			return;
+		}
+		List<Future<List<Detections>>> segments = new ArrayList<Future<List<Detections>>>();
+		for (VideoDetector detector: splitIntoSegments(file)) {
+			detector.setPyramidLevels(pyramidLevels);
+			detector.setBackgroundModel(backgroundModel);
+			detector.setFusedKernel(fusedKernel);
+			detector.setMotionProfile(profile);
+			segments.add(pool.submit(detector));
+		}
+		results.add(segments);
+	}
+
+	/**
+	 * @return Everything that changes the detections, for the cache keys.
+	 */
+	private String motionParameters() {
+		return "scale=" + scale + " segments=" + segmentsPerVideo + " pyramid=" + pyramidLevels + " background=" 
+				+ backgroundModel + " fused=" + fusedKernel + " " + profile;
+	}
+
+	/**
+	 * Assigns a video's detections straight from its cache, skipping any frames before the start frame.
+	 * @param first The index in the queue of the video's first frame.
+	 * @return The number of frames in the video.
+	 */
+	private long assignFromCache(File file, String key, long first) throws IOException {
+		try (DetectionCache cache = new DetectionCache(file)) {
+			if (!cache.getKey().equals(key)) {
+				throw new IOException(file + " is the cache of another video");
+			}
+			Detections detections = new Detections(0, 16);
+			cache.seek(startFrame - first);
+			while (cache.next(detections)) {
+				assigner.assign(detections);
+			}
+			return cache.getFrames();
+		}
+	}
+
+	private static void writeCache(List<Detections> frames, File file, String key) throws IOException {
+		try (DetectionCacheWriter writer = new DetectionCacheWriter(file, key)) {
+			for (Detections detections: frames) {
+				writer.append(detections);
+			}
+			writer.finish();
+		}
+	}
+
+	/**
+	 * Plans the segments a video is to be detected in. Each segment after the first starts overlap frames early, and
+	 * each segment before the last carries on for MAX_SHIFT frames past its end, so that consecutive segments can be
+	 * lined up even if seeking is a few frames out.
+	 * @param file The video to be split.
+	 * @return One detector per segment, in order.
+	 */
+	private List<VideoDetector> splitIntoSegments(File file) {
+		List<VideoDetector> detectors = new ArrayList<VideoDetector>();
+		int segments = segmentsPerVideo;
+		int totalFrames = 0;
+		if (segments > 1) {
+			VideoCapture video = new VideoCapture(file.getAbsolutePath());
+			totalFrames = (int) video.get(Videoio.CAP_PROP_FRAME_COUNT);
+			video.release();
+			// segments need to be long enough to contain their overlap with the previous segment
+			segments = Math.max(1, Math.min(segments, totalFrames/(2*overlap)));
+		}
+		if (segments == 1) {
+			detectors.add(new VideoDetector(file, scale));
+			return detectors;
+		}
+
+		int length = (totalFrames + segments - 1)/segments;
+		for (int k = 0; k < segments; k++) {
+			int start = k == 0 ? 0 : k*length - overlap;
+			int frameCount = k == segments - 1 ? -1 : (k + 1)*length + MAX_SHIFT - start;
+			detectors.add(new VideoDetector(file, scale, start, frameCount));
+		}
+		return detectors;
+	}
+
+	/**
+	 * Joins the detections of consecutive segments into a single list. For each segment, every possible shift of up to
+	 * MAX_SHIFT frames from where it was expected to start is tried, and the shift whose overlapping frames best match
+	 * the previous segment is used to decide where one segment ends and the next begins. Segments that weren't found
+	 * where they were expected are reported to the listeners.
+	 * @param file The video that the segments belong to.
+	 * @param segments The pending detections of each segment, in order.
+	 * @return The detections of every frame in the video, in order.
+	 * @throws ExecutionException If detection fails for one of the segments.
+	 * @throws InterruptedException If the thread is interrupted while waiting for a segment to be detected.
+	 */
+	private List<Detections> stitch(File file, List<Future<List<Detections>>> segments)
+			throws ExecutionException, InterruptedException {
+		List<Detections> stitched = segments.get(0).get();
+		if (segments.size() == 1) {
+			return stitched;
+		}
+		int length = stitched.size() - MAX_SHIFT;
+		List<Detections> previous = stitched;
+		int base = 0; // index in stitched of previous.get(0)
+		for (int k = 1; k < segments.size(); k++) {
+			List<Detections> next = segments.get(k).get();
+			if (next.size() <= overlap) {
+				break; // ran past the end of the video
+			}
+			// nominally, next.get(j) is the same frame as previous.get(j + expected)
+			int expected = k == 1 ? length - overlap : length;
+			int bestShift = expected;
+			double bestScore = Double.MAX_VALUE;
+			for (int shift = expected - MAX_SHIFT; shift <= expected + MAX_SHIFT; shift++) {
+				double score = matchScore(previous, next, shift);
+				if (score < bestScore || (score == bestScore &&
+						Math.abs(shift - expected) < Math.abs(bestShift - expected))) {
+					bestScore = score;
+					bestShift = shift;
+				}
+			}
+			if (bestShift != expected) {
+				for (VideoQueueListener listener: listeners) {
+					listener.segmentShifted(this, file, k, bestShift - expected);
+				}
+			}
+			// keep the previous segment up to the end of the overlap, and carry on with the next one from there
+			int cut = Math.min(base + bestShift + overlap, stitched.size());
+			stitched.subList(cut, stitched.size()).clear();
+			stitched.addAll(next.subList(cut - base - bestShift, next.size()));
+			base += bestShift;
+			previous = next;
+		}
+		return stitched;
+	}
+
+	/**
+	 * Measures how badly the overlapping frames of two segments match up for a given shift. The first warmUp frames of
+	 * the next segment are skipped, since its background is still warming up.
+	 * @return The mean mismatch per compared frame, or Double.MAX_VALUE if no frames overlap.
+	 */
+	private double matchScore(List<Detections> previous, List<Detections> next, int shift) {
+		double total = 0;
+		int compared = 0;
+		for (int j = warmUp; j < overlap; j++) {
+			int i = j + shift;
+			if (i < 0 || i >= previous.size()) {
+				continue;
+			}
+			total += mismatch(previous.get(i), next.get(j));
+			compared++;
+		}
+		return compared == 0 ? Double.MAX_VALUE : total/compared;
+	}
+
+	/**
+	 * Measures how different the detections of two frames are. Each candidate is compared to its nearest counterpart
+	 * in the other frame, and any candidate without a counterpart costs MISMATCH pixels.
+	 */
+	private static double mismatch(Detections a, Detections b) {
+		double total = MISMATCH*Math.abs(a.size() - b.size());
+		for (int i = 0; i < a.size(); i++) {
+			double nearest = MISMATCH;
+			for (int j = 0; j < b.size(); j++) {
+				double dx = a.getX(i) - b.getX(j);
+				double dy = a.getY(i) - b.getY(j);
+				nearest = Math.min(nearest, Math.sqrt(dx*dx + dy*dy));
+			}
+			total += nearest;
+		}
+		return total;
+	}
+}
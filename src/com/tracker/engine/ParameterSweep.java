@@ -0,0 +1,313 @@
+package com.tracker.engine;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import com.tracker.model.BackgroundModel;
+import com.tracker.model.Detections;
+import com.tracker.model.Fish;
+import com.tracker.model.FrameDelayBackground;
+import com.tracker.model.MotionChain;
+import com.tracker.model.MotionProfile;
+
+/**
+ * Tries a grid of motion profiles on a sample of a video, to find good settings for a new rig without editing any
+ * code. The sample is decoded once into a GreyFrameCache, and each profile then runs it through the same MotionChain
+ * as MotionVideoCapture, against a frame delay background, on a pool of threads.
+ * <p> For each profile the sweep reports the mean number of blobs per frame, how often exactly the expected number of
+ * fish was found, the continuity, and the time taken per frame. A frame is continuous if it and the frame before both
+ * have the expected number of blobs, and every blob is within Fish.MAX_SPEED of one in the frame before, so a
+ * high continuity means the fish could have been followed through the sample without a gap. The best profile, by
+ * continuity, can be saved and given to BatchTracker with --profile.
+ * <p> Usage: <pre>
+ * java com.tracker.engine.ParameterSweep [options] video
+ *   --start n         first frame of the sample (default 0)
+ *   --frames n        number of frames in the sample (default 1000)
+ *   --video-scale s   scale applied to each frame, as when tracking (default 0.8)
+ *   --fish n          number of fish in the tank (default 2)
+ *   --blur list       blur sizes to try, such as 11,21,31 (default 11,21,31)
+ *   --delay list      frame delays to try (default 2,3,5)
+ *   --threshold list  thresholds to try (default 10,15,20,30)
+ *   --dilation list   dilations to try (default 1,3,5)
+ *   --threads n       number of profiles tried at once (default the number of processors)
+ *   --out file        save the best profile to file
+ * </pre>
+ */
+public class ParameterSweep {
+
+	/**
+	 * What one profile found in the sample.
+	 */
+	public static class Result {
+		public final MotionProfile profile;
+		public final int frames;
+		public final double meanBlobs, exactFraction, continuity, millisPerFrame;
+
+		Result(MotionProfile profile, int frames, double meanBlobs, double exactFraction, double continuity,
+				double millisPerFrame) {
+			this.profile = profile;
+			this.frames = frames;
+			this.meanBlobs = meanBlobs;
+			this.exactFraction = exactFraction;
+			this.continuity = continuity;
+			this.millisPerFrame = millisPerFrame;
+		}
+	}
+
+	/**
+	 * Runs one profile over the whole sample. Each evaluation keeps its own Mats, so several can run at once.
+	 */
+	private static class Evaluation implements Callable<Result> {
+		private final GreyFrameCache cache;
+		private final MotionProfile profile;
+		private final int fish;
+
+		Evaluation(GreyFrameCache cache, MotionProfile profile, int fish) {
+			this.cache = cache;
+			this.profile = profile;
+			this.fish = fish;
+		}
+
+		@Override
+		public Result call() {
+			int delay = profile.getFrameDelay();
+			MotionChain chain = new MotionChain(profile);
+			BackgroundModel background = new FrameDelayBackground(delay);
+			Mat grey = new Mat(), blurred = new Mat(), delta = new Mat(), binary = new Mat();
+			byte[] pixels = new byte[cache.getRows()*cache.getCols()];
+			Detections current = new Detections(0, 16), previous = new Detections(0, 16);
+			boolean hasPrevious = false;
+			long blobs = 0, exact = 0, continuous = 0, nanos = 0;
+			int compared = 0;
+			try {
+				for (int f = 0; f < cache.getFrames(); f++) {
+					cache.get(f, pixels, grey);
+					long start = System.nanoTime();
+					chain.blur(grey, blurred);
+					if (f < delay) {
+						background.learn(blurred); // the background is still filling up
+						continue;
+					}
+					chain.capture(blurred, background, delta, binary);
+					current.clear(f);
+					chain.addComponents(binary, 0, 0, current);
+					nanos += System.nanoTime() - start;
+
+					int n = current.size();
+					blobs += n;
+					if (n == fish) {
+						exact++;
+					}
+					if (hasPrevious) {
+						compared++;
+						if (n == fish && previous.size() == fish && follows(current, previous)) {
+							continuous++;
+						}
+					}
+					hasPrevious = true;
+					Detections swap = previous;
+					previous = current;
+					current = swap;
+				}
+			} finally {
+				for (Mat mat: new Mat[] {grey, blurred, delta, binary}) {
+					mat.release();
+				}
+				chain.release();
+				background.release();
+			}
+			int frames = Math.max(cache.getFrames() - delay, 1);
+			return new Result(profile, frames, (double) blobs/frames, (double) exact/frames,
+					compared == 0 ? 0 : (double) continuous/compared, nanos/1e6/frames);
+		}
+
+		/**
+		 * @return True, if every blob is within Fish.MAX_SPEED of a blob in the frame before.
+		 */
+		private static boolean follows(Detections current, Detections previous) {
+			for (int i = 0; i < current.size(); i++) {
+				boolean found = false;
+				for (int j = 0; j < previous.size() && !found; j++) {
+					double dx = current.getX(i) - previous.getX(j), dy = current.getY(i) - previous.getY(j);
+					found = dx*dx + dy*dy <= Fish.MAX_SPEED*Fish.MAX_SPEED;
+				}
+				if (!found) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	public static void main(String[] args) {
+		File video = null, output = null;
+		int start = 0, frames = 1000, fish = Fish.NUM_FISH, threads = Runtime.getRuntime().availableProcessors();
+		double scale = 0.8;
+		int[] blurs = {11, 21, 31}, delays = {2, 3, 5}, thresholds = {10, 15, 20, 30}, dilations = {1, 3, 5};
+		List<MotionProfile> profiles = new ArrayList<MotionProfile>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (!args[i].startsWith("--")) {
+					video = new File(args[i]);
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + args[i]);
+				}
+				String arg = args[i], value = args[++i];
+				switch (arg) {
+				case "--start":
+					start = Integer.parseInt(value);
+					break;
+				case "--frames":
+					frames = Integer.parseInt(value);
+					break;
+				case "--video-scale":
+					scale = Double.parseDouble(value);
+					break;
+				case "--fish":
+					fish = Integer.parseInt(value);
+					break;
+				case "--blur":
+					blurs = parseList(value);
+					break;
+				case "--delay":
+					delays = parseList(value);
+					break;
+				case "--threshold":
+					thresholds = parseList(value);
+					break;
+				case "--dilation":
+					dilations = parseList(value);
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "--out":
+					output = new File(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if (video == null) {
+				throw new IllegalArgumentException("No video given");
+			}
+			if (frames < 2 || fish < 1 || threads < 1 || start < 0) {
+				throw new IllegalArgumentException("--frames must be at least 2, and --fish and --threads at least 1");
+			}
+			for (int blur: blurs) {
+				for (int delay: delays) {
+					for (int threshold: thresholds) {
+						for (int dilation: dilations) {
+							profiles.add(new MotionProfile(blur, delay, threshold, dilation));
+						}
+					}
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.err.println("Usage: ParameterSweep [--start n] [--frames n] [--video-scale s] [--fish n] "
+					+ "[--blur list] [--delay list] [--threshold list] [--dilation list] [--threads n] [--out file] video");
+			System.exit(1);
+		}
+
+		// load library
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		// each profile already has a core to itself, so stop opencv from spawning threads of its own
+		Core.setNumThreads(1);
+
+		try {
+			long decodeStart = System.nanoTime();
+			try (GreyFrameCache cache = new GreyFrameCache(video, scale, start, frames)) {
+				System.out.printf("Decoded %d frames of %dx%d in %.1f s\n", cache.getFrames(), cache.getCols(),
+						cache.getRows(), (System.nanoTime() - decodeStart)/1e9);
+				List<Result> results = sweep(cache, profiles, fish, threads);
+				print(results, fish);
+				Result best = results.get(0);
+				if (output != null) {
+					best.profile.save(output, "Chosen by ParameterSweep from " + video.getName());
+					System.out.println("Best profile saved to " + output.getAbsolutePath());
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		} catch (ExecutionException | InterruptedException e) {
+			System.err.println("Error: The sweep failed");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Tries every profile on the cached sample.
+	 * @param cache The sample.
+	 * @param profiles The profiles to try.
+	 * @param fish The number of fish in the tank.
+	 * @param threads The number of profiles tried at once.
+	 * @return The results, best first.
+	 * @throws ExecutionException If one of the profiles fails.
+	 * @throws InterruptedException If the thread is interrupted while waiting for the results.
+	 */
+	public static List<Result> sweep(GreyFrameCache cache, List<MotionProfile> profiles, int fish, int threads)
+			throws ExecutionException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Result> results = new ArrayList<Result>();
+		try {
+			List<Future<Result>> pending = new ArrayList<Future<Result>>();
+			for (MotionProfile profile: profiles) {
+				pending.add(pool.submit(new Evaluation(cache, profile, fish)));
+			}
+			for (Future<Result> result: pending) {
+				results.add(result.get());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		Collections.sort(results, new Comparator<Result>() {
+			@Override
+			public int compare(Result a, Result b) {
+				if (a.continuity != b.continuity) {
+					return Double.compare(b.continuity, a.continuity);
+				}
+				if (a.exactFraction != b.exactFraction) {
+					return Double.compare(b.exactFraction, a.exactFraction);
+				}
+				return Double.compare(a.millisPerFrame, b.millisPerFrame);
+			}
+		});
+		return results;
+	}
+
+	private static void print(List<Result> results, int fish) {
+		System.out.printf("%5s %5s %9s %8s %11s %9s %11s %9s\n", "blur", "delay", "threshold", "dilation", "blobs/frame",
+				fish + " blobs", "continuity", "ms/frame");
+		for (Result result: results) {
+			MotionProfile p = result.profile;
+			System.out.printf("%5d %5d %9d %8d %11.2f %8.1f%% %10.1f%% %9.2f\n", p.getGreyBlur(), p.getFrameDelay(),
+					p.getThreshold(), p.getDilation(), result.meanBlobs, 100*result.exactFraction, 100*result.continuity,
+					result.millisPerFrame);
+		}
+	}
+
+	private static int[] parseList(String value) {
+		String[] parts = value.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+}
@@ -0,0 +1,164 @@
+package com.tracker.engine;
+import java.util.List;
+
+import org.opencv.videoio.Videoio;
+
+import com.tracker.engine.FrameRing.Slot;
+import com.tracker.model.Fish;
+import com.tracker.model.MotionVideoCapture;
+
+/**
+ * Tracks a queue of videos with decoding, motion capture and assignment running as three stages on their own threads.
+ * While the fish are being assigned to frame N, motion is being captured in frame N+1 and frame N+2 is being decoded.
+ * <p> The stages pass frames to each other through a FrameRing, so no frames are allocated while tracking and a fast
+ * stage simply waits for the slower ones. The results are the same as running a TrackingEngine over the same videos,
+ * since each stage still sees every frame in order and consecutive videos share their background history.
+ */
+public class PipelinedTracker {
+	private List<MotionVideoCapture> videos;
+	private FrameAssigner assigner;
+	private FrameRing ring;
+	private volatile Throwable failure = null;
+
+	/**
+	 * @param videos The videos to be tracked, in order.
+	 * @param fishes The fish to be tracked, already placed at their starting positions.
+	 * @param ringSize The number of frames that may be in flight at once. At least three are needed to keep every
+	 * stage busy.
+	 */
+	public PipelinedTracker(List<MotionVideoCapture> videos, List<Fish> fishes, int ringSize) {
+		this.videos = videos;
+		this.assigner = new FrameAssigner(fishes);
+		this.ring = new FrameRing(ringSize);
+	}
+
+	public FrameAssigner getAssigner() { return assigner; }
+
+	/**
+	 * Tracks every frame of every video. The decoding and motion stages run on their own threads, while assignment
+	 * runs on the calling thread.
+	 * @throws InterruptedException If the thread is interrupted while waiting for a frame.
+	 */
+	public void run() throws InterruptedException {
+		Thread decoder = new Decoder();
+		Thread extractor = new MotionExtractor();
+		decoder.start();
+		extractor.start();
+		try {
+			while (true) {
+				Slot slot = ring.takeDetected();
+				if (slot.endOfStream) {
+					break;
+				}
+				assigner.assign(slot.detections);
+				ring.recycle(slot);
+			}
+		} finally {
+			decoder.interrupt();
+			extractor.interrupt();
+			decoder.join();
+			extractor.join();
+			ring.release();
+		}
+		if (failure != null) {
+			throw new IllegalStateException("Tracking pipeline failed", failure);
+		}
+	}
+
+	/**
+	 * Passes on the end of the stream after a stage has failed, so that the stages after it don't wait forever.
+	 * @param t The cause of the failure.
+	 * @param slot The slot the failed stage was holding, which is sent on to the assignment stage.
+	 */
+	private void fail(Throwable t, Slot slot) {
+		failure = t;
+		try {
+			slot.endOfStream = true;
+			ring.putDetected(slot);
+		} catch (InterruptedException e) {
+			// the pipeline is already shutting down
+		}
+	}
+
+	/**
+	 * First stage: reads each frame of each video into a free slot, moving on to the next video when one runs out.
+	 */
+	private class Decoder extends Thread {
+		public Decoder() {
+			super("Tracker decoder");
+		}
+
+		@Override
+		public void run() {
+			Slot slot = null;
+			try {
+				for (int i = 0; i < videos.size(); i++) {
+					MotionVideoCapture video = videos.get(i);
+					if (i > 0) {
+						video.linkToPrevious(videos.get(i - 1));
+					}
+					while (video.isOpened()) {
+						slot = ring.takeFree();
+						if (!video.read(slot.frame)) {
+							ring.recycle(slot);
+							slot = null;
+							break;
+						}
+						slot.video = video;
+						slot.timestamp = video.get(Videoio.CAP_PROP_POS_MSEC);
+						slot.endOfStream = false;
+						ring.putDecoded(slot);
+						slot = null;
+					}
+				}
+				slot = ring.takeFree();
+				slot.endOfStream = true;
+				ring.putDecoded(slot);
+			} catch (InterruptedException e) {
+				// tracking has been stopped
+			} catch (RuntimeException e) {
+				try {
+					fail(e, slot != null ? slot : ring.takeFree());
+				} catch (InterruptedException ex) {
+					// the pipeline is already shutting down
+				}
+			}
+		}
+	}
+
+	/**
+	 * Second stage: captures the motion in each decoded frame and finds the candidate centres.
+	 */
+	private class MotionExtractor extends Thread {
+		public MotionExtractor() {
+			super("Tracker motion");
+		}
+
+		@Override
+		public void run() {
+			Slot slot = null;
+			try {
+				while (true) {
+					slot = ring.takeDecoded();
+					if (!slot.endOfStream) {
+						slot.video.captureMotionInFrame(slot.frame, slot.binary);
+						slot.detections.clear(slot.timestamp);
+						slot.video.findCandidates(slot.binary, slot.detections);
+					}
+					boolean last = slot.endOfStream;
+					ring.putDetected(slot);
+					slot = null;
+					if (last) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				// tracking has been stopped
+			} catch (RuntimeException e) {
+				if (slot != null) {
+					fail(e, slot);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.tracker.engine;
+import java.util.Arrays;
+
+import com.tracker.model.Detections;
+
+/**
+ * A uniform grid over the candidate centres of a frame, used to find the candidates near a fish without looking at
+ * every candidate in the frame. Candidates are bucketed into square cells, so a search only has to visit the few cells
+ * that overlap the search radius.
+ * <p> The grid is rebuilt for every frame, but its arrays are kept and only grown when needed.
+ */
+public class SpatialGrid {
+	private double cellSize, minX, minY;
+	private int cols, rows;
+	private int[] cellHead = new int[0], next = new int[0];
+	private int[] found = new int[16];
+	private int foundCount = 0;
+
+	/**
+	 * Buckets the candidates of a frame into cells.
+	 * @param detections The candidate centres of the frame.
+	 * @param size The preferred side length of a cell, in pixels. This is best set to the usual search radius, so that a
+	 * search only visits the neighbouring cells. It is increased if the candidates are so spread out that the grid
+	 * would need far more cells than there are candidates.
+	 */
+	public void build(Detections detections, double size) {
+		int n = detections.size();
+		minX = Double.MAX_VALUE;
+		minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, detections.getX(i));
+			minY = Math.min(minY, detections.getY(i));
+			maxX = Math.max(maxX, detections.getX(i));
+			maxY = Math.max(maxY, detections.getY(i));
+		}
+		if (n == 0) {
+			cols = rows = 0;
+			return;
+		}
+		cellSize = Math.max(size, 1);
+		int maxCells = 4*n + 64;
+		while (cellsFor(maxX, maxY) > maxCells) {
+			cellSize *= 2;
+		}
+		cols = (int) ((maxX - minX)/cellSize) + 1;
+		rows = (int) ((maxY - minY)/cellSize) + 1;
+
+		if (cellHead.length < cols*rows) {
+			cellHead = new int[cols*rows];
+		}
+		if (next.length < n) {
+			next = new int[n];
+		}
+		for (int c = 0; c < cols*rows; c++) {
+			cellHead[c] = -1;
+		}
+		for (int i = 0; i < n; i++) {
+			int c = cellRow(detections.getY(i))*cols + cellCol(detections.getX(i));
+			next[i] = cellHead[c];
+			cellHead[c] = i;
+		}
+	}
+
+	/**
+	 * Finds the candidates in every cell that overlaps a square around a point. Some of the candidates found may be
+	 * further away than the radius, so callers still need to check the distance.
+	 * @param x The x coordinate of the centre of the search.
+	 * @param y The y coordinate of the centre of the search.
+	 * @param radius Half the side length of the square to be searched.
+	 * @return The number of candidates found, which can be read with get().
+	 */
+	public int query(double x, double y, double radius) {
+		foundCount = 0;
+		if (cols == 0) {
+			return 0;
+		}
+		int c0 = cellCol(x - radius), c1 = cellCol(x + radius);
+		int r0 = cellRow(y - radius), r1 = cellRow(y + radius);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				for (int i = cellHead[r*cols + c]; i >= 0; i = next[i]) {
+					if (foundCount == found.length) {
+						found = Arrays.copyOf(found, 2*foundCount);
+					}
+					found[foundCount++] = i;
+				}
+			}
+		}
+		return foundCount;
+	}
+
+	/**
+	 * @param k The index of a result from the last query, from 0 up to the number of candidates found.
+	 * @return The index of the candidate in the detections.
+	 */
+	public int get(int k) {
+		return found[k];
+	}
+
+	private double cellsFor(double maxX, double maxY) {
+		return ((maxX - minX)/cellSize + 1) * ((maxY - minY)/cellSize + 1);
+	}
+
+	private int cellCol(double x) {
+		return clamp((int) Math.floor((x - minX)/cellSize), cols);
+	}
+
+	private int cellRow(double y) {
+		return clamp((int) Math.floor((y - minY)/cellSize), rows);
+	}
+
+	private static int clamp(int i, int n) {
+		return i < 0 ? 0 : (i >= n ? n - 1 : i);
+	}
+}
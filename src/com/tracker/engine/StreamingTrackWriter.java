@@ -0,0 +1,304 @@
+package com.tracker.engine;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.tracker.model.Fish;
+import com.tracker.model.TrackStore;
+
+/**
+ * Writes the fish tracks to a csv file while they are being recorded, rather than all at once when tracking ends, so
+ * that a crash loses at most the last flush interval of data. The rows are the same as those of CsvTrackWriter.
+ * <p> Each row is formatted straight into a direct ByteBuffer on the tracking thread, with no Strings or formatters.
+ * Full buffers are handed to a background thread that writes them to a FileChannel, and comes back for a part-filled
+ * buffer if tracking goes quiet, such as while the movie is paused. The file is synced to disk once every flush interval.
+ * A small fixed set of buffers is passed back and forth, so memory stays flat however long tracking runs.
+ */
+public class StreamingTrackWriter implements Closeable {
+	private final static int BUFFER_SIZE = 1 << 16, BUFFERS = 4;
+	private final static int MAX_SAMPLE_BYTES = 96; // longest that a single fish's entry in a row can be
+	private final static ByteBuffer END = ByteBuffer.allocate(0); // handed over to stop the background thread
+	private final FileChannel channel;
+	private final long flushNanos;
+	private final boolean trimTracks;
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+	private final Thread writer;
+	private final ReentrantLock lock = new ReentrantLock(); // held while the current buffer is being filled
+	private final byte[] digits = new byte[20];
+	private ByteBuffer current;
+	private long lastHandOff = System.nanoTime();
+	private volatile long rows = 0;
+	private volatile IOException failure = null;
+	private boolean closed = false;
+
+	/**
+	 * Opens the file, replacing anything already in it, and starts the background thread.
+	 * @param file The csv file the tracks are written to.
+	 * @param flushIntervalMillis The longest time that a row is kept in memory before it is written and synced.
+	 * @param trimTracks True, to clear each fish's TrackStore once its samples are written, so that nothing builds up in
+	 * memory. The tracks can then only be read back from the file.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public StreamingTrackWriter(File file, long flushIntervalMillis, boolean trimTracks) throws IOException {
+		this(file, flushIntervalMillis, trimTracks, false);
+	}
+
+	/**
+	 * Opens the file and starts the background thread.
+	 * @param file The csv file the tracks are written to.
+	 * @param flushIntervalMillis The longest time that a row is kept in memory before it is written and synced.
+	 * @param trimTracks True, to clear each fish's TrackStore once its samples are written.
+	 * @param append True, to write after the rows already in the file rather than replacing them.
+	 * @throws IOException If the file can't be opened.
+	 */
+	public StreamingTrackWriter(File file, long flushIntervalMillis, boolean trimTracks, boolean append) 
+			throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+		this.trimTracks = trimTracks;
+		current = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		for (int i = 1; i < BUFFERS; i++) {
+			free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+		}
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "Track writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public long getRows() { return rows; }
+
+	/**
+	 * Writes a row holding the latest sample of each fish, which is normally called just after a data point has been
+	 * recorded.
+	 * @param fishes The fish, each with at least one sample in its track.
+	 * @throws IllegalStateException If the background thread has failed to write to the file.
+	 */
+	public void writeRow(List<Fish> fishes) {
+		if (failure != null) {
+			throw new IllegalStateException("Unable to write the tracks", failure);
+		}
+		lock.lock();
+		try {
+			putRow(fishes);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void putRow(List<Fish> fishes) {
+		if (closed) {
+			throw new IllegalStateException("The track writer has been closed");
+		}
+		if (current.remaining() < fishes.size()*MAX_SAMPLE_BYTES + 1) {
+			handOff();
+		}
+		for (Fish fish: fishes) {
+			TrackStore track = fish.getTrack();
+			int i = track.size() - 1;
+			putLong(fish.getIndex());
+			current.put((byte) ',');
+			putTime(track.getTimestamp(i));
+			current.put((byte) ',');
+			putFixed(Fish.toMM(track.getX(i)));
+			current.put((byte) ',');
+			putFixed(Fish.toMM(track.getY(i)));
+			current.put((byte) ',').put((byte) ',');
+			if (trimTracks) {
+				track.clear();
+			}
+		}
+		current.put((byte) '\n');
+		rows++;
+		if (System.nanoTime() - lastHandOff >= flushNanos) {
+			handOff();
+		}
+	}
+
+	/**
+	 * Writes every row still in memory, syncs the file to disk and closes it.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (current.position() > 0) {
+				handOff();
+			}
+		} finally {
+			lock.unlock();
+		}
+		try {
+			full.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (failure == null) {
+				channel.force(true);
+			}
+		} finally {
+			channel.close();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Passes the current buffer to the background thread, and carries on in a free one. Only called while holding the
+	 * lock.
+	 */
+	private void handOff() {
+		try {
+			full.put(current);
+			current = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while writing the tracks", e);
+		}
+		lastHandOff = System.nanoTime();
+	}
+
+	/**
+	 * Runs on the background thread, writing each buffer it is handed and syncing the file every flush interval. Once
+	 * writing has failed, buffers are still passed back, so that the tracking thread isn't left waiting for one.
+	 */
+	private void drain() {
+		long lastForce = System.nanoTime();
+		try {
+			while (true) {
+				ByteBuffer buffer = full.poll(flushNanos, TimeUnit.NANOSECONDS);
+				if (buffer == END) {
+					break;
+				}
+				try {
+					if (buffer != null && failure == null) {
+						write(buffer);
+					} else if (buffer == null && failure == null) {
+						writeQuietRows();
+					}
+					if (failure == null && System.nanoTime() - lastForce >= flushNanos) {
+						channel.force(false);
+						lastForce = System.nanoTime();
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+				if (buffer != null) {
+					buffer.clear();
+					free.put(buffer);
+				}
+			}
+		} catch (InterruptedException e) {
+			// the writer is being shut down
+		}
+	}
+
+	/**
+	 * Writes the rows in the current buffer when none have been handed over for a whole flush interval. This is done
+	 * in place, as nothing is waiting for the buffer, and only if every earlier buffer has been written already. If 
+	 * the tracking thread holds the lock, it is busy and will hand the buffer over itself, possibly while waiting for
+	 * this thread to free a buffer, so this thread mustn't wait for the lock.
+	 */
+	private void writeQuietRows() throws IOException {
+		if (!lock.tryLock()) {
+			return;
+		}
+		try {
+			if (full.isEmpty() && current.position() > 0) {
+				write(current);
+				lastHandOff = System.nanoTime();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void putLong(long value) {
+		if (value < 0) {
+			current.put((byte) '-');
+			value = -value;
+		}
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (n > 0) {
+			current.put(digits[--n]);
+		}
+	}
+
+	private void putPadded(long value, int width) {
+		for (long limit = 10; width > 1; width--, limit *= 10) {
+			if (value < limit) {
+				current.put((byte) '0');
+			}
+		}
+		putLong(value);
+	}
+
+	/**
+	 * Puts a number with two decimal places, exactly as String.format(Locale.ROOT, "%.2f") writes it for
+	 * CsvTrackWriter, whatever the default locale. That rounds the shortest decimal form of the value half up, so 2.405
+	 * becomes 2.41, which rounding value*100 can't always tell when the product lands within a rounding error of a 
+	 * half. Those rare values are formatted by String.format() itself, and every other value without allocating.
+	 */
+	private void putFixed(double value) {
+		double scaled = Math.abs(value)*100, floor = Math.floor(scaled);
+		if (Math.abs(scaled - floor - 0.5) < 1e-6) {
+			current.put(String.format(Locale.ROOT, "%.2f", value).getBytes(StandardCharsets.US_ASCII));
+			return;
+		}
+		if (value < 0) {
+			current.put((byte) '-');
+		}
+		long hundredths = (long) floor + (scaled - floor > 0.5 ? 1 : 0);
+		putLong(hundredths/100);
+		current.put((byte) '.');
+		putPadded(hundredths % 100, 2);
+	}
+
+	/**
+	 * Puts a video timestamp as mm:ss:SSS, as CsvTrackWriter.appendTime() does.
+	 */
+	private void putTime(double timeMillis) {
+		long ms = (long) timeMillis;
+		putPadded(ms/60000 % 60, 2);
+		current.put((byte) ':');
+		putPadded(ms/1000 % 60, 2);
+		current.put((byte) ':');
+		putPadded(ms % 1000, 3);
+	}
+}
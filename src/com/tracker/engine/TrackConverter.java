@@ -0,0 +1,89 @@
+package com.tracker.engine;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts tracks between csv or tsv files and binary track files, in either direction, depending on the extension of
+ * the input. The values are kept exactly, but times that Excel turned into fractions of a day come back as mm:ss:SSS.
+ * <p> Usage: <pre>
+ * java com.tracker.engine.TrackConverter fishdata.csv fishdata.trk
+ * java com.tracker.engine.TrackConverter fishdata.trk fishdata.tsv
+ * </pre>
+ */
+public class TrackConverter {
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: TrackConverter input output, where one of them is a " + TrackFile.EXTENSION
+					+ " file and the other a .csv or .tsv file");
+			System.exit(1);
+		}
+		File input = new File(args[0]), output = new File(args[1]);
+		try {
+			long start = System.nanoTime();
+			long rows;
+			if (isTrackFile(input) && !isTrackFile(output)) {
+				rows = toText(input, output, delimiterOf(output));
+			} else if (!isTrackFile(input) && isTrackFile(output)) {
+				rows = toTrackFile(input, delimiterOf(input), output);
+			} else {
+				throw new IllegalArgumentException("One file must be a " + TrackFile.EXTENSION + " file and the other not");
+			}
+			System.out.printf("Converted %d rows in %.1f s\n", rows, (System.nanoTime() - start)/1e9);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Converts a csv or tsv file to a track file. The csv files have no frame numbers, so each row is given its row
+	 * number as its frame.
+	 * @return The number of rows converted.
+	 * @throws IOException If either file can't be used, or the csv file is malformed.
+	 */
+	public static long toTrackFile(File text, char delimiter, File track) throws IOException {
+		try (CsvTrackReader reader = new CsvTrackReader(text, delimiter)) {
+			if (!reader.next()) {
+				throw new IOException(text + " has no rows");
+			}
+			int n = reader.getFishCount();
+			int[] indices = new int[n], flags = new int[n];
+			for (int k = 0; k < n; k++) {
+				indices[k] = reader.getFishIndex(k);
+			}
+			float[] xs = new float[n], ys = new float[n];
+			try (TrackFileWriter writer = new TrackFileWriter(track, indices)) {
+				do {
+					for (int k = 0; k < n; k++) {
+						xs[k] = reader.getX(k);
+						ys[k] = reader.getY(k);
+						flags[k] = reader.hasSample(k) ? 0 : TrackFile.ABSENT;
+					}
+					writer.append(reader.getRow(), reader.getTimestamp(), xs, ys, flags);
+				} while (reader.next());
+				return writer.getRows();
+			}
+		}
+	}
+
+	/**
+	 * Converts a track file to a csv or tsv file.
+	 * @return The number of rows converted.
+	 * @throws IOException If either file can't be used.
+	 */
+	public static long toText(File track, File text, char delimiter) throws IOException {
+		try (TrackFile tracks = new TrackFile(track)) {
+			CsvTrackWriter.write(tracks, text, delimiter);
+			return tracks.getRows();
+		}
+	}
+
+	private static boolean isTrackFile(File file) {
+		return file.getName().endsWith(TrackFile.EXTENSION);
+	}
+
+	private static char delimiterOf(File file) {
+		return file.getName().endsWith(".tsv") ? '\t' : ',';
+	}
+}
@@ -0,0 +1,190 @@
+package com.tracker.engine;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a binary track file, written by TrackFileWriter, through memory mapping. Nothing is parsed: each value is read
+ * straight from the mapped file when asked for, so scanning a month of tracks runs as fast as the file can be paged in.
+ * <p> The file is little-endian, and is laid out as:
+ * <pre>
+ * header     64 bytes, see the offsets below
+ * fish       one int per fish, the fish's index, padded to a multiple of 8 bytes
+ * rows       fixed-width rows of: frame (long), timestamp in ms (double), then for each fish x in mm (float),
+ *            y in mm (float) and flags (int)
+ * index      one long per FRAME_BUCKET frames, then one long per TIME_BUCKET ms, each the first row at or after the
+ *            start of the bucket
+ * </pre>
+ * Because every row has the same width, row i is found by arithmetic, and the index narrows a search by frame or time
+ * down to a single bucket, so both take constant time however long the file is.
+ */
+public class TrackFile implements Closeable {
+	public final static String EXTENSION = ".trk";
+	public final static int MAGIC = 0x4b525446; // "FTRK" when read as little-endian bytes
+	public final static int VERSION = 1;
+	public final static int ABSENT = 1 << 8; // flag for a fish that has no sample in the row
+	final static int FRAME_BUCKET = 256; // frames per entry of the frame index
+	final static int TIME_BUCKET = 1000; // ms per entry of the time index
+	final static int HEADER_SIZE = 64;
+	final static int ROW_HEADER = 16, SAMPLE_SIZE = 12;
+	final static int OFFSET_FISH_COUNT = 8, OFFSET_ROW_SIZE = 12, OFFSET_ROWS = 16, OFFSET_FIRST_FRAME = 24,
+			OFFSET_FIRST_TIME = 32, OFFSET_INDEX = 40, OFFSET_FRAME_BUCKETS = 48, OFFSET_TIME_BUCKETS = 52;
+	private final static long MAP_SIZE = 1L << 30; // each mapping is under 2 GB, as a MappedByteBuffer can't be larger
+	private final FileChannel channel;
+	private final int[] fishIndices;
+	private final int rowSize;
+	private final long rows, firstFrame;
+	private final double firstTime;
+	private final long[] frameIndex, timeIndex;
+	private final long rowsPerMap;
+	private final MappedByteBuffer[] maps;
+
+	/**
+	 * Opens a track file and maps it into memory.
+	 * @param file The track file.
+	 * @throws IOException If the file can't be read, or isn't a track file.
+	 */
+	public TrackFile(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException(file + " is too short to be a track file");
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException(file + " isn't a track file");
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException(file + " is version " + header.getInt(4) + " of the track format, not " + VERSION);
+			}
+			int fishCount = header.getInt(OFFSET_FISH_COUNT);
+			rowSize = rowSize(fishCount);
+			if (fishCount < 0 || header.getInt(OFFSET_ROW_SIZE) != rowSize) {
+				throw new IOException(file + " has a corrupt header");
+			}
+			rows = header.getLong(OFFSET_ROWS);
+			firstFrame = header.getLong(OFFSET_FIRST_FRAME);
+			firstTime = header.getDouble(OFFSET_FIRST_TIME);
+			long indexOffset = header.getLong(OFFSET_INDEX);
+			int frameBuckets = header.getInt(OFFSET_FRAME_BUCKETS), timeBuckets = header.getInt(OFFSET_TIME_BUCKETS);
+			long dataOffset = dataOffset(fishCount);
+			if (indexOffset != dataOffset + rows*rowSize || indexOffset + 8L*(frameBuckets + timeBuckets) > size) {
+				throw new IOException(file + " is truncated");
+			}
+
+			ByteBuffer fish = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 4*fishCount)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			fishIndices = new int[fishCount];
+			for (int k = 0; k < fishCount; k++) {
+				fishIndices[k] = fish.getInt(4*k);
+			}
+			ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, 8L*(frameBuckets + timeBuckets))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			frameIndex = new long[frameBuckets];
+			timeIndex = new long[timeBuckets];
+			index.asLongBuffer().get(frameIndex).get(timeIndex);
+
+			// the rows are mapped in pieces that hold a whole number of rows, so no row straddles two mappings
+			rowsPerMap = MAP_SIZE/rowSize;
+			maps = new MappedByteBuffer[(int) ((rows + rowsPerMap - 1)/rowsPerMap)];
+			for (int m = 0; m < maps.length; m++) {
+				long first = m*rowsPerMap, count = Math.min(rowsPerMap, rows - first);
+				maps[m] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + first*rowSize, count*rowSize);
+				maps[m].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/* Getters */
+	public long getRows() { return rows; }
+	public int getFishCount() { return fishIndices.length; }
+	public int getFishIndex(int k) { return fishIndices[k]; }
+	public boolean isTimeIndexed() { return timeIndex.length > 0; } // false if the timestamps ever go backwards
+	public long getFrame(long row) { return map(row).getLong(offset(row)); }
+	public double getTimestamp(long row) { return map(row).getDouble(offset(row) + 8); }
+	public float getX(long row, int k) { return map(row).getFloat(offset(row) + ROW_HEADER + k*SAMPLE_SIZE); }
+	public float getY(long row, int k) { return map(row).getFloat(offset(row) + ROW_HEADER + k*SAMPLE_SIZE + 4); }
+	public int getFlags(long row, int k) { return map(row).getInt(offset(row) + ROW_HEADER + k*SAMPLE_SIZE + 8); }
+	public boolean hasSample(long row, int k) { return (getFlags(row, k) & ABSENT) == 0; }
+
+	/**
+	 * Finds the first row recorded at or after a frame.
+	 * @param frame The frame index.
+	 * @return The row, or getRows() if every row is earlier.
+	 */
+	public long findFrame(long frame) {
+		if (rows == 0 || frame <= firstFrame) {
+			return 0;
+		}
+		long bucket = (frame - firstFrame)/FRAME_BUCKET;
+		if (bucket >= frameIndex.length) {
+			return rows;
+		}
+		long row = frameIndex[(int) bucket];
+		while (row < rows && getFrame(row) < frame) {
+			row++;
+		}
+		return row;
+	}
+
+	/**
+	 * Finds the first row recorded at or after a time in the video.
+	 * @param timeMillis The time, in ms.
+	 * @return The row, or getRows() if every row is earlier.
+	 * @throws IllegalStateException If the file has no time index, because its timestamps start again part way through,
+	 * as they do when several videos were tracked one after the other.
+	 */
+	public long findTime(double timeMillis) {
+		if (rows > 0 && !isTimeIndexed()) {
+			throw new IllegalStateException("The timestamps aren't in order, so the track can't be searched by time");
+		}
+		if (rows == 0 || timeMillis <= firstTime) {
+			return 0;
+		}
+		double bucket = Math.floor((timeMillis - firstTime)/TIME_BUCKET);
+		if (bucket >= timeIndex.length) {
+			return rows;
+		}
+		long row = timeIndex[(int) bucket];
+		while (row < rows && getTimestamp(row) < timeMillis) {
+			row++;
+		}
+		return row;
+	}
+
+	private MappedByteBuffer map(long row) {
+		if (row < 0 || row >= rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+		}
+		return maps[(int) (row/rowsPerMap)];
+	}
+
+	private int offset(long row) {
+		return (int) (row % rowsPerMap)*rowSize;
+	}
+
+	/**
+	 * Closes the file. The mappings stay valid until they are garbage collected, but shouldn't be used any more.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	static int rowSize(int fishCount) {
+		return ROW_HEADER + fishCount*SAMPLE_SIZE;
+	}
+
+	static long dataOffset(int fishCount) {
+		return (HEADER_SIZE + 4L*fishCount + 7) & ~7L;
+	}
+}
@@ -0,0 +1,189 @@
+package com.tracker.engine;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tracker.model.Fish;
+import com.tracker.model.TrackStore;
+
+/**
+ * Writes tracks to a binary track file, which can be read back with TrackFile. Rows are added in order of frame, and
+ * the frame and time indexes are built as they go, so nothing but the indexes is held in memory.
+ */
+public class TrackFileWriter implements Closeable {
+	private final static int BUFFER_SIZE = 1 << 16;
+	private final FileChannel channel;
+	private final int[] fishIndices;
+	private final ByteBuffer buffer;
+	private long rows = 0, firstFrame = 0, lastFrame = 0;
+	private double firstTime = 0, lastTime = 0;
+	private long[] frameIndex = new long[16], timeIndex = new long[16];
+	private int frameBuckets = 0, timeBuckets = 0;
+	private boolean timeOrdered = true, closed = false;
+
+	/**
+	 * Creates the file, replacing anything already in it.
+	 * @param file The track file.
+	 * @param fishIndices The index of each fish in the rows, in order.
+	 * @throws IOException If the file can't be created.
+	 */
+	public TrackFileWriter(File file, int[] fishIndices) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.fishIndices = fishIndices.clone();
+		int rowSize = TrackFile.rowSize(fishIndices.length);
+		buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, rowSize)).order(ByteOrder.LITTLE_ENDIAN);
+
+		// the header is only filled in on close, so a file that was never closed can't be mistaken for a whole one
+		buffer.limit((int) TrackFile.dataOffset(fishIndices.length));
+		buffer.position(TrackFile.HEADER_SIZE);
+		for (int index: fishIndices) {
+			buffer.putInt(index);
+		}
+		buffer.position(buffer.limit());
+	}
+
+	/**
+	 * Writes every fish's track to a track file. The positions are converted to mm, as in the csv files.
+	 * @param fishes The fish whose tracks should be saved.
+	 * @param file The location for the tracks to be saved to.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public static void write(List<Fish> fishes, File file) throws IOException {
+		int n = fishes.size(), n_data = 0;
+		int[] indices = new int[n], flags = new int[n];
+		float[] xs = new float[n], ys = new float[n];
+		for (int k = 0; k < n; k++) {
+			indices[k] = fishes.get(k).getIndex();
+			n_data = Math.max(n_data, fishes.get(k).getTrack().size());
+		}
+		try (TrackFileWriter writer = new TrackFileWriter(file, indices)) {
+			for (int i = 0; i < n_data; i++) {
+				long frame = 0;
+				double timestamp = 0;
+				for (int k = n - 1; k >= 0; k--) { // the row takes its frame from the first fish that has a sample
+					TrackStore track = fishes.get(k).getTrack();
+					if (i >= track.size()) {
+						xs[k] = ys[k] = 0;
+						flags[k] = TrackFile.ABSENT;
+						continue;
+					}
+					frame = track.getFrame(i);
+					timestamp = track.getTimestamp(i);
+					xs[k] = (float) Fish.toMM(track.getX(i));
+					ys[k] = (float) Fish.toMM(track.getY(i));
+					flags[k] = track.getFlags(i);
+				}
+				writer.append(frame, timestamp, xs, ys, flags);
+			}
+		}
+	}
+
+	public long getRows() { return rows; }
+
+	/**
+	 * Adds a row to the end of the file.
+	 * @param frame The frame the row was recorded in, which must be later than that of the previous row.
+	 * @param timestamp Time from the video, in ms.
+	 * @param xs The x coordinate of each fish, in mm.
+	 * @param ys The y coordinate of each fish, in mm.
+	 * @param flags The flags of each fish, such as TrackStore.MISSED, or TrackFile.ABSENT for a fish with no sample.
+	 * @throws IOException If the file couldn't be written.
+	 * @throws IllegalArgumentException If the frame isn't later than the previous row's.
+	 */
+	public void append(long frame, double timestamp, float[] xs, float[] ys, int[] flags) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("The track file has been closed");
+		}
+		if (rows == 0) {
+			firstFrame = frame;
+			firstTime = timestamp;
+		} else if (frame <= lastFrame) {
+			throw new IllegalArgumentException("Frame " + frame + " doesn't follow frame " + lastFrame);
+		} else if (timestamp < lastTime) {
+			timeOrdered = false; // the video has changed, so the track can't be searched by time
+		}
+		while (frame >= firstFrame + (long) frameBuckets*TrackFile.FRAME_BUCKET) {
+			frameIndex = add(frameIndex, frameBuckets++, rows);
+		}
+		while (timeOrdered && timestamp >= firstTime + (double) timeBuckets*TrackFile.TIME_BUCKET) {
+			timeIndex = add(timeIndex, timeBuckets++, rows);
+		}
+		lastFrame = frame;
+		lastTime = timestamp;
+
+		if (buffer.remaining() < TrackFile.rowSize(fishIndices.length)) {
+			flush();
+		}
+		buffer.putLong(frame).putDouble(timestamp);
+		for (int k = 0; k < fishIndices.length; k++) {
+			buffer.putFloat(xs[k]).putFloat(ys[k]).putInt(flags[k]);
+		}
+		rows++;
+	}
+
+	private static long[] add(long[] index, int n, long row) {
+		if (n == index.length) {
+			index = Arrays.copyOf(index, 2*n);
+		}
+		index[n] = row;
+		return index;
+	}
+
+	/**
+	 * Writes the indexes after the last row, then the header, and closes the file.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (!timeOrdered) {
+				timeBuckets = 0;
+			}
+			long indexOffset = TrackFile.dataOffset(fishIndices.length) + rows*TrackFile.rowSize(fishIndices.length);
+			long[][] indexes = {Arrays.copyOf(frameIndex, frameBuckets), Arrays.copyOf(timeIndex, timeBuckets)};
+			for (long[] index: indexes) {
+				for (long row: index) {
+					if (buffer.remaining() < 8) {
+						flush();
+					}
+					buffer.putLong(row);
+				}
+			}
+			flush();
+
+			buffer.putInt(TrackFile.MAGIC).putInt(TrackFile.VERSION).putInt(fishIndices.length)
+					.putInt(TrackFile.rowSize(fishIndices.length));
+			buffer.putLong(rows).putLong(firstFrame).putDouble(firstTime).putLong(indexOffset);
+			buffer.putInt(frameBuckets).putInt(timeBuckets);
+			while (buffer.position() < TrackFile.HEADER_SIZE) {
+				buffer.put((byte) 0);
+			}
+			buffer.flip();
+			for (long position = 0; buffer.hasRemaining(); ) {
+				position += channel.write(buffer, position);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,109 @@
+package com.tracker.engine;
+import java.util.List;
+
+import org.opencv.core.Point;
+
+import com.tracker.model.Fish;
+import com.tracker.model.TrackStore;
+
+/**
+ * Moves each fish along a track that was recorded earlier, such as one loaded by CsvTrackImporter, instead of tracking
+ * it. A TrackingEngine with a replayer only reads the frames, and puts every fish at its last sample at or before the
+ * frame's time, so checking an old track against its video costs no more than decoding it.
+ * <p> The timestamps start again with each video, so a fish's track is split wherever its time goes backwards, and
+ * each part is replayed over the next video in the queue.
+ */
+public class TrackReplayer {
+	private final List<Fish> fishes;
+	private final int[] positions, segmentStarts;
+
+	/**
+	 * @param fishes The fish to be moved, with their recorded tracks.
+	 */
+	public TrackReplayer(List<Fish> fishes) {
+		this.fishes = fishes;
+		positions = new int[fishes.size()];
+		segmentStarts = new int[fishes.size()];
+		for (int k = 0; k < positions.length; k++) {
+			positions[k] = -1;
+		}
+	}
+
+	/**
+	 * @param k The position of the fish in the list.
+	 * @return The index of the sample the fish is at, or -1 if the replay hasn't reached its first sample yet.
+	 */
+	public int getPosition(int k) { return positions[k]; }
+
+	/**
+	 * Moves every fish to its last sample at or before a time in the current video.
+	 * @param timestamp Time from the video, in ms.
+	 */
+	public void moveTo(double timestamp) {
+		for (int k = 0; k < positions.length; k++) {
+			TrackStore track = fishes.get(k).getTrack();
+			int i = advance(track, k, timestamp);
+			if (i != positions[k] && i >= segmentStarts[k]) {
+				fishes.get(k).updateCenter(new Point(track.getX(i), track.getY(i)));
+			}
+			positions[k] = i;
+		}
+	}
+
+	/**
+	 * Starts the replay again at a time in any video, such as after the movie has been scrubbed. Each fish is put at 
+	 * its last sample at or before the time, with its predictor restarted there.
+	 * @param videoIndex The index of the video.
+	 * @param timestamp Time from that video, in ms.
+	 */
+	public void seek(int videoIndex, double timestamp) {
+		for (int k = 0; k < positions.length; k++) {
+			positions[k] = -1;
+			segmentStarts[k] = 0;
+		}
+		for (int v = 0; v < videoIndex; v++) {
+			nextVideo();
+		}
+		for (int k = 0; k < positions.length; k++) {
+			TrackStore track = fishes.get(k).getTrack();
+			int i = advance(track, k, timestamp);
+			if (i >= segmentStarts[k]) {
+				fishes.get(k).moveCenter(new Point(track.getX(i), track.getY(i)));
+			}
+			positions[k] = i;
+		}
+	}
+
+	/**
+	 * @return The index of the fish's last sample at or before a time in the current video.
+	 */
+	private int advance(TrackStore track, int k, double timestamp) {
+		int i = positions[k];
+		while (i + 1 < track.size() && track.getTimestamp(i + 1) <= timestamp && isSameVideo(track, k, i + 1)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Moves on to the part of each track that was recorded in the next video.
+	 */
+	public void nextVideo() {
+		for (int k = 0; k < positions.length; k++) {
+			TrackStore track = fishes.get(k).getTrack();
+			int i = positions[k];
+			while (i + 1 < track.size() && isSameVideo(track, k, i + 1)) {
+				i++;
+			}
+			positions[k] = i;
+			segmentStarts[k] = i + 1;
+		}
+	}
+
+	/**
+	 * @return True, if sample i was recorded in the same video as the samples since the start of the fish's segment.
+	 */
+	private boolean isSameVideo(TrackStore track, int k, int i) {
+		return i <= segmentStarts[k] || track.getTimestamp(i) >= track.getTimestamp(i - 1);
+	}
+}
@@ -0,0 +1,356 @@
+package com.tracker.engine;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.videoio.Videoio;
+
+import com.tracker.model.BackgroundModel;
+import com.tracker.model.Fish;
+import com.tracker.model.FrameSignature;
+import com.tracker.model.MotionVideoCapture;
+import com.tracker.model.TrackStore;
+
+/**
+ * Everything a TrackingEngine needs to carry on tracking from part way through its videos with the same results as if
+ * it had never stopped: the video and frame it had reached, the assigner's counters, each fish's position, distance,
+ * motion predictor and track, the background model's Mats and the last static frame signature.
+ * <p> take() copies the state on the tracking thread, and is cheap: the Mats are a few scaled greyscale frames, and
+ * only the track samples recorded since the previous take() are copied. write() can then run on another thread, and
+ * replaces the file atomically, so a crash part way through writing leaves the previous checkpoint in place.
+ * <p> The checkpoint must be resumed with the same videos and options that it was taken with.
+ */
+public class TrackingCheckpoint {
+	private final static int MAGIC = 0x4b435446; // "FTCK" when read as big-endian bytes
+	private final static int VERSION = 1;
+	private List<File> videoFiles;
+	private int videoIndex, frameCounter, staticFrames, dataCounter;
+	private long position;
+	private int[] fishIndices = new int[0];
+	private double[] centreX = new double[0], centreY = new double[0], distances = new double[0];
+	private double[][] predictorStates = new double[0][];
+	private TrackStore[] tracks = new TrackStore[0];
+	private int[] matTypes = new int[0], matRows = new int[0], matCols = new int[0];
+	private byte[][] matData = new byte[0][];
+	private byte[] signature = null;
+
+	/**
+	 * @param videoFiles The videos being tracked, in order, which are recorded so that a checkpoint is only ever resumed
+	 * over the same videos.
+	 */
+	public TrackingCheckpoint(List<File> videoFiles) {
+		this.videoFiles = new ArrayList<File>();
+		for (File file: videoFiles) {
+			this.videoFiles.add(file.getAbsoluteFile());
+		}
+	}
+
+	/* Getters */
+	public List<File> getVideoFiles() { return videoFiles; }
+	public int getVideoIndex() { return videoIndex; }
+	public long getPosition() { return position; } // the next frame to be read from the video
+	public int getFrameCounter() { return frameCounter; }
+
+	/**
+	 * Copies the engine's state. This must be called on the tracking thread, between frames, such as from
+	 * TrackingListener.frameTracked(), and not while write() is running.
+	 * @param engine The engine being checkpointed.
+	 * @throws UnsupportedOperationException If the engine's background model can't be copied.
+	 */
+	public void take(TrackingEngine engine) {
+		MotionVideoCapture video = engine.currentVideo();
+		FrameAssigner assigner = engine.getAssigner();
+		videoIndex = engine.getVideoIndex();
+		position = (long) video.get(Videoio.CAP_PROP_POS_FRAMES);
+		frameCounter = assigner.getFrameCounter();
+		staticFrames = assigner.getStaticFrames();
+		dataCounter = assigner.getDataCounter();
+
+		List<Fish> fishes = engine.getFishes();
+		int n = fishes.size();
+		if (tracks.length != n) {
+			fishIndices = new int[n];
+			centreX = new double[n];
+			centreY = new double[n];
+			distances = new double[n];
+			predictorStates = new double[n][];
+			tracks = new TrackStore[n];
+			for (int k = 0; k < n; k++) {
+				tracks[k] = new TrackStore();
+			}
+		}
+		for (int k = 0; k < n; k++) {
+			Fish fish = fishes.get(k);
+			fishIndices[k] = fish.getIndex();
+			centreX[k] = fish.getCenter().x;
+			centreY[k] = fish.getCenter().y;
+			distances[k] = fish.getDistanceTravelled();
+			predictorStates[k] = fish.getPredictor().getState();
+			copyNewSamples(fish.getTrack(), tracks[k]);
+		}
+
+		Mat[] mats = video.getBackgroundModel().snapshot();
+		matTypes = new int[mats.length];
+		matRows = new int[mats.length];
+		matCols = new int[mats.length];
+		matData = new byte[mats.length][];
+		for (int m = 0; m < mats.length; m++) {
+			matTypes[m] = mats[m].type();
+			matRows[m] = mats[m].rows();
+			matCols[m] = mats[m].cols();
+			matData[m] = toBytes(mats[m]);
+			mats[m].release();
+		}
+		FrameSignature frameSignature = video.getSignature();
+		signature = frameSignature == null ? null : frameSignature.getReference();
+	}
+
+	/**
+	 * Puts a freshly built engine, over the same videos and fish as the checkpoint, back into the checkpoint's state,
+	 * ready to track the frame after the one the checkpoint was taken on.
+	 * @param engine The engine, which hasn't tracked any frames yet.
+	 * @throws IOException If the engine has different videos or fish, or the video can't be moved to the frame.
+	 * @throws UnsupportedOperationException If the engine's background model can't be restored.
+	 */
+	public void restore(TrackingEngine engine) throws IOException {
+		List<Fish> fishes = engine.getFishes();
+		if (engine.getVideos().size() != videoFiles.size() || videoIndex >= videoFiles.size()) {
+			throw new IOException("The checkpoint was taken over " + videoFiles.size() + " videos, not "
+					+ engine.getVideos().size());
+		}
+		if (fishes.size() != tracks.length) {
+			throw new IOException("The checkpoint has " + tracks.length + " fish, not " + fishes.size());
+		}
+		for (int k = 0; k < tracks.length; k++) {
+			if (fishes.get(k).getIndex() != fishIndices[k]) {
+				throw new IOException("The checkpoint's fish " + k + " has index " + fishIndices[k]);
+			}
+		}
+		engine.resumeAt(videoIndex);
+		MotionVideoCapture video = engine.currentVideo();
+		if (!video.seekExactly(position)) {
+			throw new IOException(videoFiles.get(videoIndex) + " has fewer than " + position + " frames");
+		}
+		engine.getAssigner().restoreCounters(frameCounter, staticFrames, dataCounter);
+		for (int k = 0; k < tracks.length; k++) {
+			Fish fish = fishes.get(k);
+			fish.restore(new Point(centreX[k], centreY[k]), distances[k]);
+			fish.getPredictor().setState(predictorStates[k]);
+			fish.getTrack().clear();
+			copyNewSamples(tracks[k], fish.getTrack());
+		}
+
+		Mat[] mats = new Mat[matData.length];
+		for (int m = 0; m < mats.length; m++) {
+			mats[m] = new Mat(matRows[m], matCols[m], matTypes[m]);
+			fromBytes(matData[m], mats[m]);
+		}
+		BackgroundModel background = video.getBackgroundModel();
+		background.restore(mats);
+		for (Mat mat: mats) {
+			mat.release();
+		}
+		if (video.getSignature() != null) {
+			video.getSignature().setReference(signature);
+		}
+	}
+
+	/**
+	 * Writes the checkpoint to a temporary file next to the given one, syncs it to disk and then renames it over the
+	 * given file, so the file always holds a whole checkpoint.
+	 * @param file The checkpoint file.
+	 * @throws IOException If the file can't be written.
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temporary);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED); // the Mats compress well, and speed matters more
+		DeflaterOutputStream compressed = new DeflaterOutputStream(stream, deflater);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(compressed))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(videoFiles.size());
+			for (File video: videoFiles) {
+				out.writeUTF(video.getPath());
+			}
+			out.writeInt(videoIndex);
+			out.writeLong(position);
+			out.writeInt(frameCounter);
+			out.writeInt(staticFrames);
+			out.writeInt(dataCounter);
+
+			out.writeInt(tracks.length);
+			for (int k = 0; k < tracks.length; k++) {
+				out.writeInt(fishIndices[k]);
+				out.writeDouble(centreX[k]);
+				out.writeDouble(centreY[k]);
+				out.writeDouble(distances[k]);
+				out.writeInt(predictorStates[k].length);
+				for (double value: predictorStates[k]) {
+					out.writeDouble(value);
+				}
+				out.writeInt(tracks[k].size());
+				TrackStore.Cursor cursor = tracks[k].cursor();
+				while (cursor.next()) {
+					out.writeLong(cursor.getFrame());
+					out.writeDouble(cursor.getTimestamp());
+					out.writeFloat(cursor.getX());
+					out.writeFloat(cursor.getY());
+					out.writeInt(cursor.getFlags());
+				}
+			}
+
+			out.writeInt(matData.length);
+			for (int m = 0; m < matData.length; m++) {
+				out.writeInt(matTypes[m]);
+				out.writeInt(matRows[m]);
+				out.writeInt(matCols[m]);
+				out.writeInt(matData[m].length);
+				out.write(matData[m]);
+			}
+			out.writeInt(signature == null ? -1 : signature.length);
+			if (signature != null) {
+				out.write(signature);
+			}
+			out.flush();
+			compressed.finish();
+			stream.getFD().sync();
+		} finally {
+			deflater.end();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads a checkpoint written by write().
+	 * @param file The checkpoint file.
+	 * @return The checkpoint, ready to be restored.
+	 * @throws IOException If the file can't be read, or isn't a checkpoint.
+	 */
+	public static TrackingCheckpoint load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new InflaterInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " isn't a checkpoint");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(file + " is version " + version + " of the checkpoint format, not " + VERSION);
+			}
+			List<File> videos = new ArrayList<File>();
+			for (int i = in.readInt(); i > 0; i--) {
+				videos.add(new File(in.readUTF()));
+			}
+			TrackingCheckpoint checkpoint = new TrackingCheckpoint(videos);
+			checkpoint.videoIndex = in.readInt();
+			checkpoint.position = in.readLong();
+			checkpoint.frameCounter = in.readInt();
+			checkpoint.staticFrames = in.readInt();
+			checkpoint.dataCounter = in.readInt();
+
+			int n = in.readInt();
+			checkpoint.fishIndices = new int[n];
+			checkpoint.centreX = new double[n];
+			checkpoint.centreY = new double[n];
+			checkpoint.distances = new double[n];
+			checkpoint.predictorStates = new double[n][];
+			checkpoint.tracks = new TrackStore[n];
+			for (int k = 0; k < n; k++) {
+				checkpoint.fishIndices[k] = in.readInt();
+				checkpoint.centreX[k] = in.readDouble();
+				checkpoint.centreY[k] = in.readDouble();
+				checkpoint.distances[k] = in.readDouble();
+				checkpoint.predictorStates[k] = new double[in.readInt()];
+				for (int i = 0; i < checkpoint.predictorStates[k].length; i++) {
+					checkpoint.predictorStates[k][i] = in.readDouble();
+				}
+				TrackStore track = new TrackStore();
+				for (int i = in.readInt(); i > 0; i--) {
+					track.append(in.readLong(), in.readDouble(), in.readFloat(), in.readFloat(), in.readInt());
+				}
+				checkpoint.tracks[k] = track;
+			}
+
+			int mats = in.readInt();
+			checkpoint.matTypes = new int[mats];
+			checkpoint.matRows = new int[mats];
+			checkpoint.matCols = new int[mats];
+			checkpoint.matData = new byte[mats][];
+			for (int m = 0; m < mats; m++) {
+				checkpoint.matTypes[m] = in.readInt();
+				checkpoint.matRows[m] = in.readInt();
+				checkpoint.matCols[m] = in.readInt();
+				checkpoint.matData[m] = new byte[in.readInt()];
+				in.readFully(checkpoint.matData[m]);
+			}
+			int signatureLength = in.readInt();
+			if (signatureLength >= 0) {
+				checkpoint.signature = new byte[signatureLength];
+				in.readFully(checkpoint.signature);
+			}
+			return checkpoint;
+		} catch (EOFException e) {
+			throw new IOException(file + " is truncated");
+		}
+	}
+
+	/**
+	 * Appends the samples of a track that the copy doesn't have yet. If the track has been cleared since, it is copied
+	 * again from the start.
+	 */
+	private static void copyNewSamples(TrackStore from, TrackStore to) {
+		if (from.size() < to.size()) {
+			to.clear();
+		}
+		for (int i = to.size(); i < from.size(); i++) {
+			to.append(from.getFrame(i), from.getTimestamp(i), from.getX(i), from.getY(i), from.getFlags(i));
+		}
+	}
+
+	/**
+	 * @return The pixels of an 8 bit or 32 bit float Mat, as bytes.
+	 */
+	private static byte[] toBytes(Mat mat) {
+		int values = (int) mat.total()*mat.channels();
+		if (mat.depth() == CvType.CV_8U) {
+			byte[] bytes = new byte[values];
+			mat.get(0, 0, bytes);
+			return bytes;
+		} else if (mat.depth() == CvType.CV_32F) {
+			float[] floats = new float[values];
+			mat.get(0, 0, floats);
+			ByteBuffer bytes = ByteBuffer.allocate(4*values);
+			bytes.asFloatBuffer().put(floats);
+			return bytes.array();
+		}
+		throw new UnsupportedOperationException("Only 8 bit and 32 bit float backgrounds can be checkpointed");
+	}
+
+	private static void fromBytes(byte[] bytes, Mat mat) {
+		if (mat.depth() == CvType.CV_8U) {
+			mat.put(0, 0, bytes);
+		} else {
+			float[] floats = new float[bytes.length/4];
+			ByteBuffer.wrap(bytes).asFloatBuffer().get(floats);
+			mat.put(0, 0, floats);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package com.tracker.engine;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Point;
+
+import com.tracker.model.Fish;
+import com.tracker.model.FrameIndex;
+import com.tracker.model.MotionVideoCapture;
+import com.tracker.model.TankMask;
+import com.tracker.model.TrackStore;
+
+/**
+ * The core motion and assignment loop of the tracker. An engine walks through a queue of videos frame by frame, moves
+ * each fish to its best candidate blob and records the fish positions every few frames.
+ * <p> The engine has no knowledge of Swing. The GUI drives it one frame at a time with step() and observes it through
+ * a TrackingListener, while the batch tracker simply calls run() and lets it go at full decode speed.
+ */
+public class TrackingEngine {
+	private List<MotionVideoCapture> videos;
+	private FrameAssigner assigner;
+	private List<TrackingListener> listeners = new ArrayList<TrackingListener>();
+	private TrackReplayer replayer = null;
+	private Point[] startCentres = null; // where each fish was when the first frame was tracked
+	private int videoIndex = 0;
+	private boolean finished = false;
+
+	/**
+	 * Builds an engine over a list of already opened videos. Consecutive videos share their background history so that
+	 * tracking carries on smoothly from one file to the next.
+	 * @param videos The videos to be tracked, in order.
+	 * @param fishes The fish to be tracked, already placed at their starting positions.
+	 */
+	public TrackingEngine(List<MotionVideoCapture> videos, List<Fish> fishes) {
+		this.videos = videos;
+		this.assigner = new FrameAssigner(fishes);
+	}
+
+	/* Getters and Setters */
+	public List<MotionVideoCapture> getVideos() { return videos; }
+	public List<Fish> getFishes() { return assigner.getFishes(); }
+	public FrameAssigner getAssigner() { return assigner; }
+	public int getFrameCounter() { return assigner.getFrameCounter(); }
+	public int getStaticFrames() { return assigner.getStaticFrames(); }
+	public int getVideoIndex() { return videoIndex; }
+	public boolean isFinished() { return finished; }
+	public int getFramesPerDataCount() { return assigner.getFramesPerDataCount(); }
+	public void setFramesPerDataCount(int n) { assigner.setFramesPerDataCount(n); }
+	public void setTrackWriter(StreamingTrackWriter writer) { assigner.setWriter(writer); }
+	public TrackReplayer getReplayer() { return replayer; }
+	public void setReplayer(TrackReplayer replayer) { this.replayer = replayer; } // replays tracks instead of tracking
+
+	/**
+	 * Restricts motion capture in every video to windows around the fish, with a search of the whole frame every so
+	 * often. See MotionVideoCapture.setSearchedFish().
+	 * @param fullFramePeriod The number of frames between searches of the whole frame, or 0 to always search the whole
+	 * frame.
+	 */
+	public void setRegionsOfInterest(int fullFramePeriod) {
+		for (MotionVideoCapture video: videos) {
+			video.setSearchedFish(fullFramePeriod > 0 ? getFishes() : null);
+			video.setFullFramePeriod(fullFramePeriod);
+		}
+	}
+	
+	/**
+	 * Captures motion in every video on a coarse level of an image pyramid. See MotionVideoCapture.setPyramidLevels().
+	 * @param levels The number of times each frame is halved before capturing motion.
+	 */
+	public void setPyramidLevels(int levels) {
+		for (MotionVideoCapture video: videos) {
+			video.setPyramidLevels(levels);
+		}
+	}
+	
+	/**
+	 * Skips motion capture and assignment in frames of every video where nothing has changed. See 
+	 * MotionVideoCapture.setStaticFrameFloor().
+	 * @param noiseFloor The largest change in grey level that counts as noise, or 0 to track every frame in full.
+	 */
+	public void setStaticFrameFloor(int noiseFloor) {
+		for (MotionVideoCapture video: videos) {
+			video.setStaticFrameFloor(noiseFloor);
+		}
+	}
+	
+	/**
+	 * Only captures motion in every video's whole frame every few frames, and follows the fish by optical flow in 
+	 * between. See MotionVideoCapture.setFlowPeriod().
+	 * @param period The number of frames between full detections, or 1 to capture motion in every frame.
+	 */
+	public void setFlowPeriod(int period) {
+		for (MotionVideoCapture video: videos) {
+			video.setFlowPeriod(period > 1 ? getFishes() : null, period);
+		}
+	}
+	
+	/**
+	 * Only captures motion inside the tank in every video. See MotionVideoCapture.setTankMask().
+	 * @param tank The outline of the tank, or null to capture motion in the whole frame.
+	 */
+	public void setTankMask(TankMask tank) {
+		for (MotionVideoCapture video: videos) {
+			video.setTankMask(tank);
+		}
+	}
+	
+	/**
+	 * @return The number of frames in which the fish were followed by optical flow, over every video.
+	 */
+	public long getFlowFrames() {
+		long frames = 0;
+		for (MotionVideoCapture video: videos) {
+			frames += video.getFlowFrames();
+		}
+		return frames;
+	}
+	
+	/**
+	 * @return The number of frames in which the optical flow lost confidence and motion was captured instead, over every
+	 * video.
+	 */
+	public long getFlowFallbacks() {
+		long frames = 0;
+		for (MotionVideoCapture video: videos) {
+			frames += video.getFlowFallbacks();
+		}
+		return frames;
+	}
+	
+	/**
+	 * @return The fraction of the pixels in the tracked frames that motion was captured in.
+	 */
+	public double getProcessedFraction() {
+		long processed = 0, total = 0;
+		for (MotionVideoCapture video: videos) {
+			processed += video.getPixelsProcessed();
+			total += video.getPixelsInFrames();
+		}
+		return total == 0 ? 1 : (double) processed/total;
+	}
+
+	public void addListener(TrackingListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(TrackingListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Gets the motion video currently being tracked.
+	 * @return The current motion video object.
+	 */
+	public MotionVideoCapture currentVideo() {
+		return videos.get(videoIndex);
+	}
+
+	/**
+	 * @return True, if there are still frames left to track.
+	 */
+	public boolean hasNext() {
+		return !finished && currentVideo().isOpened();
+	}
+
+	/**
+	 * Restarts the sampling cadence, so that the next data point is recorded framesPerDataCount frames from now. Used
+	 * when the GUI pauses the movie.
+	 */
+	public void resetDataCounter() {
+		assigner.resetDataCounter();
+	}
+
+	/**
+	 * Tracks a single frame. The next frame of the current video is read and each fish is moved to its best candidate
+	 * centre, or to its recorded position if a track is being replayed. If the current video has run out of frames, 
+	 * the next video is loaded instead.
+	 * @return True, if a frame was tracked.
+	 */
+	public boolean step() {
+		if (!hasNext()) {
+			return false;
+		}
+		if (startCentres == null) {
+			startCentres = new Point[getFishes().size()];
+			for (int k = 0; k < startCentres.length; k++) {
+				startCentres[k] = getFishes().get(k).getCenter();
+			}
+		}
+		MotionVideoCapture video = currentVideo();
+		if (replayer != null && video.replayFrame()) {
+			replayer.moveTo(video.getDetections().getTimestamp());
+			for (TrackingListener listener: listeners) {
+				listener.frameTracked(this);
+			}
+			return true;
+		} else if (replayer == null && video.nextFrame()) {
+			assigner.assign(video.getDetections());
+			for (TrackingListener listener: listeners) {
+				listener.frameTracked(this);
+			}
+			return true;
+		} else {
+			// no frames left in this video, so load the next one
+			loadNextVideo();
+			return false;
+		}
+	}
+
+	/**
+	 * Tracks every remaining frame of every video without stopping.
+	 */
+	public void run() {
+		while (hasNext()) {
+			step();
+		}
+	}
+
+	/**
+	 * Closes every video and frees their native memory. The engine must not be stepped afterwards.
+	 */
+	public void release() {
+		for (int i = 0; i < videos.size(); i++) {
+			videos.get(i).release();
+			// videos before the current one have already handed their buffers over to it
+			if (i >= videoIndex) {
+				videos.get(i).releaseShared();
+			}
+		}
+	}
+
+	/**
+	 * Skips straight to a video further down the queue without reading the ones before it, handing the background
+	 * history along as loadNextVideo() would. Used when resuming from a TrackingCheckpoint.
+	 * @param index The index of the video to continue from.
+	 */
+	public void resumeAt(int index) {
+		while (videoIndex < index) {
+			videoIndex++;
+			currentVideo().linkToPrevious(videos.get(videoIndex - 1));
+		}
+	}
+
+	/**
+	 * Moves to a frame of any video in the queue, such as when the user scrubs through the movie. The frame is read but
+	 * not tracked, and motion capture starts again from it, as described in MotionVideoCapture.seekTo(). The frame 
+	 * counter is set to the frame's index over the whole queue.
+	 * <p> When tracking, the samples recorded after the frame are dropped from the tracks, so seeking back records that
+	 * part again. Each fish is put back at its last sample kept, or where it started if none are, and its distance 
+	 * travelled is measured again along the samples kept. When replaying, the fish are moved to their recorded positions
+	 * at the frame instead. Either way, each fish's predictor is restarted where the fish is put, as its velocity no 
+	 * longer applies.
+	 * @param index The index of the video.
+	 * @param frame The 0-based index of the frame in that video.
+	 * @param globalFrame The index of the frame over the whole queue.
+	 * @param frames The FrameIndex of the video, or null to trust the codec's seek.
+	 * @return True, if the frame was read.
+	 */
+	public boolean seek(int index, int frame, int globalFrame, FrameIndex frames) {
+		if (index > videoIndex) {
+			resumeAt(index);
+		} else if (index < videoIndex) {
+			videos.get(index).linkToPrevious(currentVideo());
+			videoIndex = index;
+		}
+		MotionVideoCapture video = currentVideo();
+		if (!video.seekTo(frame, frames)) {
+			return false;
+		}
+		finished = false; // the frames after this one can be tracked again, even if every video had finished
+		assigner.restoreCounters(globalFrame, assigner.getStaticFrames(), 0);
+		if (replayer != null) {
+			replayer.seek(videoIndex, video.getDetections().getTimestamp());
+			return true;
+		}
+		List<Fish> fishes = getFishes();
+		for (int k = 0; k < fishes.size(); k++) {
+			Fish fish = fishes.get(k);
+			TrackStore track = fish.getTrack();
+			int kept = track.size();
+			while (kept > 0 && track.getFrame(kept - 1) > globalFrame) {
+				kept--;
+			}
+			track.truncate(kept);
+			Point centre = fish.getCenter();
+			if (kept > 0) {
+				centre = new Point(track.getX(kept - 1), track.getY(kept - 1));
+			} else if (startCentres != null && k < startCentres.length) {
+				centre = startCentres[k];
+			}
+			fish.restore(centre, track.getPathLength());
+			fish.getPredictor().reset(centre.x, centre.y);
+		}
+		return true;
+	}
+
+	/**
+	 * Moves on to the next video in the queue, handing over the background history of the previous one. If there are
+	 * no videos left, the engine finishes and notifies its listeners.
+	 */
+	public void loadNextVideo() {
+		if (videoIndex + 1 >= videos.size()) {
+			System.out.println("All videos finished.");
+			finished = true;
+			for (TrackingListener listener: listeners) {
+				listener.trackingFinished(this);
+			}
+		} else {
+			videoIndex++;
+			currentVideo().linkToPrevious(videos.get(videoIndex - 1));
+			if (replayer != null) {
+				replayer.nextVideo();
+			}
+		}
+	}
+}
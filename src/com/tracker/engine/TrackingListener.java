@@ -0,0 +1,20 @@
+package com.tracker.engine;
+
+/**
+ * Callback interface for anything that wants to watch a tracking run, such as the GUI. The engine itself never draws 
+ * or repaints, so listeners are the only place where per-frame presentation work should happen.
+ */
+public interface TrackingListener {
+	
+	/**
+	 * Called on the tracking thread once a frame has been read and every fish has been moved.
+	 * @param engine The engine that tracked the frame.
+	 */
+	public void frameTracked(TrackingEngine engine);
+	
+	/**
+	 * Called on the tracking thread once the last video has run out of frames.
+	 * @param engine The engine that has finished.
+	 */
+	public void trackingFinished(TrackingEngine engine);
+}
@@ -0,0 +1,91 @@
+package com.tracker.engine;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.opencv.videoio.Videoio;
+
+import com.tracker.model.BackgroundModel;
+import com.tracker.model.Detections;
+import com.tracker.model.MotionProfile;
+import com.tracker.model.MotionVideoCapture;
+
+/**
+ * Runs motion detection over a video, or a segment of one, and collects the candidate centres of every frame. Each 
+ * detector opens its own MotionVideoCapture, with its own background history, so that several videos or segments can
+ * be detected at the same time on different threads.
+ */
+public class VideoDetector implements Callable<List<Detections>> {
+	private File file;
+	private double scale;
+	private int startFrame, frameCount, pyramidLevels = 0;
+	private String backgroundModel = BackgroundModel.FRAME_DELAY;
+	private boolean fusedKernel = false;
+	private MotionProfile profile = MotionProfile.DEFAULT;
+
+	/**
+	 * Builds a detector for the whole video.
+	 * @param file The video to be detected.
+	 * @param scale The scale applied to each frame before detection.
+	 */
+	public VideoDetector(File file, double scale) {
+		this(file, scale, 0, -1);
+	}
+
+	/**
+	 * Builds a detector for a segment of the video. The frame at startFrame is used as the first background, so the
+	 * first detections belong to the frame after it.
+	 * @param file The video to be detected.
+	 * @param scale The scale applied to each frame before detection.
+	 * @param startFrame The 0-based index of the first frame of the segment.
+	 * @param frameCount The maximum number of frames to be detected, or -1 to carry on to the end of the video.
+	 */
+	public VideoDetector(File file, double scale, int startFrame, int frameCount) {
+		this.file = file;
+		this.scale = scale;
+		this.startFrame = startFrame;
+		this.frameCount = frameCount;
+	}
+
+	public File getFile() { return file; }
+	public int getStartFrame() { return startFrame; }
+	public int getPyramidLevels() { return pyramidLevels; }
+	public void setPyramidLevels(int levels) { pyramidLevels = levels; }
+	public String getBackgroundModel() { return backgroundModel; }
+	public void setBackgroundModel(String name) { backgroundModel = name; }
+	public boolean isUsingFusedKernel() { return fusedKernel; }
+	public void setFusedKernel(boolean fused) { fusedKernel = fused; }
+	public MotionProfile getMotionProfile() { return profile; }
+	public void setMotionProfile(MotionProfile p) { profile = p; }
+
+	/**
+	 * Reads every frame of the video or segment and detects the motion in it.
+	 * @return The detections of each frame, in order.
+	 */
+	@Override
+	public List<Detections> call() {
+		MotionVideoCapture video = new MotionVideoCapture(file.getAbsolutePath(), scale, startFrame, profile);
+		video.setDrawContours(false);
+		if (pyramidLevels > 0) {
+			video.setPyramidLevels(pyramidLevels);
+		}
+		if (!backgroundModel.equals(BackgroundModel.FRAME_DELAY)) {
+			video.setBackgroundModel(backgroundModel);
+		}
+		if (fusedKernel) {
+			video.setFusedKernel(true);
+		}
+		int expected = frameCount >= 0 ? frameCount : (int) video.get(Videoio.CAP_PROP_FRAME_COUNT) - startFrame;
+		List<Detections> frames = new ArrayList<Detections>(Math.max(expected, 0));
+		try {
+			while (video.isOpened() && frames.size() != frameCount && video.nextFrame()) {
+				frames.add(video.getDetections().copy());
+			}
+		} finally {
+			video.release();
+			video.releaseShared();
+		}
+		return frames;
+	}
+}
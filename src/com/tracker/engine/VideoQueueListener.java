@@ -0,0 +1,27 @@
+package com.tracker.engine;
+import java.io.File;
+
+/**
+ * Callback interface for anything that wants to follow a ParallelVideoTracker through its queue of videos, such as the
+ * batch tracker reporting its progress. The tracker itself prints nothing.
+ */
+public interface VideoQueueListener {
+
+	/**
+	 * Called on the assigning thread once every frame of a video has been assigned. The fish positions are then the
+	 * positions the fish start from in the next video.
+	 * @param tracker The tracker that assigned the video.
+	 * @param file The video that has just been assigned.
+	 */
+	public void videoAssigned(ParallelVideoTracker tracker, File file);
+
+	/**
+	 * Called on the assigning thread when a segment of a video is stitched on some frames from where it was expected
+	 * to start, because seeking didn't land on the frame asked for.
+	 * @param tracker The tracker that stitched the segment.
+	 * @param file The video that the segment belongs to.
+	 * @param segment The index of the segment in the video, from 1, as the first segment is never shifted.
+	 * @param shift The frames between where the segment was found and where it was expected.
+	 */
+	public void segmentShifted(ParallelVideoTracker tracker, File file, int segment, int shift);
+}
@@ -0,0 +1,104 @@
+package com.tracker.model;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * A fixed ring of the most recent greyscale frames, used as the background that new frames are compared against. The
+ * ring allocates its Mats once, and each new frame is copied over the oldest one, so no native memory is allocated or
+ * left for the garbage collector once the ring is full.
+ */
+public class BackgroundHistory {
+	private final Mat[] frames;
+	private int oldest = 0, count = 0;
+
+	/**
+	 * @param frameDelay The number of frames kept in the history. New frames are compared against the frame this many
+	 * frames before them.
+	 */
+	public BackgroundHistory(int frameDelay) {
+		frames = new Mat[frameDelay];
+		for (int i = 0; i < frameDelay; i++) {
+			frames[i] = new Mat();
+		}
+	}
+
+	public boolean isEmpty() { return count == 0; }
+	public int size() { return count; }
+	public int capacity() { return frames.length; }
+
+	/**
+	 * @return The oldest frame in the history, which is the background for the next frame.
+	 */
+	public Mat oldest() {
+		return frames[oldest];
+	}
+
+	/**
+	 * Adds a frame to the history, copying it over the oldest frame once the history is full.
+	 * @param grey The blurred greyscale frame.
+	 */
+	public void push(Mat grey) {
+		grey.copyTo(frames[next()]);
+		advance();
+	}
+	
+	/**
+	 * Adds only some regions of a frame to the history. The rest of the frame that is overwritten keeps whatever it 
+	 * held before, so this should only be used once the history is full, and only for regions that will be compared
+	 * against later.
+	 * @param grey The blurred greyscale frame, which only needs to be up to date inside the regions.
+	 * @param regions The regions to be copied, in frame coordinates.
+	 * @param n The number of regions.
+	 */
+	public void push(Mat grey, Rect[] regions, int n) {
+		Mat frame = frames[next()];
+		for (int i = 0; i < n; i++) {
+			Mat from = grey.submat(regions[i]), to = frame.submat(regions[i]);
+			from.copyTo(to);
+			from.release();
+			to.release();
+		}
+		advance();
+	}
+	
+	private int next() {
+		return (oldest + count) % frames.length;
+	}
+	
+	private void advance() {
+		if (count < frames.length) {
+			count++;
+		} else {
+			oldest = (oldest + 1) % frames.length;
+		}
+	}
+
+	/**
+	 * @return Copies of the frames in the history, from the oldest to the newest. The caller must release them.
+	 */
+	public Mat[] snapshot() {
+		Mat[] copies = new Mat[count];
+		for (int i = 0; i < count; i++) {
+			copies[i] = frames[(oldest + i) % frames.length].clone();
+		}
+		return copies;
+	}
+
+	/**
+	 * Forgets every frame in the history, keeping the Mats for reuse.
+	 */
+	public void clear() {
+		oldest = 0;
+		count = 0;
+	}
+
+	/**
+	 * Frees the native memory of every frame. The history must not be used afterwards.
+	 */
+	public void release() {
+		for (Mat frame: frames) {
+			frame.release();
+		}
+		count = 0;
+	}
+}
@@ -0,0 +1,88 @@
+package com.tracker.model;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * A model of what a tank looks like without moving fish, which new frames are compared against to find motion. 
+ * <p> Each frame is first compared against the model with subtract(), and then learnt by the model with learn(). Both
+ * take the blurred greyscale frame. Models that support regions can also compare and learn only parts of a frame, for
+ * when motion is only captured around the fish.
+ */
+public interface BackgroundModel {
+	public final static String FRAME_DELAY = "delay";
+	public final static String RUNNING_AVERAGE = "average";
+	public final static String MOG2 = "mog2";
+	
+	/**
+	 * Compares a frame against the background.
+	 * @param grey The blurred greyscale frame.
+	 * @param difference The destination for how much each pixel differs from the background, which is thresholded to 
+	 * find the motion.
+	 */
+	public void subtract(Mat grey, Mat difference);
+	
+	/**
+	 * Compares one region of a frame against the background. This only reads the background, so different regions can
+	 * be compared on different threads at the same time.
+	 * @param grey The region of the blurred greyscale frame, either a submat or a Mat of its own.
+	 * @param difference The destination for the difference, the same size as the region.
+	 * @param region Where the region is, in frame coordinates.
+	 * @throws UnsupportedOperationException If the model can only compare whole frames.
+	 */
+	public void subtract(Mat grey, Mat difference, Rect region);
+	
+	/**
+	 * Adds a frame to the background.
+	 * @param grey The blurred greyscale frame.
+	 */
+	public void learn(Mat grey);
+	
+	/**
+	 * Adds only some regions of a frame to the background. The rest of the background is left as it was, so it goes 
+	 * stale until the whole frame is learnt again.
+	 * @param grey The blurred greyscale frame, which only needs to be up to date inside the regions.
+	 * @param regions The regions to be learnt, in frame coordinates.
+	 * @param n The number of regions.
+	 * @throws UnsupportedOperationException If the model can only learn whole frames.
+	 */
+	public void learn(Mat grey, Rect[] regions, int n);
+	
+	/**
+	 * @return True, if the model can compare and learn regions of a frame.
+	 */
+	public boolean supportsRegions();
+	
+	/**
+	 * @return True, if the model has learnt enough to compare frames against.
+	 */
+	public boolean isReady();
+	
+	/**
+	 * @return The number of whole frames that have to be learnt in a row before nothing stale is left in the model.
+	 */
+	public int getMemory();
+	
+	/**
+	 * Copies everything the model has learnt, such as for a checkpoint that tracking can be resumed from later.
+	 * @return Copies of the model's Mats, in the order that restore() takes them. The caller must release them.
+	 * @throws UnsupportedOperationException If what the model has learnt can't be copied out.
+	 */
+	public Mat[] snapshot();
+	
+	/**
+	 * Replaces everything the model has learnt with a copy taken by snapshot().
+	 * @param state The Mats from snapshot(), which are copied, so the caller still owns them.
+	 * @throws UnsupportedOperationException If what the model has learnt can't be copied in.
+	 */
+	public void restore(Mat[] state);
+	
+	/**
+	 * Forgets everything learnt so far.
+	 */
+	public void clear();
+	
+	/**
+	 * Frees the native memory of the model. The model must not be used afterwards.
+	 */
+	public void release();
+}
@@ -0,0 +1,129 @@
+package com.tracker.model;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+/**
+ * The candidate fish centres found by motion detection in a single frame, together with their areas and the video
+ * timestamp of that frame. Centres are kept in primitive arrays, which are reused from frame to frame when tracking, and
+ * are compact enough that a whole video's worth of detections can be held in memory and assigned to the fish later.
+ * <p> Once a fish has moved onto a candidate, the candidate is claimed so that the other fish don't take it as well.
+ * <p> A frame in which nothing changed may be skipped before motion is captured in it. Its detections are then empty
+ * and marked as static, so that the fish are left where they are instead of being searched for.
+ */
+public class Detections {
+	private double timestamp;
+	private int count;
+	private double[] x, y, area;
+	private boolean[] claimed;
+	private boolean isStatic = false;
+
+	/**
+	 * Creates an empty set of detections.
+	 * @param timestamp Time from the video, obtained with mov.get(Videoio.CAP_PROP_POS_MSEC).
+	 * @param capacity The number of candidates expected.
+	 */
+	public Detections(double timestamp, int capacity) {
+		this.timestamp = timestamp;
+		count = 0;
+		x = new double[Math.max(capacity, 1)];
+		y = new double[x.length];
+		area = new double[x.length];
+		claimed = new boolean[x.length];
+	}
+
+	/**
+	 * Builds the detections of a frame from the contours of motion found in it.
+	 * @param contours A list of MatOfPoints defining the contours of movement in the frame.
+	 * @param timestamp Time from the video, obtained with mov.get(Videoio.CAP_PROP_POS_MSEC).
+	 * @return The centres of each contour.
+	 */
+	public static Detections fromContours(List<MatOfPoint> contours, double timestamp) {
+		Detections detections = new Detections(timestamp, contours.size());
+		detections.addContours(contours);
+		return detections;
+	}
+
+	/* Getters */
+	public double getTimestamp() { return timestamp; }
+	public int size() { return count; }
+	public double getX(int i) { return x[i]; }
+	public double getY(int i) { return y[i]; }
+	public double getArea(int i) { return area[i]; }
+	public boolean isClaimed(int i) { return claimed[i]; }
+	public boolean isStatic() { return isStatic; }
+
+	/**
+	 * Empties the detections so that they can be reused for another frame.
+	 * @param timestamp Time from the video of the new frame.
+	 */
+	public void clear(double timestamp) {
+		this.timestamp = timestamp;
+		count = 0;
+		isStatic = false;
+	}
+
+	/**
+	 * Marks the frame as one in which nothing changed, so no motion was captured in it.
+	 */
+	public void markStatic() {
+		isStatic = true;
+	}
+
+	/**
+	 * Adds the centre of each contour as a candidate.
+	 * @param contours A list of MatOfPoints defining the contours of movement in the frame.
+	 */
+	public void addContours(List<MatOfPoint> contours) {
+		for (MatOfPoint contour: contours) {
+			Moments M = Imgproc.moments(contour);
+			add(M.get_m10()/M.get_m00(), M.get_m01()/M.get_m00(), M.get_m00());
+		}
+	}
+
+	/**
+	 * Adds a candidate centre, growing the arrays if needed.
+	 * @param cx The x coordinate of the centre, in pixels.
+	 * @param cy The y coordinate of the centre, in pixels.
+	 * @param pixels The area of the blob, in pixels.
+	 */
+	public void add(double cx, double cy, double pixels) {
+		if (count == x.length) {
+			x = Arrays.copyOf(x, 2*count);
+			y = Arrays.copyOf(y, 2*count);
+			area = Arrays.copyOf(area, 2*count);
+			claimed = Arrays.copyOf(claimed, 2*count);
+		}
+		x[count] = cx;
+		y[count] = cy;
+		area[count] = pixels;
+		claimed[count] = false;
+		count++;
+	}
+
+	/**
+	 * Makes a copy of the detections, trimmed to size. Used to keep the detections of a frame once the original is 
+	 * reused for the next frame.
+	 * @return A copy of the detections, with nothing claimed.
+	 */
+	public Detections copy() {
+		Detections copy = new Detections(timestamp, count);
+		System.arraycopy(x, 0, copy.x, 0, count);
+		System.arraycopy(y, 0, copy.y, 0, count);
+		System.arraycopy(area, 0, copy.area, 0, count);
+		copy.count = count;
+		copy.isStatic = isStatic;
+		return copy;
+	}
+
+	/**
+	 * Marks a candidate as taken by a fish.
+	 * @param i The index of the candidate.
+	 */
+	public void claim(int i) {
+		claimed[i] = true;
+	}
+}
@@ -1,32 +1,25 @@
 package com.tracker.model;
 import java.awt.Color;
 import java.awt.Graphics;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
 
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.imgproc.Moments;
 
 public class Fish {
 	public final static String[] NAMES = {"Female", "Male"};
 	public final static Color[] COLOURS = {Color.PINK, Color.BLUE};
-	public final static int NUM_FISH = 2;
+	public final static int NUM_FISH = 2; // default number of fish in a tank
 	public final static int FEMALE = 0;
 	public final static int MALE = 1;
-	public final int MAX_SPEED = 20; //pixels per frame
+	public final static int MAX_SPEED = 20; //pixels per frame
 	private static double pixelToMM = 5.0/24.0;
 	private String name;
 	private int index;
 	private Point center;
 	private Color colour;
 	private double distanceTravelled;
-	public List<Data> data;
+	private MotionPredictor predictor;
+	private TrackStore track;
 	
-	// TODO log fish movement in an array
 	// TODO save/load functionality of fish positions
 	
 	/* Getters and Setters */
@@ -34,6 +27,8 @@ public class Fish {
 	public Point getCenter() { return center; }
 	public int getIndex() { return index; }
 	public double getDistanceTravelled() { return distanceTravelled; }
+	public MotionPredictor getPredictor() { return predictor; }
+	public TrackStore getTrack() { return track; }
 	public static double getPixelToMM() { return pixelToMM; }
 	public static void setPixelToMM(double r) { pixelToMM = r; }
 	
@@ -44,66 +39,62 @@ public class Fish {
 	 * @param index A 0-based index of the fish.
 	 */
 	public Fish(Point pos, int index) {
-		center = pos;
-		this.index = index;
-		name = NAMES[index];
-		colour = COLOURS[index];
-		distanceTravelled = 0;
-		data = new ArrayList<Data>();
+		this(pos, index, new TrackStore());
 	}
 	
 	/**
-	 * Moves a fish's centre to the best candidate centre from a list of contours.
-	 * <p> The list of contours comes from the differences between frames in the video. Since this signifies movement, 
-	 * a fish is either inside one of these contours, or is staying still. 
-	 * <p> This function finds the closest candidate centre. If that is still too far for the fish to move to in a 
-	 * single frame, then the centre stays still.
-	 * 
-	 * @param contours A list of MatOfPoints defining the contours of movement in the current frame.
-	 * @return The best candidate for the fish's new position.
+	 * Fish constructor for a fish with a track that was recorded earlier, such as one loaded from a csv file.
+	 * @param pos An opencv point defining the initial position of the fish.
+	 * @param index A 0-based index of the fish.
+	 * @param track The fish's track, which the fish keeps rather than copies.
 	 */
-	public Point moveToBestCenter(List<MatOfPoint> contours) {
-		// check that there is a contour to move to, otherwise stay still
-		if (contours.isEmpty()) {
-			return center;
-		}
-		
-		// cycle through contours to find closest
-		Point bestCenter = getCenter(contours.get(0));
-		double shortestDistanceSquared = distSquared(center, bestCenter);
-		int bestIndex = 0;
-		for (int i = 1; i < contours.size(); i++) {
-			Point contourCenter = getCenter(contours.get(i));
-			double distanceSquared = distSquared(center, contourCenter);
-			if (distanceSquared < shortestDistanceSquared) {
-				bestCenter = contourCenter;
-				shortestDistanceSquared = distanceSquared;
-				bestIndex = i;
-			}
-		}		
-		// check that bestCenter is feasible
-		if (isNearPoint(bestCenter)) {
-			updateCenter(bestCenter);
-			contours.remove(bestIndex); // so that the other fish don't take the same contour
-		}
-		return center;
+	public Fish(Point pos, int index, TrackStore track) {
+		center = pos;
+		this.index = index;
+		name = nameOf(index);
+		colour = colourOf(index);
+		distanceTravelled = 0;
+		predictor = new MotionPredictor(pos, MAX_SPEED);
+		this.track = track;
 	}
 	
 	/**
-	 * Move the centre position to the location specified by pt and increment the distance travelled.
+	 * Move the centre position to the location specified by pt and increment the distance travelled. The fish's motion
+	 * predictor is corrected towards the new position.
 	 * @param pt The new centre position.
 	 */
 	public void updateCenter(Point pt) {
 		distanceTravelled += Math.sqrt(Fish.distSquared(center, pt));
 		center = pt;
+		predictor.correct(pt.x, pt.y);
+	}
+	
+	/**
+	 * Keeps the fish where it is for a frame in which no motion was found for it, so that its predicted velocity decays.
+	 */
+	public void stayStill() {
+		predictor.miss(center.x, center.y);
 	}
 	
 	/**
-	 * Just move the centre position to the location specified by pt and don't increase the distance travelled.
+	 * Just move the centre position to the location specified by pt and don't increase the distance travelled. This is
+	 * a correction rather than a movement of the fish, so the motion predictor starts again from the new position.
 	 * @param pt The new centre position.
 	 */
 	public void moveCenter(Point pt) {
 		center = pt;
+		predictor.reset(pt.x, pt.y);
+	}
+	
+	/**
+	 * Puts the fish back where it was when a checkpoint was taken. Unlike updateCenter(), the predictor is left alone,
+	 * as it is restored separately.
+	 * @param pt The centre position.
+	 * @param distance The distance travelled so far, in pixels.
+	 */
+	public void restore(Point pt, double distance) {
+		center = pt;
+		distanceTravelled = distance;
 	}
 	
 	/**
@@ -126,52 +117,43 @@ public class Fish {
 		return distSquared(pt, center) < MAX_SPEED*MAX_SPEED;
 	}
 	
-
-	//TODO comment
-	public void addData(double timestamp) {
-		data.add(new Data(this, timestamp));
+	/**
+	 * Records the fish's current position in its track. A fish that no motion was assigned to in the frame is flagged
+	 * as TrackStore.MISSED.
+	 * @param frame The index of the frame.
+	 * @param timestamp Time from the video, obtained with mov.get(Videoio.CAP_PROP_POS_MSEC).
+	 * @param flags TrackStore.STATIC if the frame was skipped as static, or 0.
+	 */
+	public void addData(long frame, double timestamp, int flags) {
+		if (predictor.getMissedFrames() > 0) {
+			flags |= TrackStore.MISSED;
+		}
+		track.append(frame, timestamp, (float) center.x, (float) center.y, flags);
 	}
 	
 	/**
-	 * Inner class used to describe the fish's data relevant for output to csv. This includes the index and position of
-	 * the fish, and the video timestamp (in ms) associated with that data point. 
+	 * Gets the name of the fish with a given index. The first fish use the names in NAMES, and any fish after that are
+	 * simply numbered.
+	 * @param index A 0-based index of the fish.
+	 * @return The name of the fish.
 	 */
-	public class Data {
-		private int fishID;
-		private String timestamp;
-		private Point location;
-		
-		/**
-		 * Constructor of the datapoint.
-		 * @param fish The fish object.
-		 * @param timeMillis Time from the video, obtained with mov.get(Videoio.CAP_PROP_POS_MSEC).
-		 */
-		public Data(Fish fish, double timeMillis) {
-			fishID = fish.getIndex();
-			timestamp = new SimpleDateFormat("mm:ss:SSS").format(new Date((long) timeMillis));
-			location = fish.getCenter();
-		}
-		
-		/**
-		 * Converts a datapoint into a format that can be parsed by CSV. Used to save the data obtained by tracking.
-		 * @return CSV string equivalent of the datapoint.
-		 */
-		public String toCSV() {
-			double x = toMM(location.x);
-			double y = toMM(location.y);
-			// TODO check why timestamp isn't always working?
-			return String.format("%d,%s,%.2f,%.2f", fishID, timestamp.toString(), x, y);
-		}
+	public static String nameOf(int index) {
+		return index < NAMES.length ? NAMES[index] : "Fish " + (index + 1);
 	}
 	
 	/**
-	 * Helper method to obtain the centre of a contour by calculating its 2D centre of mass.
-	 * @param contour An opencv matrix of points dictating the boundary of a shape.
-	 * @return An opencv point of the contour's centre.
+	 * Gets the colour of the fish with a given index. The first fish use the colours in COLOURS, and any fish after 
+	 * that have their hues spread around the colour wheel by the golden ratio, so that neighbouring indices are easy to
+	 * tell apart.
+	 * @param index A 0-based index of the fish.
+	 * @return The colour of the fish.
 	 */
-	public static Point getCenter(MatOfPoint contour) {
-		Moments M = Imgproc.moments(contour);
-		return new Point(M.get_m10()/M.get_m00(), M.get_m01()/M.get_m00());
+	public static Color colourOf(int index) {
+		if (index < COLOURS.length) {
+			return COLOURS[index];
+		}
+		float hue = (float) ((index - COLOURS.length) * 0.618033988749895 % 1.0);
+		return Color.getHSBColor(hue, 0.9f, 0.9f);
 	}
 	
 	/**
@@ -0,0 +1,154 @@
+package com.tracker.model;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/**
+ * Moves each fish on from one frame to the next with pyramidal Lucas-Kanade optical flow, instead of capturing the
+ * motion in the whole frame. A few strong corners are picked in a small square around each fish's centre in the
+ * previous frame, and followed into the current frame inside a window as wide as the fish's gate. The fish's new
+ * centre is its old one moved by the median displacement of the corners that were followed successfully.
+ * <p> Only the greyscale frame and the windows around the fish are ever touched, so this is much cheaper than blurring
+ * and differencing the whole frame. It is also less certain: if too few corners can be followed for any fish, the
+ * flow is not trusted and the caller should find the fish with a full detection instead.
+ */
+public class FlowPropagator {
+	private final static int FEATURE_RADIUS = 10; // half the width of the square that corners are picked in
+	private final static int MAX_POINTS = 20, MIN_POINTS = 4; // fewer followed corners than MIN_POINTS loses confidence
+	private final static double QUALITY = 0.01, MIN_DISTANCE = 3;
+	private final static float MAX_ERROR = 20; // largest mean difference in grey level of a followed corner's patch
+	private final static Size WINDOW = new Size(15, 15);
+	private final static int LEVELS = 2;
+	private Mat previous = new Mat(), current = new Mat();
+	private boolean hasPrevious = false;
+
+	/* Scratch buffers, reused for every fish */
+	private Rect featureRect = new Rect(), flowRect = new Rect();
+	private MatOfPoint corners = new MatOfPoint();
+	private MatOfPoint2f from = new MatOfPoint2f(), to = new MatOfPoint2f();
+	private MatOfByte status = new MatOfByte();
+	private MatOfFloat error = new MatOfFloat();
+	private int[] cornerBuffer = new int[2*MAX_POINTS];
+	private float[] fromBuffer = new float[2*MAX_POINTS], toBuffer = new float[2*MAX_POINTS];
+	private float[] errorBuffer = new float[MAX_POINTS];
+	private byte[] statusBuffer = new byte[MAX_POINTS];
+	private double[] dx = new double[MAX_POINTS], dy = new double[MAX_POINTS];
+
+	/**
+	 * Keeps a frame as the one that the next frame's flow starts from, such as a frame in which the fish were found by
+	 * full detection.
+	 * @param frame The scaled colour frame.
+	 */
+	public void remember(Mat frame) {
+		Imgproc.cvtColor(frame, previous, Imgproc.COLOR_BGR2GRAY);
+		hasPrevious = true;
+	}
+
+	/**
+	 * Follows each fish from the previous frame into this one, and adds its new centre to the detections. The frame
+	 * then becomes the previous frame, whether or not the flow could be trusted.
+	 * @param frame The scaled colour frame.
+	 * @param fishes The fish being tracked, at their centres in the previous frame.
+	 * @param detections The destination for the new centres, which should already be cleared.
+	 * @return True, if every fish was followed confidently. If not, the detections are incomplete.
+	 */
+	public boolean propagate(Mat frame, List<Fish> fishes, Detections detections) {
+		Imgproc.cvtColor(frame, current, Imgproc.COLOR_BGR2GRAY);
+		boolean confident = hasPrevious;
+		for (int i = 0; confident && i < fishes.size(); i++) {
+			confident = follow(fishes.get(i), detections);
+		}
+		Mat swap = previous;
+		previous = current;
+		current = swap;
+		hasPrevious = true;
+		return confident;
+	}
+
+	/**
+	 * Follows the corners around a single fish.
+	 * @return True, if enough corners were followed.
+	 */
+	private boolean follow(Fish fish, Detections detections) {
+		Point centre = fish.getCenter();
+		int reach = FEATURE_RADIUS + (int) Math.ceil(fish.getPredictor().getGate());
+		if (!clip(featureRect, centre, FEATURE_RADIUS) || !clip(flowRect, centre, reach)) {
+			return false;
+		}
+		Mat features = previous.submat(featureRect);
+		Imgproc.goodFeaturesToTrack(features, corners, MAX_POINTS, QUALITY, MIN_DISTANCE);
+		features.release();
+		int n = corners.rows();
+		if (n < MIN_POINTS) {
+			return false;
+		}
+
+		// the corners were found in the feature square, but are followed in the flow window
+		corners.get(0, 0, cornerBuffer);
+		for (int j = 0; j < n; j++) {
+			fromBuffer[2*j] = cornerBuffer[2*j] + featureRect.x - flowRect.x;
+			fromBuffer[2*j + 1] = cornerBuffer[2*j + 1] + featureRect.y - flowRect.y;
+		}
+		from.create(n, 1, CvType.CV_32FC2);
+		from.put(0, 0, fromBuffer);
+		Mat before = previous.submat(flowRect), after = current.submat(flowRect);
+		Video.calcOpticalFlowPyrLK(before, after, from, to, status, error, WINDOW, LEVELS);
+		before.release();
+		after.release();
+		to.get(0, 0, toBuffer);
+		status.get(0, 0, statusBuffer);
+		error.get(0, 0, errorBuffer);
+
+		int followed = 0;
+		for (int j = 0; j < n; j++) {
+			if (statusBuffer[j] != 0 && errorBuffer[j] < MAX_ERROR) {
+				dx[followed] = toBuffer[2*j] - fromBuffer[2*j];
+				dy[followed] = toBuffer[2*j + 1] - fromBuffer[2*j + 1];
+				followed++;
+			}
+		}
+		if (followed < MIN_POINTS) {
+			return false;
+		}
+		detections.add(centre.x + median(dx, followed), centre.y + median(dy, followed), featureRect.area());
+		return true;
+	}
+
+	private static double median(double[] values, int n) {
+		Arrays.sort(values, 0, n);
+		return n % 2 == 1 ? values[n/2] : (values[n/2 - 1] + values[n/2])/2;
+	}
+
+	/**
+	 * Sets a rectangle to the part of a square around a point that lies inside the frame.
+	 * @return True, if any of the square is inside the frame.
+	 */
+	private boolean clip(Rect rect, Point centre, int radius) {
+		int cx = (int) Math.round(centre.x), cy = (int) Math.round(centre.y);
+		rect.x = Math.max(cx - radius, 0);
+		rect.y = Math.max(cy - radius, 0);
+		rect.width = Math.min(cx + radius + 1, previous.cols()) - rect.x;
+		rect.height = Math.min(cy + radius + 1, previous.rows()) - rect.y;
+		return rect.width > 0 && rect.height > 0;
+	}
+
+	/**
+	 * Frees the native memory of the greyscale frames and the corner buffers.
+	 */
+	public void release() {
+		for (Mat mat: new Mat[] {previous, current, corners, from, to, status, error}) {
+			mat.release();
+		}
+	}
+}
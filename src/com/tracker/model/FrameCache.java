@@ -0,0 +1,112 @@
+package com.tracker.model;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+/**
+ * A memory-bounded cache of recently decoded, scaled frames, so that stepping backwards or scrubbing over frames that
+ * were just played needs no decoding at all. Frames are kept by their index, and the least recently used frame is
+ * dropped once the frames take up more than the limit.
+ * <p> The cache keeps its own copies. The Mat of a dropped frame is reused for the next frame put in, so once the
+ * cache is full it allocates no more native memory.
+ */
+public class FrameCache {
+	private final long maxBytes;
+	private final LinkedHashMap<Long, Mat> frames = new LinkedHashMap<Long, Mat>(16, 0.75f, true);
+	private long bytes = 0;
+	private Mat spare = null;
+
+	/**
+	 * @param maxBytes The most native memory that the cached frames may take up.
+	 */
+	public FrameCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/* Getters */
+	public synchronized int size() { return frames.size(); }
+	public synchronized long getBytes() { return bytes; }
+	public synchronized boolean contains(long index) { return frames.containsKey(index); }
+
+	/**
+	 * Copies a frame into the cache, replacing any frame already kept under the same index.
+	 * @param index The index of the frame.
+	 * @param frame The frame, which the cache doesn't keep a reference to.
+	 */
+	public synchronized void put(long index, Mat frame) {
+		Mat copy = frames.remove(index);
+		if (copy != null) {
+			bytes -= sizeOf(copy);
+		} else if (spare != null) {
+			copy = spare;
+			spare = null;
+		} else {
+			copy = new Mat();
+		}
+		frame.copyTo(copy);
+		bytes += sizeOf(copy);
+		frames.put(index, copy);
+
+		Iterator<Map.Entry<Long, Mat>> eldest = frames.entrySet().iterator();
+		while (bytes > maxBytes && frames.size() > 1) {
+			Mat dropped = eldest.next().getValue();
+			eldest.remove();
+			bytes -= sizeOf(dropped);
+			if (spare == null) {
+				spare = dropped;
+			} else {
+				dropped.release();
+			}
+		}
+	}
+
+	/**
+	 * Copies a cached frame out, and marks it as recently used.
+	 * @param index The index of the frame.
+	 * @param into The destination.
+	 * @return True, if the frame was in the cache.
+	 */
+	public synchronized boolean get(long index, Mat into) {
+		Mat frame = frames.get(index);
+		if (frame == null) {
+			return false;
+		}
+		frame.copyTo(into);
+		return true;
+	}
+
+	/**
+	 * @param index The index of a frame.
+	 * @return The index of the cached frame closest to it, or -1 if the cache is empty.
+	 */
+	public synchronized long nearest(long index) {
+		long best = -1;
+		for (long cached: frames.keySet()) {
+			if (best < 0 || Math.abs(cached - index) < Math.abs(best - index)) {
+				best = cached;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Drops every frame and frees their native memory.
+	 */
+	public synchronized void clear() {
+		for (Mat frame: frames.values()) {
+			frame.release();
+		}
+		frames.clear();
+		bytes = 0;
+		if (spare != null) {
+			spare.release();
+			spare = null;
+		}
+	}
+
+	private static long sizeOf(Mat frame) {
+		return frame.total()*frame.elemSize();
+	}
+}
@@ -0,0 +1,77 @@
+package com.tracker.model;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * The simplest background: each frame is compared against the frame a fixed number of frames before it, held in a
+ * BackgroundHistory. This picks up anything that has moved recently, and nothing that has stayed still for longer than
+ * the delay.
+ */
+public class FrameDelayBackground implements BackgroundModel {
+	private BackgroundHistory history;
+	
+	/**
+	 * @param frameDelay The number of frames between a frame and the background it is compared against.
+	 */
+	public FrameDelayBackground(int frameDelay) {
+		history = new BackgroundHistory(frameDelay);
+	}
+	
+	@Override
+	public void subtract(Mat grey, Mat difference) {
+		Core.absdiff(history.oldest(), grey, difference);
+	}
+	
+	@Override
+	public void subtract(Mat grey, Mat difference, Rect region) {
+		Mat old = history.oldest().submat(region);
+		Core.absdiff(old, grey, difference);
+		old.release();
+	}
+	
+	@Override
+	public void learn(Mat grey) {
+		history.push(grey);
+	}
+	
+	/**
+	 * Only use this once the history is full, so that every frame in it covers the whole frame.
+	 */
+	@Override
+	public void learn(Mat grey, Rect[] regions, int n) {
+		history.push(grey, regions, n);
+	}
+	
+	@Override
+	public boolean supportsRegions() { return true; }
+	
+	@Override
+	public boolean isReady() { return !history.isEmpty(); }
+	
+	@Override
+	public int getMemory() { return history.capacity(); }
+	
+	@Override
+	public Mat[] snapshot() {
+		return history.snapshot();
+	}
+	
+	@Override
+	public void restore(Mat[] state) {
+		history.clear();
+		for (Mat grey: state) {
+			history.push(grey);
+		}
+	}
+	
+	@Override
+	public void clear() {
+		history.clear();
+	}
+	
+	@Override
+	public void release() {
+		history.release();
+	}
+}
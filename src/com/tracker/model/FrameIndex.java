@@ -0,0 +1,112 @@
+package com.tracker.model;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * The timestamp of every frame of a video, so that a frame number can be turned into a time and back, and so that a
+ * seek can be checked against where it was meant to land. The index is built on a background thread by grabbing
+ * every frame of the video with a capture of its own, which is much cheaper than reading them, and can be used while
+ * it is still being built for the frames it has already reached.
+ * <p> OpenCV doesn't say which frames are keyframes, so the index keeps the frames that a seek has been seen to land
+ * on exactly instead. A seek that lands elsewhere starts again from the nearest of these at or before the frame it was
+ * after, and grabs forward from there. Frame 0 is always one of them.
+ */
+public class FrameIndex {
+	private final String filename;
+	private volatile double[] timestamps = new double[1024];
+	private volatile int count = 0;
+	private volatile boolean complete = false;
+	private final TreeSet<Integer> seekPoints = new TreeSet<Integer>();
+
+	/**
+	 * @param filename The path to the video.
+	 */
+	public FrameIndex(String filename) {
+		this.filename = filename;
+		seekPoints.add(0);
+	}
+
+	/* Getters */
+	public int size() { return count; } // the number of frames indexed so far
+	public boolean isComplete() { return complete; }
+	public boolean contains(int frame) { return frame >= 0 && frame < count; }
+	public double getTimestamp(int frame) { return timestamps[frame]; }
+
+	/**
+	 * Grabs every frame of the video and records its timestamp. This takes about as long as decoding the video, so it
+	 * should be run on a background thread, and stops early if the thread is interrupted.
+	 */
+	public void build() {
+		VideoCapture video = new VideoCapture(filename);
+		try {
+			while (!Thread.currentThread().isInterrupted() && video.grab()) {
+				add(video.get(Videoio.CAP_PROP_POS_MSEC));
+			}
+			complete = !Thread.currentThread().isInterrupted();
+		} finally {
+			video.release();
+		}
+	}
+
+	/**
+	 * Adds the timestamp of the next frame. Readers only see the frame once count has been raised, and a grown array
+	 * always holds every frame already counted, so no locking is needed.
+	 */
+	private void add(double timestamp) {
+		double[] array = timestamps;
+		if (count == array.length) {
+			array = Arrays.copyOf(array, 2*count);
+			array[count] = timestamp;
+			timestamps = array;
+		} else {
+			array[count] = timestamp;
+		}
+		count++;
+	}
+
+	/**
+	 * Finds the frame closest to a time in the video.
+	 * @param timestamp The time, in ms.
+	 * @return The frame, or -1 if nothing has been indexed yet.
+	 */
+	public int findFrame(double timestamp) {
+		int n = count;
+		double[] array = timestamps;
+		if (n == 0) {
+			return -1;
+		}
+		int lo = 0, hi = n - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (array[mid] < timestamp) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		if (lo > 0 && timestamp - array[lo - 1] < array[lo] - timestamp) {
+			lo--;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param frame A frame of the video.
+	 * @return The nearest frame at or before it that a seek is known to land on exactly.
+	 */
+	public synchronized int getSeekPoint(int frame) {
+		Integer point = seekPoints.floor(frame);
+		return point != null ? point : 0;
+	}
+
+	/**
+	 * Records that a seek landed on a frame exactly.
+	 * @param frame The frame.
+	 */
+	public synchronized void addSeekPoint(int frame) {
+		seekPoints.add(frame);
+	}
+}
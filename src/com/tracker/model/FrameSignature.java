@@ -0,0 +1,97 @@
+package com.tracker.model;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A tiny downsampled copy of a frame, used to tell cheaply whether anything in the frame has changed. The frame is
+ * shrunk to SIZE by averaging, so each cell of the signature is the mean colour of a block of pixels, and sensor and
+ * compression noise mostly averages away while a fish moving through a block still shifts its mean by several grey
+ * levels.
+ * <p> Each frame is compared against the signature of the last frame that changed, rather than the frame just before
+ * it, so a fish creeping too slowly to show from one frame to the next is still noticed once it has moved far enough.
+ */
+public class FrameSignature {
+	public final static int DEFAULT_NOISE_FLOOR = 4;
+	private final static Size SIZE = new Size(64, 36); // cells of about 24 pixels across on a 0.8x scaled HD frame
+	private final int noiseFloor;
+	private Mat small = new Mat();
+	private byte[] current = new byte[0], reference = new byte[0];
+	private boolean hasReference = false;
+
+	/**
+	 * @param noiseFloor The largest change in any cell, in grey levels, that still counts as noise.
+	 */
+	public FrameSignature(int noiseFloor) {
+		this.noiseFloor = noiseFloor;
+	}
+
+	public int getNoiseFloor() { return noiseFloor; }
+
+	/**
+	 * Works out the signature of a frame and compares it against the last frame that changed. If the frame has
+	 * changed, it becomes the one that later frames are compared against.
+	 * @param frame The scaled colour frame.
+	 * @return True, if no cell of the frame has changed by more than the noise floor.
+	 */
+	public boolean isStatic(Mat frame) {
+		Imgproc.resize(frame, small, SIZE, 0, 0, Imgproc.INTER_AREA);
+		int length = (int) (small.total()*small.channels());
+		if (current.length != length) {
+			current = new byte[length];
+			reference = new byte[length];
+			hasReference = false;
+		}
+		small.get(0, 0, current);
+		if (hasReference) {
+			int change = 0;
+			for (int i = 0; i < length; i++) {
+				change = Math.max(change, Math.abs((current[i] & 0xff) - (reference[i] & 0xff)));
+			}
+			if (change <= noiseFloor) {
+				return true;
+			}
+		}
+		byte[] swap = reference;
+		reference = current;
+		current = swap;
+		hasReference = true;
+		return false;
+	}
+
+	/**
+	 * @return A copy of the signature of the last frame that changed, or null if there isn't one yet.
+	 */
+	public byte[] getReference() {
+		return hasReference ? reference.clone() : null;
+	}
+	
+	/**
+	 * Makes a signature from getReference() the one that later frames are compared against, such as when resuming from
+	 * a checkpoint.
+	 * @param signature The signature, or null to forget the last frame that changed.
+	 */
+	public void setReference(byte[] signature) {
+		if (signature == null) {
+			clear();
+			return;
+		}
+		reference = signature.clone();
+		current = new byte[signature.length];
+		hasReference = true;
+	}
+	
+	/**
+	 * Forgets the last frame that changed, so that the next frame always counts as changed.
+	 */
+	public void clear() {
+		hasReference = false;
+	}
+
+	/**
+	 * Frees the native memory of the downsampled frame.
+	 */
+	public void release() {
+		small.release();
+	}
+}
@@ -0,0 +1,82 @@
+package com.tracker.model;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.video.BackgroundSubtractorMOG2;
+import org.opencv.video.Video;
+
+/**
+ * OpenCV's MOG2 background subtractor, which models every pixel as a mixture of Gaussians. It copes best with gradual 
+ * lighting changes and rippling water, but costs the most CPU of the background models. 
+ * <p> MOG2 compares and learns a frame in the same step, so subtract() learns the frame as well, and the learn() that
+ * follows it does nothing. Regions are not supported, since the model has to see every pixel of every frame.
+ */
+public class Mog2Background implements BackgroundModel {
+	private final static int HISTORY = 500;
+	private final static double VARIANCE_THRESHOLD = 16;
+	private BackgroundSubtractorMOG2 subtractor;
+	private Mat scratch = new Mat();
+	private boolean learnt = false, ready = false;
+	
+	public Mog2Background() {
+		subtractor = Video.createBackgroundSubtractorMOG2(HISTORY, VARIANCE_THRESHOLD, false);
+	}
+	
+	/**
+	 * Writes the foreground mask into difference, which is 255 wherever MOG2 sees motion and 0 everywhere else.
+	 */
+	@Override
+	public void subtract(Mat grey, Mat difference) {
+		subtractor.apply(grey, difference);
+		learnt = true;
+	}
+	
+	@Override
+	public void subtract(Mat grey, Mat difference, Rect region) {
+		throw new UnsupportedOperationException("MOG2 can only subtract whole frames");
+	}
+	
+	@Override
+	public void learn(Mat grey) {
+		if (!learnt) {
+			subtractor.apply(grey, scratch);
+		}
+		learnt = false;
+		ready = true;
+	}
+	
+	@Override
+	public void learn(Mat grey, Rect[] regions, int n) {
+		throw new UnsupportedOperationException("MOG2 can only learn whole frames");
+	}
+	
+	@Override
+	public boolean supportsRegions() { return false; }
+	
+	@Override
+	public boolean isReady() { return ready; }
+	
+	@Override
+	public int getMemory() { return HISTORY; }
+	
+	@Override
+	public Mat[] snapshot() {
+		throw new UnsupportedOperationException("MOG2's model can't be copied out");
+	}
+	
+	@Override
+	public void restore(Mat[] state) {
+		throw new UnsupportedOperationException("MOG2's model can't be copied in");
+	}
+	
+	@Override
+	public void clear() {
+		subtractor.clear();
+		learnt = false;
+		ready = false;
+	}
+	
+	@Override
+	public void release() {
+		scratch.release();
+	}
+}
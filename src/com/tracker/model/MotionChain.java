@@ -0,0 +1,123 @@
+package com.tracker.model;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * The chain of steps that turns a frame into motion candidates: greyscale, blur, difference against a background,
+ * threshold and dilate, and then a connected components pass over the motion mask. MotionVideoCapture, Arena and
+ * ParameterSweep all capture motion through a chain, so that a change to one step changes it for all of them.
+ * <p> Like the rest of motion capture, a chain reuses its scratch buffers for every frame, so only one thread should
+ * use it at a time.
+ */
+public class MotionChain {
+	private final Size blurSize;
+	private final int threshold, dilation;
+	private final Mat kernel = new Mat(); // empty, so dilation uses the default 3x3 kernel
+	private final Point anchor = new Point(-1, -1);
+	private Mat labels = new Mat(), stats = new Mat(), centroids = new Mat();
+	private int[] statsBuffer = new int[0];
+	private double[] centroidsBuffer = new double[0];
+
+	/**
+	 * @param blurSize The size of the Gaussian blur.
+	 * @param threshold The largest change in grey level that doesn't count as motion.
+	 * @param dilation The number of times the motion mask is dilated.
+	 */
+	public MotionChain(Size blurSize, int threshold, int dilation) {
+		this.blurSize = blurSize;
+		this.threshold = threshold;
+		this.dilation = dilation;
+	}
+
+	/**
+	 * @param profile The blur, threshold and dilation to use.
+	 */
+	public MotionChain(MotionProfile profile) {
+		this(new Size(profile.getGreyBlur(), profile.getGreyBlur()), profile.getThreshold(), profile.getDilation());
+	}
+
+	/* Getters */
+	public Size getBlurSize() { return blurSize; }
+	public int getThreshold() { return threshold; }
+	public int getDilation() { return dilation; }
+
+	/**
+	 * Converts a colour frame to greyscale and blurs the result.
+	 * @param colour The scaled colour frame, or a part of it.
+	 * @param grey The destination.
+	 */
+	public void greyBlur(Mat colour, Mat grey) {
+		Imgproc.cvtColor(colour, grey, Imgproc.COLOR_BGR2GRAY);
+		Imgproc.GaussianBlur(grey, grey, blurSize, 0);
+	}
+
+	/**
+	 * Blurs a frame that is already greyscale.
+	 * @param grey The greyscale frame.
+	 * @param blurred The destination.
+	 */
+	public void blur(Mat grey, Mat blurred) {
+		Imgproc.GaussianBlur(grey, blurred, blurSize, 0);
+	}
+
+	/**
+	 * Thresholds a difference from the background and dilates the result into a motion mask.
+	 * @param delta The absolute difference from the background.
+	 * @param binary The destination for the motion mask.
+	 */
+	public void mask(Mat delta, Mat binary) {
+		Imgproc.threshold(delta, binary, threshold, 255, Imgproc.THRESH_BINARY);
+		if (dilation > 0) {
+			Imgproc.dilate(binary, binary, kernel, anchor, dilation);
+		}
+	}
+
+	/**
+	 * Compares a blurred frame against the background and writes the motion mask into binary. The frame is then learnt
+	 * by the background.
+	 * @param grey The blurred greyscale frame.
+	 * @param background The background, which must be ready.
+	 * @param delta A scratch buffer for the difference.
+	 * @param binary The destination for the motion mask.
+	 */
+	public void capture(Mat grey, BackgroundModel background, Mat delta, Mat binary) {
+		background.subtract(grey, delta);
+		mask(delta, binary);
+		background.learn(grey);
+	}
+
+	/**
+	 * Adds the connected components of a motion mask to the detections. A single pass labels every blob and measures
+	 * its centroid and area at the same time, and the results are copied straight into the detections.
+	 * @param mask The motion mask, or a window of it.
+	 * @param offsetX The x coordinate of the mask in the frame.
+	 * @param offsetY The y coordinate of the mask in the frame.
+	 * @param detections The destination for the candidates.
+	 */
+	public void addComponents(Mat mask, int offsetX, int offsetY, Detections detections) {
+		int n = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids);
+		if (statsBuffer.length < 5*n) {
+			statsBuffer = new int[5*n];
+			centroidsBuffer = new double[2*n];
+		}
+		stats.get(0, 0, statsBuffer);
+		centroids.get(0, 0, centroidsBuffer);
+		// label 0 is the background
+		for (int i = 1; i < n; i++) {
+			detections.add(offsetX + centroidsBuffer[2*i], offsetY + centroidsBuffer[2*i + 1],
+					statsBuffer[5*i + Imgproc.CC_STAT_AREA]);
+		}
+	}
+
+	/**
+	 * Frees the native memory of the scratch buffers.
+	 */
+	public void release() {
+		kernel.release();
+		labels.release();
+		stats.release();
+		centroids.release();
+	}
+}
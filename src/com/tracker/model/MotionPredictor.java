@@ -0,0 +1,163 @@
+package com.tracker.model;
+import org.opencv.core.Point;
+
+/**
+ * A constant velocity Kalman filter for a fish's centre, used to predict where the fish will be in the next frame and
+ * how far from that prediction it could reasonably be. The x and y axes are filtered separately, each with a position
+ * and a velocity in pixels per frame.
+ * <p> Each frame, either correct() pulls the estimate towards the candidate centre the fish was assigned to, or miss()
+ * records that no motion was found for the fish, which usually means it has stopped. Then predict() moves the estimate
+ * on by the velocity and widens its uncertainty, ready for the next frame.
+ * <p> The gate is a few standard deviations of the predicted position, so it shrinks while a fish swims smoothly and
+ * grows after it turns sharply or goes missing. It is kept between half and twice the fish's top speed, so a fish is
+ * never searched for too narrowly, nor across the whole tank.
+ */
+public class MotionPredictor {
+	private final static double ACCELERATION = 4; // standard deviation of the change in velocity, in pixels per frame
+	private final static double JITTER = 3; // standard deviation of a detected centre, in pixels
+	private final static double GATE_SIGMAS = 3;
+	private final static double MISS_DAMPING = 0.5; // fraction of the velocity kept after a frame without motion
+	private final static int LOST_FRAMES = 15; // frames without motion before a fish counts as lost
+	private final double minGate, maxGate;
+	private final double initialVelocityVariance;
+
+	/* State along each axis, with its covariance */
+	private double x, vx, y, vy;
+	private double pxx, pxv, pvv, qxx, qxv, qvv;
+	private double gate;
+	private int missedFrames;
+
+	/**
+	 * @param pos The starting position of the fish.
+	 * @param maxSpeed The usual top speed of the fish, in pixels per frame. The gate ranges from half to twice this.
+	 */
+	public MotionPredictor(Point pos, double maxSpeed) {
+		minGate = maxSpeed/2;
+		maxGate = 2*maxSpeed;
+		initialVelocityVariance = maxSpeed*maxSpeed/4;
+		reset(pos.x, pos.y);
+	}
+
+	/* Getters */
+	public double getX() { return x; }
+	public double getY() { return y; }
+	public double getVelocityX() { return vx; }
+	public double getVelocityY() { return vy; }
+	public double getGate() { return gate; }
+	public int getMissedFrames() { return missedFrames; }
+	
+	/**
+	 * @return True, if no motion has been found for the fish for so long that it may be somewhere else entirely.
+	 */
+	public boolean isLost() { return missedFrames >= LOST_FRAMES; }
+
+	/**
+	 * @return Everything the filter has learnt about the fish's motion, in the order that setState() takes it.
+	 */
+	public double[] getState() {
+		return new double[] {x, vx, y, vy, pxx, pxv, pvv, qxx, qxv, qvv, gate, missedFrames};
+	}
+	
+	/**
+	 * Puts the filter back to a state from getState(), such as when resuming from a checkpoint.
+	 * @param state The state from getState().
+	 */
+	public void setState(double[] state) {
+		x = state[0];
+		vx = state[1];
+		y = state[2];
+		vy = state[3];
+		pxx = state[4];
+		pxv = state[5];
+		pvv = state[6];
+		qxx = state[7];
+		qxv = state[8];
+		qvv = state[9];
+		gate = state[10];
+		missedFrames = (int) state[11];
+	}
+	
+	/**
+	 * Forgets the fish's motion and places it at a known position, such as when the user moves the fish by hand.
+	 * @param px The x coordinate of the fish.
+	 * @param py The y coordinate of the fish.
+	 */
+	public void reset(double px, double py) {
+		x = px;
+		y = py;
+		vx = vy = 0;
+		pxx = qxx = JITTER*JITTER;
+		pxv = qxv = 0;
+		pvv = qvv = initialVelocityVariance;
+		missedFrames = 0;
+		updateGate();
+	}
+
+	/**
+	 * Moves the estimate on by one frame. After this, getX(), getY() and getGate() describe where to search for the
+	 * fish in the next frame. A predictor that has just been reset already describes the next frame, so needs no
+	 * prediction.
+	 */
+	public void predict() {
+		double a = ACCELERATION*ACCELERATION;
+		x += vx;
+		y += vy;
+		// P = F P F' + Q, with F = [1 1; 0 1] and Q from a random change in velocity over one frame
+		pxx += 2*pxv + pvv + a/4;
+		pxv += pvv + a/2;
+		pvv += a;
+		qxx += 2*qxv + qvv + a/4;
+		qxv += qvv + a/2;
+		qvv += a;
+		updateGate();
+	}
+
+	/**
+	 * Pulls the estimate towards the candidate centre that the fish was assigned to.
+	 * @param mx The x coordinate of the candidate.
+	 * @param my The y coordinate of the candidate.
+	 */
+	public void correct(double mx, double my) {
+		double r = JITTER*JITTER;
+
+		double s = pxx + r;
+		double kx = pxx/s, kv = pxv/s;
+		double innovation = mx - x;
+		x += kx*innovation;
+		vx += kv*innovation;
+		pvv -= kv*pxv;
+		pxv -= kx*pxv;
+		pxx -= kx*pxx;
+
+		s = qxx + r;
+		kx = qxx/s;
+		kv = qxv/s;
+		innovation = my - y;
+		y += kx*innovation;
+		vy += kv*innovation;
+		qvv -= kv*qxv;
+		qxv -= kx*qxv;
+		qxx -= kx*qxx;
+		missedFrames = 0;
+		updateGate();
+	}
+
+	/**
+	 * Records that no candidate was assigned to the fish. The fish stays where it was last seen, and its velocity
+	 * decays, but the uncertainty from predict() is kept so that the gate stays wide until the fish is found again.
+	 * @param px The x coordinate the fish stays at.
+	 * @param py The y coordinate the fish stays at.
+	 */
+	public void miss(double px, double py) {
+		x = px;
+		y = py;
+		vx *= MISS_DAMPING;
+		vy *= MISS_DAMPING;
+		missedFrames++;
+	}
+
+	private void updateGate() {
+		double variance = Math.max(pxx, qxx) + JITTER*JITTER;
+		gate = Math.min(maxGate, Math.max(minGate, GATE_SIGMAS*Math.sqrt(variance)));
+	}
+}
@@ -0,0 +1,111 @@
+package com.tracker.model;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+
+/**
+ * The parameters of motion capture: how much each greyscale frame is blurred, how many frames back it is compared
+ * against, how large a change in grey level counts as motion, and how many times the motion mask is dilated. A rig can
+ * be tuned once with ParameterSweep, and the profile it saves is then loaded at run time instead of being compiled in.
+ * <p> Profiles are saved as small properties files, for example: <pre>
+ * blur=21
+ * delay=3
+ * threshold=15
+ * dilation=3
+ * </pre>
+ */
+public class MotionProfile {
+	public final static MotionProfile DEFAULT = new MotionProfile(21, 3, 15, 3);
+	private final static String BLUR = "blur", DELAY = "delay", THRESHOLD = "threshold", DILATION = "dilation";
+	private final int greyBlur, frameDelay, threshold, dilation;
+
+	/**
+	 * @param greyBlur The size of the Gaussian blur, in pixels, which must be odd.
+	 * @param frameDelay The number of frames back that each frame is compared against.
+	 * @param threshold The largest change in grey level that doesn't count as motion.
+	 * @param dilation The number of times the motion mask is dilated.
+	 * @throws IllegalArgumentException If any of the values is out of range.
+	 */
+	public MotionProfile(int greyBlur, int frameDelay, int threshold, int dilation) {
+		if (greyBlur < 1 || greyBlur % 2 == 0) {
+			throw new IllegalArgumentException("The blur must be odd, not " + greyBlur);
+		}
+		if (frameDelay < 1) {
+			throw new IllegalArgumentException("The frame delay must be at least 1, not " + frameDelay);
+		}
+		if (threshold < 0 || threshold > 254) {
+			throw new IllegalArgumentException("The threshold must be from 0 to 254, not " + threshold);
+		}
+		if (dilation < 0) {
+			throw new IllegalArgumentException("The dilation can't be negative");
+		}
+		this.greyBlur = greyBlur;
+		this.frameDelay = frameDelay;
+		this.threshold = threshold;
+		this.dilation = dilation;
+	}
+
+	/* Getters */
+	public int getGreyBlur() { return greyBlur; }
+	public int getFrameDelay() { return frameDelay; }
+	public int getThreshold() { return threshold; }
+	public int getDilation() { return dilation; }
+
+	/**
+	 * @return The radius of the box blur with the same variance as the Gaussian blur, for the FusedMotionKernel.
+	 */
+	public int getBoxRadius() {
+		double sigma = 0.3*((greyBlur - 1)*0.5 - 1) + 0.8; // as OpenCV picks it for a given kernel size
+		// a box of radius r has a variance of r(r + 1)/3
+		return Math.max(1, (int) Math.round((Math.sqrt(1 + 12*sigma*sigma) - 1)/2));
+	}
+
+	/**
+	 * Reads a profile from a properties file. Any parameter left out keeps its default value.
+	 * @param file The profile.
+	 * @return The profile.
+	 * @throws IOException If the file can't be read, or a parameter isn't a valid number.
+	 */
+	public static MotionProfile load(File file) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = new FileReader(file)) {
+			properties.load(reader);
+		}
+		try {
+			return new MotionProfile(
+					Integer.parseInt(properties.getProperty(BLUR, String.valueOf(DEFAULT.greyBlur)).trim()),
+					Integer.parseInt(properties.getProperty(DELAY, String.valueOf(DEFAULT.frameDelay)).trim()),
+					Integer.parseInt(properties.getProperty(THRESHOLD, String.valueOf(DEFAULT.threshold)).trim()),
+					Integer.parseInt(properties.getProperty(DILATION, String.valueOf(DEFAULT.dilation)).trim()));
+		} catch (IllegalArgumentException e) {
+			throw new IOException(file + " isn't a valid motion profile: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Saves the profile as a properties file.
+	 * @param file The location for the profile to be saved to.
+	 * @param comment A line written at the top of the file, such as where the profile came from, or null.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public void save(File file, String comment) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(BLUR, String.valueOf(greyBlur));
+		properties.setProperty(DELAY, String.valueOf(frameDelay));
+		properties.setProperty(THRESHOLD, String.valueOf(threshold));
+		properties.setProperty(DILATION, String.valueOf(dilation));
+		try (Writer writer = new FileWriter(file)) {
+			properties.store(writer, comment);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return BLUR + "=" + greyBlur + " " + DELAY + "=" + frameDelay + " " + THRESHOLD + "=" + threshold + " "
+				+ DILATION + "=" + dilation;
+	}
+}
@@ -0,0 +1,249 @@
+package com.tracker.model;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Captures the motion in a frame on several threads at once, by splitting it into horizontal strips that each run the
+ * whole greyscale, blur, difference, threshold, dilate and label chain on the common ForkJoinPool. Each strip has a
+ * MotionChain of its own, built from the same settings, so the strips process their rows exactly as a single capture
+ * would.
+ * <p> Each strip works on its own copy of its rows plus halo rows above and below, wide enough to cover the blur and
+ * the dilation, so the rows it keeps come out exactly as if the whole frame had been processed. The strips only read
+ * the frame and the background, and each writes only its own rows of the shared greyscale frame and motion mask, so
+ * they need no locking. Once every strip has finished, the background learns the whole frame, and blobs that touch
+ * across a border between strips are joined with a union-find before being added to the detections.
+ */
+public class MotionStrips {
+	private final int halo;
+	private List<Strip> strips = new ArrayList<Strip>();
+	private int frameRows = -1;
+
+	/* Shared state for one frame, written before the strips start */
+	private Mat frame, grey, binary;
+	private BackgroundModel background;
+
+	/* Blob merging */
+	private int[] parent = new int[0];
+	private double[] sumX = new double[0], sumY = new double[0], area = new double[0];
+
+	/**
+	 * @param count The number of strips each frame is split into.
+	 * @param blurSize The size of the Gaussian blur.
+	 * @param threshold The difference in grey level above which a pixel counts as motion.
+	 * @param dilation The number of 3x3 dilations applied to the motion mask.
+	 */
+	public MotionStrips(int count, Size blurSize, int threshold, int dilation) {
+		// rows near the edge of a strip's copy are blurred and dilated wrongly, so these are never kept
+		this.halo = (int) blurSize.height/2 + dilation;
+		for (int i = 0; i < count; i++) {
+			strips.add(new Strip(new MotionChain(blurSize, threshold, dilation)));
+		}
+	}
+
+	public int getCount() { return strips.size(); }
+
+	/**
+	 * Captures the motion in a frame, and adds the blobs found to the detections.
+	 * @param frame The scaled colour frame.
+	 * @param grey The destination for the blurred greyscale frame, which the background learns.
+	 * @param binary The destination for the motion mask.
+	 * @param background The background model, which must support regions.
+	 * @param detections The destination for the candidates, which should already be cleared.
+	 */
+	public void capture(Mat frame, Mat grey, Mat binary, BackgroundModel background, Detections detections) {
+		this.frame = frame;
+		this.grey = grey;
+		this.binary = binary;
+		this.background = background;
+		grey.create(frame.size(), CvType.CV_8UC1);
+		binary.create(frame.size(), CvType.CV_8UC1);
+		if (frame.rows() != frameRows) {
+			placeStrips(frame.rows(), frame.cols());
+		}
+
+		try {
+			for (Future<Void> result: ForkJoinPool.commonPool().invokeAll(strips)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while capturing motion in strips", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Motion capture failed in a strip", e.getCause());
+		}
+
+		background.learn(grey);
+		mergeBlobs(detections);
+	}
+
+	/**
+	 * Splits the rows of the frame evenly between the strips.
+	 */
+	private void placeStrips(int rows, int cols) {
+		frameRows = rows;
+		int count = strips.size();
+		for (int k = 0; k < count; k++) {
+			Strip strip = strips.get(k);
+			strip.top = k*rows/count;
+			strip.bottom = (k + 1)*rows/count;
+			int haloTop = Math.max(strip.top - halo, 0), haloBottom = Math.min(strip.bottom + halo, rows);
+			strip.haloRegion = new Rect(0, haloTop, cols, haloBottom - haloTop);
+			strip.keptRegion = new Rect(0, strip.top - haloTop, cols, strip.bottom - strip.top);
+			strip.frameRegion = new Rect(0, strip.top, cols, strip.bottom - strip.top);
+			strip.topRow = new int[cols];
+			strip.bottomRow = new int[cols];
+		}
+	}
+
+	/**
+	 * Joins the blobs that touch across the border between each pair of neighbouring strips, including diagonally,
+	 * and adds one candidate per joined blob at the area-weighted centre of its parts.
+	 */
+	private void mergeBlobs(Detections detections) {
+		int total = 0;
+		for (Strip strip: strips) {
+			strip.firstBlob = total;
+			total += strip.blobs;
+		}
+		if (parent.length < total) {
+			parent = new int[total];
+			sumX = new double[total];
+			sumY = new double[total];
+			area = new double[total];
+		}
+		for (int i = 0; i < total; i++) {
+			parent[i] = i;
+		}
+
+		for (int k = 0; k + 1 < strips.size(); k++) {
+			Strip above = strips.get(k), below = strips.get(k + 1);
+			if (above.blobs == 0 || below.blobs == 0) {
+				continue;
+			}
+			int cols = above.bottomRow.length;
+			for (int x = 0; x < cols; x++) {
+				int a = above.bottomRow[x];
+				if (a == 0) {
+					continue;
+				}
+				for (int dx = Math.max(x - 1, 0); dx <= Math.min(x + 1, cols - 1); dx++) {
+					int b = below.topRow[dx];
+					if (b != 0) {
+						union(above.firstBlob + a - 1, below.firstBlob + b - 1);
+					}
+				}
+			}
+		}
+
+		Arrays.fill(area, 0, total, 0);
+		Arrays.fill(sumX, 0, total, 0);
+		Arrays.fill(sumY, 0, total, 0);
+		for (Strip strip: strips) {
+			for (int i = 0; i < strip.blobs; i++) {
+				// label 0 is the background, so blob i is label i + 1
+				int root = find(strip.firstBlob + i);
+				double pixels = strip.stats[5*(i + 1) + Imgproc.CC_STAT_AREA];
+				area[root] += pixels;
+				sumX[root] += pixels*strip.centroids[2*(i + 1)];
+				sumY[root] += pixels*(strip.top + strip.centroids[2*(i + 1) + 1]);
+			}
+		}
+		for (int i = 0; i < total; i++) {
+			if (parent[i] == i) {
+				detections.add(sumX[i]/area[i], sumY[i]/area[i], area[i]);
+			}
+		}
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int a, int b) {
+		int ra = find(a), rb = find(b);
+		if (ra != rb) {
+			parent[Math.max(ra, rb)] = Math.min(ra, rb);
+		}
+	}
+
+	/**
+	 * Frees the native memory of every strip's buffers.
+	 */
+	public void release() {
+		for (Strip strip: strips) {
+			strip.release();
+		}
+	}
+
+	/**
+	 * One horizontal strip of the frame, with its own buffers so that it can run alongside the others.
+	 */
+	private class Strip implements Callable<Void> {
+		private final MotionChain chain;
+		private int top, bottom, blobs, firstBlob;
+		private Rect haloRegion, keptRegion, frameRegion;
+		private Mat blurred = new Mat(), delta = new Mat(), mask = new Mat();
+		private Mat labels = new Mat(), statsMat = new Mat(), centroidsMat = new Mat();
+		private int[] stats = new int[0], topRow, bottomRow;
+		private double[] centroids = new double[0];
+
+		Strip(MotionChain chain) {
+			this.chain = chain;
+		}
+
+		@Override
+		public Void call() {
+			// the whole chain runs on this strip's rows and halo
+			Mat colour = frame.submat(haloRegion);
+			chain.greyBlur(colour, blurred);
+			background.subtract(blurred, delta, haloRegion);
+			chain.mask(delta, mask);
+			colour.release();
+
+			// keep only the rows that belong to this strip
+			Mat keptGrey = blurred.submat(keptRegion), keptMask = mask.submat(keptRegion);
+			Mat sharedGrey = grey.submat(frameRegion), sharedMask = binary.submat(frameRegion);
+			keptGrey.copyTo(sharedGrey);
+			keptMask.copyTo(sharedMask);
+
+			int n = Imgproc.connectedComponentsWithStats(keptMask, labels, statsMat, centroidsMat);
+			blobs = n - 1;
+			if (stats.length < 5*n) {
+				stats = new int[5*n];
+				centroids = new double[2*n];
+			}
+			statsMat.get(0, 0, stats);
+			centroidsMat.get(0, 0, centroids);
+			labels.get(0, 0, topRow);
+			labels.get(labels.rows() - 1, 0, bottomRow);
+
+			keptGrey.release();
+			keptMask.release();
+			sharedGrey.release();
+			sharedMask.release();
+			return null;
+		}
+
+		private void release() {
+			for (Mat mat: new Mat[] {blurred, delta, mask, labels, statsMat, centroidsMat}) {
+				mat.release();
+			}
+			chain.release();
+		}
+	}
+}
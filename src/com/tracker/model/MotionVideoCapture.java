@@ -1,29 +1,100 @@
 package com.tracker.model;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.videoio.VideoCapture;
 import org.opencv.videoio.Videoio;
 
+/**
+ * A video capture that finds the motion in each frame by comparing it against a BackgroundModel. By default this is the
+ * frame FRAME_DELAY frames before it, and other models can be chosen with setBackgroundModel().
+ * <p> Once the background history is full, capturing motion allocates no new Mats. The raw and greyscale frames, the
+ * difference, the dilation kernel and the contour hierarchy are all scratch buffers that are reused for every frame, 
+ * and the background history is a fixed ring. Native memory that is no longer needed is released explicitly rather
+ * than being left for the garbage collector to finalise.
+ * <p> When given the fish being tracked, the capture only looks for motion in windows around where each fish is 
+ * expected to be, which is a small fraction of the frame for a few small fish. See setSearchedFish().
+ * <p> Alternatively, motion can be found on a coarse level of an image pyramid and then located precisely on the
+ * scaled frame. See setPyramidLevels().
+ * <p> Frames in which nothing has changed can be skipped before any motion is captured, by comparing a tiny signature
+ * of each frame against the last one that changed. See setStaticFrameFloor().
+ * <p> Motion can also be captured only every few frames, with the fish followed by optical flow in between. See
+ * setFlowPeriod().
+ * <p> A TankMask restricts motion capture to the tank, by cropping each frame to the tank's bounding rectangle and 
+ * masking out the motion outside it. See setTankMask().
+ * <p> The blur, frame delay, threshold and dilation come from a MotionProfile, which is fixed when the capture is
+ * built. See MotionVideoCapture(String, double, int, MotionProfile).
+ * <p> Not every mode can be combined with every other. The rules are all kept in validateModes(), which each setter 
+ * checks against before it changes anything.
+ */
 public class MotionVideoCapture extends VideoCapture {
 	protected Mat frame;
 	private Mat binary;
-	private LinkedList<Mat> backgrounds = new LinkedList<Mat>();
+	private BackgroundModel background;
+	private String backgroundName = BackgroundModel.FRAME_DELAY; // the name the background was chosen by
 	private Size frameSize;
 	private Scalar colour = new Scalar(255,255,0);
-	private List<MatOfPoint> contours = null;
+	private List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+	private Detections detections = new Detections(0, 16);
+	private boolean drawContours = true;
 	
+	/* Scratch buffers, reused for every frame */
+	private Mat raw = new Mat(), grey = new Mat(), frameDelta = new Mat(), hierarchy = new Mat();
+	private Mat labels = new Mat(), stats = new Mat(), centroids = new Mat();
+	private final Mat kernel = new Mat(); // empty, so dilation uses the default 3x3 kernel
+	private final Point anchor = new Point(-1, -1);
+	private final Scalar black = new Scalar(0);
 	
-	private final int GREY_BLUR = 21; //must be odd
-	private final int FRAME_DELAY = 3, THRESHOLD = 15, DILATION_BLUR = 3;
+	/* Windows around the fish, used instead of the whole frame when searchedFish is set */
+	private List<Fish> searchedFish = null;
+	private int fullFramePeriod = 100, framesSinceFullFrame = 0, freshBackgrounds = 0;
+	private boolean fullFrameDue = true;
+	private int[] windowX0 = new int[0], windowY0 = new int[0], windowX1 = new int[0], windowY1 = new int[0];
+	private int[] windowReach = new int[0];
+	private Rect[] searchRects = new Rect[0], keptRects = new Rect[0], blurRects = new Rect[0];
+	private long pixelsProcessed = 0, pixelsInFrames = 0;
+	
+	/* Image pyramid, used when motion is found on a coarse level and refined on the scaled frame */
+	private int pyramidLevels = 0;
+	private Mat[] pyramid = new Mat[0];
+	private BackgroundHistory pastFrames = null;
+	private Mat fineGrey = new Mat(), fineOld = new Mat(), fineDelta = new Mat(), fineMask = new Mat();
+	private Rect fineRect = new Rect(), fineBlurRect = new Rect();
+	private int[] coarseStats = new int[0], fineStats = new int[0];
+	private double[] coarseCentroids = new double[0], fineCentroids = new double[0];
+	
+	private final MotionProfile profile; // fixed, as the background and buffers are sized by it
+	private final int GREY_BLUR; //must be odd
+	private final int FRAME_DELAY, THRESHOLD, DILATION_BLUR;
+	private final int FUSED_BLUR_RADIUS; // a box of the same variance as the GREY_BLUR Gaussian
+	private final static double AVERAGE_RATE = 0.1; // weight of each new frame in a running average background
+	private final int BLOB_MARGIN = 15; // room around a fish's gate for the rest of its blob
+	private final int LOST_FULL_FRAME_PERIOD = 15; // frames between full frame searches while a fish is lost
+	private final Size fineBlurSize;
+	private Size blurSize; // blur of the level that motion is captured on
+	private MotionChain chain; // shared with Arena and ParameterSweep
+	private FusedMotionKernel fusedKernel = null;
+	private MotionStrips strips = null;
+	private FrameSignature signature = null;
+	
+	/* Optical flow, used to follow the fish between full detections when flowFish is set */
+	private List<Fish> flowFish = null;
+	private FlowPropagator flow = null;
+	private int flowPeriod = 0, framesSinceDetection = 0;
+	private long flowFrames = 0, flowFallbacks = 0;
+	
+	/* Tank outline, used to crop and mask each frame when tank is set */
+	private TankMask tank = null;
+	private Mat tankFrame = null; // the part of the frame inside the tank's bounding rectangle
 	
 	
 	/* Constructors */
@@ -34,23 +105,88 @@ public class MotionVideoCapture extends VideoCapture {
 	 * @param scale
 	 */
 	public MotionVideoCapture(String filename, MotionVideoCapture prev) {
-		super(filename);
+		this(filename, prev.profile);
 		this.frame = prev.frame;
 		this.binary = prev.binary;
 		this.frameSize = prev.frameSize;	// might need to rescale if videos are different sizes
-		this.backgrounds = prev.backgrounds;
+		this.background = prev.background;
+		this.backgroundName = prev.backgroundName;
+		this.drawContours = prev.drawContours;
 	}
 	
 	public MotionVideoCapture(String filename, double scale) {
-		super(filename);
+		this(filename, scale, 0);
+	}
+	
+	/**
+	 * Constructor that starts the capture part way through the video. The frame at startFrame becomes the first 
+	 * background, so motion is captured from the frame after it.
+	 * <p> Note that seeking is only as accurate as the video's codec allows, and may land a few frames away from 
+	 * startFrame.
+	 * @param filename The path to the video to be captured.
+	 * @param scale The scale applied to each frame.
+	 * @param startFrame The 0-based index of the first frame to be read.
+	 */
+	public MotionVideoCapture(String filename, double scale, int startFrame) {
+		this(filename, scale, startFrame, MotionProfile.DEFAULT);
+	}
+	
+	/**
+	 * Constructor that starts the capture part way through the video, and captures motion with the blur, frame delay,
+	 * threshold and dilation of a profile instead of the defaults.
+	 * @param filename The path to the video to be captured.
+	 * @param scale The scale applied to each frame.
+	 * @param startFrame The 0-based index of the first frame to be read.
+	 * @param profile The motion profile, such as one saved by ParameterSweep.
+	 */
+	public MotionVideoCapture(String filename, double scale, int startFrame, MotionProfile profile) {
+		this(filename, scale, startFrame, profile, true);
+	}
+	
+	private MotionVideoCapture(String filename, double scale, int startFrame, MotionProfile profile, 
+			boolean captureMotion) {
+		this(filename, profile);
+		if (startFrame > 0) {
+			set(Videoio.CAP_PROP_POS_FRAMES, startFrame);
+		}
 		frame = new Mat();
+		binary = new Mat();
 		frameSize = getScaledSize(scale);
-		read(frame);
-		
-		backgrounds = new LinkedList<Mat>();
-		binary = new Mat(); //first background
-		greyBlur(frame, binary);	
-		backgrounds.add(binary);
+		if (captureMotion) {
+			read(frame);
+			background = new FrameDelayBackground(FRAME_DELAY);
+			greyBlur(frame, grey); //first background
+			background.learn(grey);
+			freshBackgrounds = 1;
+		}
+	}
+	
+	/**
+	 * Builds a capture that only reads scaled frames, for when motion is captured elsewhere, such as by the Arenas of
+	 * an ArenaTracker. Nothing is read yet, so the first read() gives the first frame, and no background is built. 
+	 * Only read(), getSize(), get() and release() should be used.
+	 * @param filename The path to the video to be read.
+	 * @param scale The scale applied to each frame.
+	 * @return The capture.
+	 */
+	public static MotionVideoCapture frameReader(String filename, double scale) {
+		return new MotionVideoCapture(filename, scale, 0, MotionProfile.DEFAULT, false);
+	}
+	
+	/**
+	 * Opens the video and sizes the motion chain by the profile. Every other constructor starts here.
+	 */
+	private MotionVideoCapture(String filename, MotionProfile profile) {
+		super(filename);
+		this.profile = profile;
+		GREY_BLUR = profile.getGreyBlur();
+		FRAME_DELAY = profile.getFrameDelay();
+		THRESHOLD = profile.getThreshold();
+		DILATION_BLUR = profile.getDilation();
+		FUSED_BLUR_RADIUS = profile.getBoxRadius();
+		fineBlurSize = new Size(GREY_BLUR, GREY_BLUR);
+		blurSize = fineBlurSize;
+		chain = new MotionChain(fineBlurSize, THRESHOLD, DILATION_BLUR);
 	}
 	
 	/**
@@ -71,8 +207,260 @@ public class MotionVideoCapture extends VideoCapture {
 	
 	/* Getters & Setters */
 	public List<MatOfPoint> getContours() { return contours; }
+	public Detections getDetections() { return detections; }
 	public Mat getFrame() { return frame; }
 	public Size getSize() {	return frameSize; }
+	public boolean isDrawingContours() { return drawContours; }
+	public List<Fish> getSearchedFish() { return searchedFish; }
+	public int getFullFramePeriod() { return fullFramePeriod; }
+	public void setFullFramePeriod(int n) { fullFramePeriod = n; }
+	public int getPyramidLevels() { return pyramidLevels; }
+	public boolean isUsingFusedKernel() { return fusedKernel != null; }
+	public int getStrips() { return strips == null ? 1 : strips.getCount(); }
+	public boolean isSkippingStaticFrames() { return signature != null; }
+	public int getFlowPeriod() { return flowPeriod; }
+	public long getFlowFrames() { return flowFrames; } // frames in which the fish were followed by optical flow
+	public long getFlowFallbacks() { return flowFallbacks; } // frames in which the flow was lost and detected instead
+	public TankMask getTankMask() { return tank; }
+	public BackgroundModel getBackgroundModel() { return background; }
+	public FrameSignature getSignature() { return signature; } // null unless static frames are skipped
+	public MotionProfile getMotionProfile() { return profile; }
+	
+	/**
+	 * Only captures motion inside the tank. Each frame is cropped to the tank's bounding rectangle before it is 
+	 * blurred, and the motion mask is cleared outside the tank before candidates are found, so the rim, the bench and
+	 * reflections cost nothing and produce no candidates. The background is restarted from the current frame. This 
+	 * only works on whole frames, without windows around the fish, a pyramid or strips.
+	 * @param tank The outline of the tank, or null to capture motion in the whole frame.
+	 */
+	public synchronized void setTankMask(TankMask tank) {
+		validateModes(searchedFish != null, pyramidLevels, backgroundName, fusedKernel != null, getStrips(), flow != null,
+				tank != null);
+		this.tank = tank;
+		cropToTank();
+		restartBackground();
+	}
+	
+	/**
+	 * Skips motion capture in frames where nothing has changed, such as while the fish are resting. The frame's 
+	 * FrameSignature is compared against the last frame that changed, and if no part of it has changed by more than the
+	 * noise floor, the frame's detections are left empty and marked as static. The background doesn't learn skipped
+	 * frames, but as they match the frames it has learnt, it stays just as good to compare against.
+	 * @param noiseFloor The largest change in grey level that counts as noise, or 0 to capture motion in every frame.
+	 */
+	public void setStaticFrameFloor(int noiseFloor) {
+		if (signature != null) {
+			signature.release();
+		}
+		signature = noiseFloor > 0 ? new FrameSignature(noiseFloor) : null;
+	}
+	
+	/**
+	 * Splits each frame into horizontal strips whose motion is captured on separate threads, which cuts the time taken 
+	 * per frame for very large frames. See MotionStrips. This only works on whole frames, with a background model that
+	 * supports regions, and without the fused kernel or a pyramid.
+	 * @param count The number of strips, or 1 to capture each frame on the calling thread.
+	 */
+	public void setStrips(int count) {
+		validateModes(searchedFish != null, pyramidLevels, backgroundName, fusedKernel != null, count, flow != null,
+				tank != null);
+		if (strips != null) {
+			strips.release();
+		}
+		strips = count > 1 ? new MotionStrips(count, blurSize, THRESHOLD, DILATION_BLUR) : null;
+	}
+	
+	/**
+	 * Sets whether motion is captured with a FusedMotionKernel instead of OpenCV's greyscale, blur, difference and 
+	 * threshold. The kernel keeps its own frame delay background, starting from the current frame, so it can only be used
+	 * on whole frames with the default background model and no pyramid.
+	 * @param fused True, to use the fused kernel.
+	 */
+	public void setFusedKernel(boolean fused) {
+		validateModes(searchedFish != null, pyramidLevels, backgroundName, fused, getStrips(), flow != null, tank != null);
+		if (fused) {
+			fusedKernel = new FusedMotionKernel(FUSED_BLUR_RADIUS, FRAME_DELAY, THRESHOLD);
+			fusedKernel.learn(motionFrame());
+		} else {
+			fusedKernel = null;
+		}
+	}
+	
+	/**
+	 * Only captures motion in the whole frame every period frames, and follows the given fish with a FlowPropagator in
+	 * the frames between. Whenever the flow loses confidence for any fish, motion is captured in that frame straight 
+	 * away instead, and the period starts again.
+	 * <p> Frames followed by flow are only learnt by the background when they are recent enough to be compared against
+	 * at the next full detection, so most of them are never blurred. A detection after the flow is lost may compare 
+	 * against an older background than usual. This only works on whole frames, without a pyramid or strips.
+	 * @param fishes The fish being tracked, or null to capture motion in every frame.
+	 * @param period The number of frames between full detections.
+	 */
+	public void setFlowPeriod(List<Fish> fishes, int period) {
+		validateModes(searchedFish != null, pyramidLevels, backgroundName, fusedKernel != null, getStrips(), 
+				fishes != null && period > 1, tank != null);
+		if (flow != null) {
+			flow.release();
+		}
+		flowFish = period > 1 ? fishes : null;
+		flow = flowFish != null ? new FlowPropagator() : null;
+		flowPeriod = flowFish != null ? period : 0;
+		framesSinceDetection = flowPeriod; // start with a full detection
+	}
+	
+	public long getPixelsProcessed() { return pixelsProcessed; } // pixels blurred while searching windows around fish
+	public long getPixelsInFrames() { return pixelsInFrames; } // pixels in the frames searched around fish
+	
+	/**
+	 * Restricts motion capture to windows around the given fish, rather than the whole frame. Each window covers the
+	 * gate that the fish's MotionPredictor will search in the next frame, with a margin for the rest of the fish's blob.
+	 * <p> The background is only updated inside each window and a band around it wide enough for the fish to swim 
+	 * through before that background is compared against. The whole frame is still searched every fullFramePeriod 
+	 * frames, and more often while a fish is lost, to pick up fish that have moved further than predicted. A full 
+	 * frame search first relearns the whole background, so it does not find stale motion outside the windows.
+	 * @param fishes The fish being tracked, or null to search the whole of every frame.
+	 */
+	public void setSearchedFish(List<Fish> fishes) {
+		validateModes(fishes != null, pyramidLevels, backgroundName, fusedKernel != null, getStrips(), flow != null,
+				tank != null);
+		searchedFish = fishes;
+		fullFrameDue = true;
+	}
+	
+	/**
+	 * Chooses how the background that frames are compared against is modelled. The new model starts from the current 
+	 * frame.
+	 * @param name One of BackgroundModel.FRAME_DELAY, RUNNING_AVERAGE or MOG2.
+	 * @throws IllegalArgumentException If the name is not a known model.
+	 * @throws IllegalStateException If the model can't be used with the other modes, see validateModes().
+	 */
+	public void setBackgroundModel(String name) {
+		BackgroundModel model = newBackgroundModel(name, FRAME_DELAY);
+		try {
+			validateModes(searchedFish != null, pyramidLevels, name, fusedKernel != null, getStrips(), flow != null,
+					tank != null);
+		} catch (IllegalStateException e) {
+			model.release();
+			throw e;
+		}
+		background.release();
+		background = model;
+		backgroundName = name;
+		greyBlur(coarseLevel(motionFrame()), grey);
+		background.learn(grey);
+		freshBackgrounds = 1;
+	}
+	
+	/**
+	 * Tells how many frames the background chosen with setBackgroundModel() has to learn before motion can be trusted,
+	 * such as to decide how far before a segment of a video its capture has to start.
+	 * @param name One of BackgroundModel.FRAME_DELAY, RUNNING_AVERAGE or MOG2.
+	 * @param profile The motion profile that the capture is built with.
+	 * @return The memory of the model, in frames.
+	 * @throws IllegalArgumentException If the name is not a known model.
+	 */
+	public static int getBackgroundMemory(String name, MotionProfile profile) {
+		BackgroundModel model = newBackgroundModel(name, profile.getFrameDelay());
+		try {
+			return model.getMemory();
+		} finally {
+			model.release();
+		}
+	}
+	
+	/**
+	 * Checks that a combination of modes can be used on one capture. This is the only place the rules are kept: every
+	 * setter that turns a mode on checks the modes it would leave the capture with, and BatchTracker checks its options
+	 * before any capture is built, so both report the same rules with the same messages.
+	 * @param windows True, if motion is only captured in windows around the fish, see setSearchedFish().
+	 * @param pyramidLevels The levels of the image pyramid, see setPyramidLevels().
+	 * @param backgroundModel One of BackgroundModel.FRAME_DELAY, RUNNING_AVERAGE or MOG2.
+	 * @param fused True, if the fused kernel is used, see setFusedKernel().
+	 * @param strips The number of strips, see setStrips().
+	 * @param flow True, if the fish are followed by optical flow between detections, see setFlowPeriod().
+	 * @param tank True, if there is a tank mask, see setTankMask().
+	 * @throws IllegalStateException If two of the modes can't be used together.
+	 */
+	public static void validateModes(boolean windows, int pyramidLevels, String backgroundModel, boolean fused, 
+			int strips, boolean flow, boolean tank) {
+		boolean pyramid = pyramidLevels > 0, split = strips > 1;
+		// only the frame delay and running average backgrounds can learn part of a frame
+		boolean regions = !backgroundModel.equals(BackgroundModel.MOG2);
+		if (windows && (pyramid || fused || split || flow || tank || !regions)) {
+			throw new IllegalStateException("Windows around the fish can't be used with an image pyramid, the fused "
+					+ "kernel, strips, optical flow, a tank mask or the mog2 background");
+		}
+		if (fused && (pyramid || split || !backgroundModel.equals(BackgroundModel.FRAME_DELAY))) {
+			throw new IllegalStateException("The fused kernel can't be used with an image pyramid, strips or any "
+					+ "background but the frame delay");
+		}
+		if (split && (pyramid || flow || tank || !regions)) {
+			throw new IllegalStateException("Strips can't be used with an image pyramid, optical flow, a tank mask or "
+					+ "the mog2 background");
+		}
+		if (pyramid && (flow || tank)) {
+			throw new IllegalStateException("An image pyramid can't be used with optical flow or a tank mask");
+		}
+	}
+	
+	private static BackgroundModel newBackgroundModel(String name, int frameDelay) {
+		switch (name) {
+		case BackgroundModel.FRAME_DELAY:
+			return new FrameDelayBackground(frameDelay);
+		case BackgroundModel.RUNNING_AVERAGE:
+			return new RunningAverageBackground(AVERAGE_RATE);
+		case BackgroundModel.MOG2:
+			return new Mog2Background();
+		default:
+			throw new IllegalArgumentException("Unknown background model " + name);
+		}
+	}
+	
+	/**
+	 * Captures motion on a coarse level of an image pyramid, where each level halves the width and height of the frame,
+	 * and then refines every candidate on the scaled frame. The coarse level is blurred with a proportionally smaller 
+	 * kernel, so it finds the same blobs at a fraction of the cost. Each blob is then measured again on the scaled frame
+	 * in a small window around it, against the frame FRAME_DELAY frames before, so the candidate centres are as 
+	 * precise as without the pyramid.
+	 * <p> The background is restarted from the current frame. The motion mask is only kept on the coarse level,
+	 * so no contours are drawn, and windows around the fish can't be used at the same time.
+	 * @param levels The number of times the frame is halved, or 0 to capture motion on the scaled frame itself.
+	 */
+	public void setPyramidLevels(int levels) {
+		validateModes(searchedFish != null, levels, backgroundName, fusedKernel != null, getStrips(), flow != null,
+				tank != null);
+		pyramidLevels = levels;
+		for (Mat level: pyramid) {
+			level.release();
+		}
+		pyramid = new Mat[levels];
+		for (int i = 0; i < levels; i++) {
+			pyramid[i] = new Mat();
+		}
+		int coarseBlur = Math.max(3, (GREY_BLUR >> levels) | 1); //must be odd
+		blurSize = levels > 0 ? new Size(coarseBlur, coarseBlur) : fineBlurSize;
+		chain.release();
+		chain = new MotionChain(blurSize, THRESHOLD, DILATION_BLUR);
+		
+		// restart the background on the new level
+		background.clear();
+		greyBlur(coarseLevel(frame), grey);
+		background.learn(grey);
+		if (levels > 0) {
+			if (pastFrames == null) {
+				pastFrames = new BackgroundHistory(FRAME_DELAY);
+			}
+			pastFrames.clear();
+			pastFrames.push(frame);
+		}
+	}
+	
+	/**
+	 * Sets whether the outlines of the captured motion are drawn onto the frame. Drawing is only useful for display, so
+	 * headless tracking turns it off.
+	 * @param drawContours True, if contours should be drawn onto each frame.
+	 */
+	public void setDrawContours(boolean drawContours) { this.drawContours = drawContours; }
 	
 	/**
 	 * Converts an image to greyscale and blurs the result. Used in the process of generating a binary image for 
@@ -83,37 +471,413 @@ public class MotionVideoCapture extends VideoCapture {
 	 * 
 	 */
 	public void greyBlur(Mat from, Mat to) {
-		Imgproc.cvtColor(from, to, Imgproc.COLOR_BGR2GRAY);
-		Imgproc.GaussianBlur(to, to, new Size(GREY_BLUR, GREY_BLUR), 0);
+		chain.greyBlur(from, to);
 	}
 	
-	public synchronized void captureMotionInFrame(Mat frame, Mat binary) {
-		//compute difference between oldest background and current frame
-		Mat grey = new Mat();
-		Mat frameDelta = new Mat();
+	/**
+	 * Compares a frame against the background and writes the thresholded, dilated difference into binary. The frame 
+	 * is then learnt by the background model.
+	 * <p> This is not synchronised, so that a pipeline can capture motion in one frame while the next is being read. 
+	 * Only one thread should capture motion at a time.
+	 * @param frame The scaled colour frame.
+	 * @param binary The destination for the motion mask.
+	 */
+	public void captureMotionInFrame(Mat frame, Mat binary) {
+		if (fusedKernel != null) {
+			fusedKernel.capture(frame, binary);
+			Imgproc.dilate(binary, binary, kernel, anchor, DILATION_BLUR);
+			return;
+		}
+		
+		//compute difference between background and current frame, and update the background
 		greyBlur(frame, grey);
-		Core.absdiff(backgrounds.peek(), grey, frameDelta);
-		Imgproc.threshold(frameDelta, binary, THRESHOLD, 255, Imgproc.THRESH_BINARY);
-		Imgproc.dilate(binary, binary, new Mat(), new Point(-1, -1), DILATION_BLUR);
+		chain.capture(grey, background, frameDelta, binary);
+	}
+	
+	/**
+	 * @return The part of the frame that motion is captured in, which is the whole frame unless there is a tank mask.
+	 */
+	private Mat motionFrame() {
+		return tankFrame != null ? tankFrame : frame;
+	}
+	
+	/**
+	 * Points tankFrame at the tank's bounding rectangle of the current frame. Reading a frame of the same size reuses
+	 * the frame's pixels, so this only has to be done again when the frame itself changes.
+	 */
+	private void cropToTank() {
+		if (tankFrame != null) {
+			tankFrame.release();
+		}
+		tankFrame = tank != null ? frame.submat(tank.getBounds()) : null;
+	}
+	
+	/**
+	 * Forgets the background and starts it again from the current frame.
+	 */
+	private void restartBackground() {
+		if (fusedKernel != null) {
+			fusedKernel.clear();
+		}
+		background.clear();
+		learnFrame(motionFrame());
+		freshBackgrounds = 1;
+	}
+	
+	/**
+	 * Captures motion in the frame, or the tank if there is a tank mask, and finds the candidate centres in it.
+	 */
+	private void detectInFrame() {
+		if (tank == null) {
+			captureMotionInFrame(frame, binary);
+			findCandidates(binary, detections);
+		} else {
+			Rect bounds = tank.getBounds();
+			captureMotionInFrame(tankFrame, binary);
+			Core.bitwise_and(binary, tank.getMask(), binary);
+			addComponents(binary, bounds.x, bounds.y, detections);
+		}
+	}
+	
+	/**
+	 * Lets the background learn a frame without capturing motion in it.
+	 * @param frame The scaled colour frame.
+	 */
+	private void learnFrame(Mat frame) {
+		if (fusedKernel != null) {
+			fusedKernel.learn(frame);
+		} else {
+			greyBlur(coarseLevel(frame), grey);
+			background.learn(grey);
+		}
+	}
+	
+	/**
+	 * Follows the fish by optical flow, or captures motion in the whole frame if a full detection is due or the flow 
+	 * has lost confidence.
+	 * @return True, if the motion mask was updated.
+	 */
+	private boolean captureMotionWithFlow() {
+		framesSinceDetection++;
+		if (framesSinceDetection < flowPeriod) {
+			if (flow.propagate(frame, flowFish, detections)) {
+				flowFrames++;
+				// only the frames the next full detection will compare against need to be learnt
+				int memory = fusedKernel != null ? FRAME_DELAY : background.getMemory();
+				if (flowPeriod - framesSinceDetection <= memory) {
+					learnFrame(motionFrame());
+				}
+				return false;
+			}
+			flowFallbacks++;
+			detections.clear(detections.getTimestamp());
+		} else {
+			flow.remember(frame);
+		}
+		detectInFrame();
+		framesSinceDetection = 0;
+		return true;
+	}
+	
+	/**
+	 * Finds the candidate fish centres in a motion mask. A single connected components pass labels every blob of 
+	 * motion and measures its centroid and area at the same time, and the results are copied straight into the 
+	 * primitive arrays of the detections, without creating a contour or a Point for each blob.
+	 * @param binary The motion mask.
+	 * @param detections The destination for the candidates, which should already be cleared.
+	 */
+	public void findCandidates(Mat binary, Detections detections) {
+		addComponents(binary, 0, 0, detections);
+	}
+	
+	/**
+	 * Adds the connected components of a mask to the detections.
+	 * @param mask The motion mask, or a window of it.
+	 * @param offsetX The x coordinate of the mask in the frame.
+	 * @param offsetY The y coordinate of the mask in the frame.
+	 * @param detections The destination for the candidates.
+	 */
+	private void addComponents(Mat mask, int offsetX, int offsetY, Detections detections) {
+		chain.addComponents(mask, offsetX, offsetY, detections);
+	}
+	
+	/**
+	 * Builds the image pyramid of a frame.
+	 * @param frame The scaled colour frame.
+	 * @return The coarsest level of the pyramid, or the frame itself if there are no levels.
+	 */
+	private Mat coarseLevel(Mat frame) {
+		Mat level = frame;
+		for (Mat next: pyramid) {
+			Imgproc.pyrDown(level, next);
+			level = next;
+		}
+		return level;
+	}
+	
+	/**
+	 * Captures motion on the coarse level of the pyramid, and refines each blob found there on the scaled frame.
+	 */
+	private void captureMotionInPyramid() {
+		captureMotionInFrame(coarseLevel(frame), binary);
+		int n = Imgproc.connectedComponentsWithStats(binary, labels, stats, centroids);
+		if (coarseStats.length < 5*n) {
+			coarseStats = new int[5*n];
+			coarseCentroids = new double[2*n];
+		}
+		stats.get(0, 0, coarseStats);
+		centroids.get(0, 0, coarseCentroids);
+		
+		fineGrey.create(frame.size(), CvType.CV_8UC1);
+		fineOld.create(frame.size(), CvType.CV_8UC1);
+		fineDelta.create(frame.size(), CvType.CV_8UC1);
+		fineMask.create(frame.size(), CvType.CV_8UC1);
+		Mat old = pastFrames.oldest();
+		// label 0 is the background
+		for (int i = 1; i < n; i++) {
+			refineCandidate(i, old);
+		}
+		pastFrames.push(frame);
+	}
+	
+	/**
+	 * Measures a blob from the coarse level again on the scaled frame. The window around the blob is blurred and 
+	 * compared against the same window of the old frame, and the blob in the window nearest to where the coarse level 
+	 * put it becomes the candidate. If nothing is found there, the coarse candidate is used as it is.
+	 * @param i The label of the blob on the coarse level.
+	 * @param old The scaled frame FRAME_DELAY frames before.
+	 */
+	private void refineCandidate(int i, Mat old) {
+		int factor = 1 << pyramidLevels;
+		int margin = factor*(DILATION_BLUR + 1);
+		int left = coarseStats[5*i + Imgproc.CC_STAT_LEFT], top = coarseStats[5*i + Imgproc.CC_STAT_TOP];
+		int right = left + coarseStats[5*i + Imgproc.CC_STAT_WIDTH], bottom = top + coarseStats[5*i + Imgproc.CC_STAT_HEIGHT];
+		// the centre of a coarse pixel covers factor pixels of the scaled frame
+		double x = (coarseCentroids[2*i] + 0.5)*factor - 0.5, y = (coarseCentroids[2*i + 1] + 0.5)*factor - 0.5;
+		double area = (double) coarseStats[5*i + Imgproc.CC_STAT_AREA]*factor*factor;
 		
-		//update background
-		backgrounds.add(grey);
-		while (backgrounds.size() > FRAME_DELAY) {
-			backgrounds.remove();
-		}	
+		if (clip(fineRect, left*factor - margin, top*factor - margin, right*factor + margin, bottom*factor + margin)) {
+			clip(fineBlurRect, fineRect.x - GREY_BLUR, fineRect.y - GREY_BLUR, 
+					fineRect.x + fineRect.width + GREY_BLUR, fineRect.y + fineRect.height + GREY_BLUR);
+			Mat nowColour = frame.submat(fineBlurRect), oldColour = old.submat(fineBlurRect);
+			Mat nowBlur = fineGrey.submat(fineBlurRect), oldBlur = fineOld.submat(fineBlurRect);
+			Imgproc.cvtColor(nowColour, nowBlur, Imgproc.COLOR_BGR2GRAY);
+			Imgproc.GaussianBlur(nowBlur, nowBlur, fineBlurSize, 0);
+			Imgproc.cvtColor(oldColour, oldBlur, Imgproc.COLOR_BGR2GRAY);
+			Imgproc.GaussianBlur(oldBlur, oldBlur, fineBlurSize, 0);
+			
+			Mat now = fineGrey.submat(fineRect), then = fineOld.submat(fineRect);
+			Mat delta = fineDelta.submat(fineRect), mask = fineMask.submat(fineRect);
+			Core.absdiff(then, now, delta);
+			Imgproc.threshold(delta, mask, THRESHOLD, 255, Imgproc.THRESH_BINARY);
+			Imgproc.dilate(mask, mask, kernel, anchor, DILATION_BLUR, Core.BORDER_CONSTANT | Core.BORDER_ISOLATED, black);
+			int m = Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids);
+			if (fineStats.length < 5*m) {
+				fineStats = new int[5*m];
+				fineCentroids = new double[2*m];
+			}
+			stats.get(0, 0, fineStats);
+			centroids.get(0, 0, fineCentroids);
+			
+			double nearest = Double.MAX_VALUE;
+			double coarseX = x, coarseY = y;
+			for (int j = 1; j < m; j++) {
+				double fx = fineRect.x + fineCentroids[2*j], fy = fineRect.y + fineCentroids[2*j + 1];
+				double distanceSquared = (fx - coarseX)*(fx - coarseX) + (fy - coarseY)*(fy - coarseY);
+				if (distanceSquared < nearest) {
+					nearest = distanceSquared;
+					x = fx;
+					y = fy;
+					area = fineStats[5*j + Imgproc.CC_STAT_AREA];
+				}
+			}
+			for (Mat window: new Mat[] {nowColour, oldColour, nowBlur, oldBlur, now, then, delta, mask}) {
+				window.release();
+			}
+		}
+		detections.add(x, y, area);
 	}
 	
 	/**
-	 * Draws contours on the frame based on the borders from the binary Mat. This is done to ascertain the potential 
-	 * locations of where the fish could have moved to.
-	 * @param frame The 
-	 * @param binary
+	 * Captures motion only in windows around the searched fish, falling back to the whole frame when a full frame 
+	 * search is due.
+	 */
+	private void captureMotionAroundFish() {
+		int n = planWindows();
+		framesSinceFullFrame++;
+		if (framesSinceFullFrame >= fullFramePeriod || framesSinceFullFrame >= LOST_FULL_FRAME_PERIOD && isAnyFishLost()) {
+			fullFrameDue = true;
+		}
+		long frameArea = (long) frame.cols()*frame.rows();
+		pixelsInFrames += frameArea;
+		
+		if (fullFrameDue || n == 0) {
+			// the background has to be learnt from whole frames before the whole frame can be searched
+			boolean backgroundsFresh = freshBackgrounds >= background.getMemory();
+			captureMotionInFrame(frame, binary);
+			freshBackgrounds = Math.min(freshBackgrounds + 1, background.getMemory());
+			pixelsProcessed += frameArea;
+			if (backgroundsFresh) {
+				findCandidates(binary, detections);
+				fullFrameDue = false;
+				framesSinceFullFrame = 0;
+			} else {
+				for (int i = 0; i < n; i++) {
+					Mat mask = binary.submat(searchRects[i]);
+					addComponents(mask, searchRects[i].x, searchRects[i].y, detections);
+					mask.release();
+				}
+			}
+		} else {
+			captureMotionInWindows(n);
+			freshBackgrounds = 0;
+		}
+	}
+	
+	/**
+	 * Does the work of captureMotionInFrame() and findCandidates() inside each window only. The greyscale frame is 
+	 * blurred with a halo around each window, so that the blur inside it matches a blur of the whole frame.
+	 * @param n The number of windows.
+	 */
+	private void captureMotionInWindows(int n) {
+		if (drawContours) {
+			binary.setTo(black);
+		}
+		for (int i = 0; i < n; i++) {
+			Mat from = frame.submat(blurRects[i]), to = grey.submat(blurRects[i]);
+			greyBlur(from, to);
+			from.release();
+			to.release();
+			pixelsProcessed += blurRects[i].area();
+		}
+		for (int i = 0; i < n; i++) {
+			Rect r = searchRects[i];
+			Mat now = grey.submat(r), delta = frameDelta.submat(r), mask = binary.submat(r);
+			background.subtract(now, delta, r);
+			Imgproc.threshold(delta, mask, THRESHOLD, 255, Imgproc.THRESH_BINARY);
+			Imgproc.dilate(mask, mask, kernel, anchor, DILATION_BLUR, Core.BORDER_CONSTANT | Core.BORDER_ISOLATED, black);
+			addComponents(mask, r.x, r.y, detections);
+			now.release();
+			delta.release();
+			mask.release();
+		}
+		background.learn(grey, keptRects, n);
+	}
+	
+	/**
+	 * Places a window around each searched fish, merging windows whose blurred areas would overlap, and clips them to 
+	 * the frame.
+	 * @return The number of windows.
+	 */
+	private int planWindows() {
+		int n = searchedFish.size();
+		if (windowX0.length < n) {
+			windowX0 = new int[n];
+			windowY0 = new int[n];
+			windowX1 = new int[n];
+			windowY1 = new int[n];
+			windowReach = new int[n];
+			searchRects = newRects(n);
+			keptRects = newRects(n);
+			blurRects = newRects(n);
+		}
+		for (int i = 0; i < n; i++) {
+			MotionPredictor predictor = searchedFish.get(i).getPredictor();
+			int gate = (int) Math.ceil(predictor.getGate());
+			int radius = gate + BLOB_MARGIN;
+			windowX0[i] = (int) predictor.getX() - radius;
+			windowY0[i] = (int) predictor.getY() - radius;
+			windowX1[i] = (int) predictor.getX() + radius + 1;
+			windowY1[i] = (int) predictor.getY() + radius + 1;
+			// the background kept now is compared against FRAME_DELAY frames later, when the fish may have moved on
+			windowReach[i] = FRAME_DELAY*gate;
+		}
+		
+		// merge overlapping windows until none overlap, so no pixel is blurred or searched twice
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (int a = 0; a < n; a++) {
+				for (int b = a + 1; b < n; b++) {
+					int band = windowReach[a] + windowReach[b] + 2*GREY_BLUR;
+					if (windowX0[a] < windowX1[b] + band && windowX0[b] < windowX1[a] + band 
+							&& windowY0[a] < windowY1[b] + band && windowY0[b] < windowY1[a] + band) {
+						windowX0[a] = Math.min(windowX0[a], windowX0[b]);
+						windowY0[a] = Math.min(windowY0[a], windowY0[b]);
+						windowX1[a] = Math.max(windowX1[a], windowX1[b]);
+						windowY1[a] = Math.max(windowY1[a], windowY1[b]);
+						windowReach[a] = Math.max(windowReach[a], windowReach[b]);
+						n--;
+						windowX0[b] = windowX0[n];
+						windowY0[b] = windowY0[n];
+						windowX1[b] = windowX1[n];
+						windowY1[b] = windowY1[n];
+						windowReach[b] = windowReach[n];
+						b--;
+						merged = true;
+					}
+				}
+			}
+		}
+		
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			int reach = windowReach[i], halo = reach + GREY_BLUR;
+			if (clip(searchRects[k], windowX0[i], windowY0[i], windowX1[i], windowY1[i])) {
+				clip(keptRects[k], windowX0[i] - reach, windowY0[i] - reach, windowX1[i] + reach, windowY1[i] + reach);
+				clip(blurRects[k], windowX0[i] - halo, windowY0[i] - halo, windowX1[i] + halo, windowY1[i] + halo);
+				k++;
+			}
+		}
+		return k;
+	}
+	
+	/**
+	 * Sets a rectangle to the part of a region that lies inside the frame.
+	 * @return True, if any of the region is inside the frame.
+	 */
+	private boolean clip(Rect rect, int x0, int y0, int x1, int y1) {
+		rect.x = Math.max(x0, 0);
+		rect.y = Math.max(y0, 0);
+		rect.width = Math.min(x1, frame.cols()) - rect.x;
+		rect.height = Math.min(y1, frame.rows()) - rect.y;
+		return rect.width > 0 && rect.height > 0;
+	}
+	
+	private boolean isAnyFishLost() {
+		for (Fish fish: searchedFish) {
+			if (fish.getPredictor().isLost()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static Rect[] newRects(int n) {
+		Rect[] rects = new Rect[n];
+		for (int i = 0; i < n; i++) {
+			rects[i] = new Rect();
+		}
+		return rects;
+	}
+	
+	/**
+	 * Draws contours on the frame based on the borders from the binary Mat. Tracking only needs the candidate centres
+	 * from findCandidates(), so this is only used to show the captured motion to the user.
+	 * @param frame The frame to draw on.
+	 * @param binary The motion mask.
 	 * @return A list of all unique contours found.
 	 */
-	public synchronized List<MatOfPoint> drawBlobs(Mat frame, Mat binary) {
-		contours = new ArrayList<MatOfPoint>();
-		Imgproc.findContours(binary, contours, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-		Imgproc.drawContours(frame, contours, -1, colour);
+	public List<MatOfPoint> drawBlobs(Mat frame, Mat binary) {
+		// free the previous frame's contours now, rather than waiting for them to be finalised
+		for (MatOfPoint contour: contours) {
+			contour.release();
+		}
+		contours.clear();
+		Imgproc.findContours(binary, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+		if (drawContours) {
+			Imgproc.drawContours(frame, contours, -1, colour);
+		}
 		return contours;
 	}
 	
@@ -126,33 +890,203 @@ public class MotionVideoCapture extends VideoCapture {
 	
 
 	/**
-	 * Reads the next frame from the VideoCapture stack. It resizes the image to match frameSize.
+	 * Reads the next frame from the VideoCapture stack. It resizes the image to match frameSize. The frame is decoded
+	 * into a scratch buffer first, so that neither the decoded nor the resized frame needs to be reallocated.
+	 * <p> This is not synchronised, so that a pipeline can read the next frame while motion is being captured in the 
+	 * previous one. Only one thread should read at a time.
 	 */
 	@Override
-	public synchronized boolean read(Mat frame) {
-		boolean frameFound = super.read(frame);
-		if (frameFound) { Imgproc.resize(frame, frame, frameSize, 0, 0, Imgproc.INTER_AREA); }
+	public boolean read(Mat frame) {
+		boolean frameFound = super.read(raw);
+		if (frameFound) { Imgproc.resize(raw, frame, frameSize, 0, 0, Imgproc.INTER_AREA); }
 		return frameFound;
 	}
 	
 	/**
-	 * Reads the next scaled frame from the VideoCapture stack. It also draws blob outlines to register captured motion 
+	 * Reads the next scaled frame from the VideoCapture stack, and finds the candidate fish centres in it, unless the
+	 * frame is skipped as static. If contours are being drawn, it also draws blob outlines to register captured motion 
 	 * in the frame.
 	 * @return True, if there is a next frame in the stack.
 	 */
 	public synchronized boolean nextFrame() {
 		boolean frameFound = read(frame);
-		if (frameFound && !backgrounds.isEmpty()) {
-			captureMotionInFrame(frame, binary);
-			drawBlobs(frame, binary);
+		if (frameFound && background.isReady()) {
+			detections.clear(get(Videoio.CAP_PROP_POS_MSEC));
+			boolean masked = true;
+			if (signature != null && signature.isStatic(frame)) {
+				detections.markStatic();
+				masked = false;
+			} else if (flow != null) {
+				masked = captureMotionWithFlow();
+			} else if (pyramidLevels > 0) {
+				captureMotionInPyramid();
+			} else if (strips != null) {
+				strips.capture(frame, grey, binary, background, detections);
+			} else if (searchedFish == null) {
+				detectInFrame();
+			} else {
+				captureMotionAroundFish();
+			}
+			if (drawContours && pyramidLevels == 0 && masked) {
+				drawBlobs(motionFrame(), binary);
+			}
 		}
 		return frameFound;
 	}
 	
+	/**
+	 * Reads the next scaled frame without capturing any motion in it, for replaying a track that was recorded earlier.
+	 * The detections are left empty, with only the frame's timestamp.
+	 * @return True, if there is a next frame in the stack.
+	 */
+	public synchronized boolean replayFrame() {
+		boolean frameFound = read(frame);
+		if (frameFound) {
+			detections.clear(get(Videoio.CAP_PROP_POS_MSEC));
+		}
+		return frameFound;
+	}
+	
+	/**
+	 * Moves the capture so that the next frame read is the given one, such as when resuming from a checkpoint. A seek 
+	 * by frame number is only as accurate as the codec allows, so if the capture lands anywhere else, the video is 
+	 * grabbed from the start up to the frame instead, which is slow but exact. Nothing is learnt from the frames skipped.
+	 * @param index The 0-based index of the next frame to be read.
+	 * @return True, if the video has that many frames.
+	 */
+	public synchronized boolean seekExactly(long index) {
+		if (set(Videoio.CAP_PROP_POS_FRAMES, index) && (long) get(Videoio.CAP_PROP_POS_FRAMES) == index) {
+			return true;
+		}
+		set(Videoio.CAP_PROP_POS_FRAMES, 0);
+		for (long i = 0; i < index; i++) {
+			if (!grab()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Moves the capture to a frame and reads it, such as when the user scrubs through the movie. The frame that the 
+	 * codec lands on is checked against the video's FrameIndex, and if it isn't the one asked for, the capture goes back 
+	 * to the nearest earlier frame that a seek is known to land on, and grabs forward from there. A seek that lands 
+	 * where it should is remembered, so that later seeks near it are just as quick.
+	 * <p> None of the frames before the one sought have been learnt, so motion capture starts again from it, as if the
+	 * capture had been built there: the frame becomes the first background, the frame signature and optical flow are 
+	 * forgotten, and a search of the whole frame is due. Motion is captured from the next frame read, and is never 
+	 * compared against a frame from before the seek.
+	 * @param index The 0-based index of the frame.
+	 * @param frames The FrameIndex of the video, or null to trust the codec's seek.
+	 * @return True, if the frame was read.
+	 */
+	public synchronized boolean seekTo(int index, FrameIndex frames) {
+		set(Videoio.CAP_PROP_POS_FRAMES, index);
+		boolean frameFound = read(frame);
+		if (frameFound && frames != null && frames.contains(index)) {
+			if (frames.findFrame(get(Videoio.CAP_PROP_POS_MSEC)) == index) {
+				frames.addSeekPoint(index);
+			} else {
+				int from = frames.getSeekPoint(index);
+				set(Videoio.CAP_PROP_POS_FRAMES, from);
+				for (int i = from; i < index && frameFound; i++) {
+					frameFound = grab();
+				}
+				frameFound = frameFound && read(frame);
+			}
+		}
+		if (frameFound) {
+			detections.clear(get(Videoio.CAP_PROP_POS_MSEC));
+			if (signature != null) {
+				signature.clear();
+			}
+			if (pastFrames != null) {
+				pastFrames.clear();
+				pastFrames.push(frame);
+			}
+			restartBackground();
+			fullFrameDue = true;
+			framesSinceDetection = flowPeriod;
+		}
+		return frameFound;
+	}
+	
+	/**
+	 * Carries on from where a previous capture left off, by sharing its frame, motion mask and background model. This
+	 * capture's own versions of those are no longer needed, so they are released.
+	 * @param prev The capture of the previous video.
+	 */
 	public void linkToPrevious(MotionVideoCapture prev) {
+		if (frame != prev.frame) {
+			releaseShared();
+		}
 		this.frame = prev.frame;
 		this.binary = prev.binary;
 		this.frameSize = prev.frameSize;	// might need to rescale if videos are different sizes
-		this.backgrounds = prev.backgrounds;
+		this.background = prev.background;
+		this.backgroundName = prev.backgroundName;
+		this.pastFrames = prev.pastFrames;
+		this.fusedKernel = prev.fusedKernel;
+		cropToTank();
+		// the shared background may have been learnt only around the fish
+		freshBackgrounds = 0;
+		fullFrameDue = true;
+		framesSinceDetection = flowPeriod;
+	}
+	
+	/**
+	 * Closes the video and frees the native memory of this capture's scratch buffers. The frame, motion mask and 
+	 * background model may be shared with linked captures, so they are left alone; use releaseShared() for those.
+	 */
+	@Override
+	public void release() {
+		super.release();
+		for (MatOfPoint contour: contours) {
+			contour.release();
+		}
+		contours.clear();
+		raw.release();
+		grey.release();
+		frameDelta.release();
+		hierarchy.release();
+		labels.release();
+		stats.release();
+		centroids.release();
+		kernel.release();
+		chain.release();
+		for (Mat level: pyramid) {
+			level.release();
+		}
+		fineGrey.release();
+		fineOld.release();
+		fineDelta.release();
+		fineMask.release();
+		if (strips != null) {
+			strips.release();
+		}
+		if (signature != null) {
+			signature.release();
+		}
+		if (flow != null) {
+			flow.release();
+		}
+		if (tankFrame != null) {
+			tankFrame.release();
+		}
+	}
+	
+	/**
+	 * Frees the native memory of the frame, motion mask and background model. Only call this once no linked capture
+	 * needs them any more.
+	 */
+	public void releaseShared() {
+		frame.release();
+		binary.release();
+		if (background != null) {
+			background.release();
+		}
+		if (pastFrames != null) {
+			pastFrames.release();
+		}
 	}
 }
@@ -0,0 +1,100 @@
+package com.tracker.model;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A background that is an exponentially weighted average of every frame so far, updated with accumulateWeighted. It 
+ * only needs one floating point frame however long it remembers, and fish that stop for a while still show up until 
+ * the average catches up with them.
+ */
+public class RunningAverageBackground implements BackgroundModel {
+	private double rate;
+	private Mat average = new Mat(), background = new Mat();
+	
+	/**
+	 * @param rate The weight of each new frame in the average, between 0 and 1. Smaller rates remember for longer.
+	 */
+	public RunningAverageBackground(double rate) {
+		this.rate = rate;
+	}
+	
+	public double getRate() { return rate; }
+	
+	@Override
+	public void subtract(Mat grey, Mat difference) {
+		average.convertTo(background, CvType.CV_8U);
+		Core.absdiff(background, grey, difference);
+	}
+	
+	@Override
+	public void subtract(Mat grey, Mat difference, Rect region) {
+		// the region's background goes straight into the difference, so nothing shared is written
+		Mat mean = average.submat(region);
+		mean.convertTo(difference, CvType.CV_8U);
+		Core.absdiff(difference, grey, difference);
+		mean.release();
+	}
+	
+	@Override
+	public void learn(Mat grey) {
+		if (average.empty()) {
+			grey.convertTo(average, CvType.CV_32F);
+		} else {
+			Imgproc.accumulateWeighted(grey, average, rate);
+		}
+	}
+	
+	/**
+	 * Only use this once a whole frame has been learnt.
+	 */
+	@Override
+	public void learn(Mat grey, Rect[] regions, int n) {
+		for (int i = 0; i < n; i++) {
+			Mat now = grey.submat(regions[i]), mean = average.submat(regions[i]);
+			Imgproc.accumulateWeighted(now, mean, rate);
+			now.release();
+			mean.release();
+		}
+	}
+	
+	@Override
+	public boolean supportsRegions() { return true; }
+	
+	@Override
+	public boolean isReady() { return !average.empty(); }
+	
+	/**
+	 * A stale region never quite disappears from an average, so this is the number of frames it takes for it to fall 
+	 * to about a third of its original weight.
+	 */
+	@Override
+	public int getMemory() { return (int) Math.ceil(1/rate); }
+	
+	@Override
+	public Mat[] snapshot() {
+		return average.empty() ? new Mat[0] : new Mat[] {average.clone()};
+	}
+	
+	@Override
+	public void restore(Mat[] state) {
+		clear();
+		if (state.length > 0) {
+			state[0].copyTo(average);
+		}
+	}
+	
+	@Override
+	public void clear() {
+		average.release();
+		average = new Mat();
+	}
+	
+	@Override
+	public void release() {
+		average.release();
+		background.release();
+	}
+}
@@ -0,0 +1,132 @@
+package com.tracker.model;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * The outline of the tank, as a polygon drawn by the user on the scaled frame. Motion is only captured inside the
+ * polygon's bounding rectangle, and any motion outside the polygon itself, such as on the rim, the bench or in
+ * reflections, is masked away before candidates are looked for.
+ * <p> The polygon is saved in a small text file next to the video, with one x,y corner per line, so it only has to be
+ * drawn once for each recording.
+ */
+public class TankMask {
+	public final static String EXTENSION = ".tank";
+	private final List<Point> polygon;
+	private final Rect bounds;
+	private final Mat mask;
+
+	/**
+	 * @param polygon The corners of the tank, in order around it, in pixels of the scaled frame.
+	 * @param frameSize The size of the scaled frame.
+	 * @throws IllegalArgumentException If the polygon has fewer than 3 corners, or lies outside the frame.
+	 */
+	public TankMask(List<Point> polygon, Size frameSize) {
+		if (polygon.size() < 3) {
+			throw new IllegalArgumentException("The tank needs at least 3 corners");
+		}
+		this.polygon = Collections.unmodifiableList(new ArrayList<Point>(polygon));
+		double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+		for (Point corner: polygon) {
+			x0 = Math.min(x0, corner.x);
+			y0 = Math.min(y0, corner.y);
+			x1 = Math.max(x1, corner.x);
+			y1 = Math.max(y1, corner.y);
+		}
+		int left = Math.max((int) Math.floor(x0), 0), top = Math.max((int) Math.floor(y0), 0);
+		int right = Math.min((int) Math.ceil(x1) + 1, (int) frameSize.width);
+		int bottom = Math.min((int) Math.ceil(y1) + 1, (int) frameSize.height);
+		if (right <= left || bottom <= top) {
+			throw new IllegalArgumentException("The tank lies outside the frame");
+		}
+		bounds = new Rect(left, top, right - left, bottom - top);
+
+		// the mask covers the bounding rectangle only, so the polygon is moved to its corner
+		Point[] corners = new Point[polygon.size()];
+		for (int i = 0; i < corners.length; i++) {
+			corners[i] = new Point(polygon.get(i).x - left, polygon.get(i).y - top);
+		}
+		MatOfPoint outline = new MatOfPoint(corners);
+		mask = Mat.zeros(bounds.height, bounds.width, CvType.CV_8UC1);
+		Imgproc.fillPoly(mask, Arrays.asList(outline), new Scalar(255));
+		outline.release();
+	}
+
+	/* Getters */
+	public List<Point> getPolygon() { return polygon; }
+	public Rect getBounds() { return bounds; } // the part of the frame that motion is captured in
+	public Mat getMask() { return mask; } // 255 inside the tank, over the bounding rectangle
+
+	/**
+	 * @param video A video file.
+	 * @return The file that the tank outline for the video is saved in.
+	 */
+	public static File sidecarOf(File video) {
+		return new File(video.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Reads the corners of a tank from a file written by save().
+	 * @param file The tank file.
+	 * @return The corners of the tank, in order.
+	 * @throws IOException If the file can't be read, or a line isn't an x,y pair.
+	 */
+	public static List<Point> load(File file) throws IOException {
+		List<Point> corners = new ArrayList<Point>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] xy = line.split(",");
+				try {
+					if (xy.length != 2) {
+						throw new NumberFormatException();
+					}
+					corners.add(new Point(Double.parseDouble(xy[0]), Double.parseDouble(xy[1])));
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid tank corner in " + file + ": " + line);
+				}
+			}
+		}
+		return corners;
+	}
+
+	/**
+	 * Writes the corners of the tank to a file, one x,y pair per line.
+	 * @param file The location for the tank to be saved to.
+	 * @throws FileNotFoundException If location is invalid.
+	 */
+	public void save(File file) throws FileNotFoundException {
+		try (PrintWriter writer = new PrintWriter(file)) {
+			for (Point corner: polygon) {
+				writer.println(corner.x + "," + corner.y);
+			}
+		}
+	}
+
+	/**
+	 * Frees the native memory of the mask.
+	 */
+	public void release() {
+		mask.release();
+	}
+}
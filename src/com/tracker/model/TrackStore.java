@@ -0,0 +1,140 @@
+package com.tracker.model;
+import java.util.Arrays;
+
+/**
+ * The recorded track of a single fish, stored as columns of primitives rather than an object per sample. Each sample
+ * is the frame index, the video timestamp in ms, the fish's centre in pixels, and a few flags, which is 25 bytes.
+ * <p> The columns are split into chunks of CHUNK_SIZE samples, so a long track never needs one huge array, nor copying
+ * when it grows. Appending a sample only allocates when a new chunk is started. Samples are read back either by index,
+ * or in order with a Cursor, neither of which allocates per sample.
+ */
+public class TrackStore {
+	public final static int STATIC = 1; // recorded in a frame that was skipped as static
+	public final static int MISSED = 2; // no motion was assigned to the fish in the frame
+	private final static int CHUNK_BITS = 12, CHUNK_SIZE = 1 << CHUNK_BITS, CHUNK_MASK = CHUNK_SIZE - 1;
+	private long[][] frames = new long[0][];
+	private double[][] timestamps = new double[0][];
+	private float[][] xs = new float[0][], ys = new float[0][];
+	private byte[][] flags = new byte[0][];
+	private int size = 0, chunks = 0;
+
+	/* Getters */
+	public int size() { return size; }
+	public long getFrame(int i) { return frames[i >> CHUNK_BITS][i & CHUNK_MASK]; }
+	public double getTimestamp(int i) { return timestamps[i >> CHUNK_BITS][i & CHUNK_MASK]; }
+	public float getX(int i) { return xs[i >> CHUNK_BITS][i & CHUNK_MASK]; }
+	public float getY(int i) { return ys[i >> CHUNK_BITS][i & CHUNK_MASK]; }
+	public int getFlags(int i) { return flags[i >> CHUNK_BITS][i & CHUNK_MASK]; }
+
+	/**
+	 * Adds a sample to the end of the track.
+	 * @param frame The index of the frame the sample was recorded in.
+	 * @param timestamp Time from the video, in ms.
+	 * @param x The x coordinate of the fish, in pixels.
+	 * @param y The y coordinate of the fish, in pixels.
+	 * @param sampleFlags Any of STATIC and MISSED, or 0.
+	 */
+	public void append(long frame, double timestamp, float x, float y, int sampleFlags) {
+		int chunk = size >> CHUNK_BITS, i = size & CHUNK_MASK;
+		if (chunk == chunks) {
+			addChunk();
+		}
+		frames[chunk][i] = frame;
+		timestamps[chunk][i] = timestamp;
+		xs[chunk][i] = x;
+		ys[chunk][i] = y;
+		flags[chunk][i] = (byte) sampleFlags;
+		size++;
+	}
+
+	/**
+	 * @return The length of the path from each sample to the next, in pixels.
+	 */
+	public double getPathLength() {
+		double length = 0;
+		for (int i = 1; i < size; i++) {
+			double dx = getX(i) - getX(i - 1), dy = getY(i) - getY(i - 1);
+			length += Math.sqrt(dx*dx + dy*dy);
+		}
+		return length;
+	}
+
+	/**
+	 * Forgets every sample after the first few, keeping the chunks for reuse.
+	 * @param size The number of samples kept.
+	 */
+	public void truncate(int size) {
+		if (size < 0 || size > this.size) {
+			throw new IndexOutOfBoundsException("Can't keep " + size + " of " + this.size + " samples");
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Forgets every sample, keeping the chunks for reuse.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return A cursor positioned before the first sample.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	private void addChunk() {
+		if (chunks == frames.length) {
+			int capacity = Math.max(2*chunks, 4);
+			frames = Arrays.copyOf(frames, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+		frames[chunks] = new long[CHUNK_SIZE];
+		timestamps[chunks] = new double[CHUNK_SIZE];
+		xs[chunks] = new float[CHUNK_SIZE];
+		ys[chunks] = new float[CHUNK_SIZE];
+		flags[chunks] = new byte[CHUNK_SIZE];
+		chunks++;
+	}
+
+	/**
+	 * Steps through the samples of a track in order. Call next() before reading the first sample.
+	 * <pre>
+	 * TrackStore.Cursor cursor = track.cursor();
+	 * while (cursor.next()) {
+	 *     use(cursor.getX(), cursor.getY());
+	 * }
+	 * </pre>
+	 */
+	public class Cursor {
+		private int index = -1, chunk = 0, offset = -1;
+
+		/**
+		 * Moves on to the next sample.
+		 * @return True, if there is a next sample.
+		 */
+		public boolean next() {
+			if (index + 1 >= size) {
+				return false;
+			}
+			index++;
+			if (++offset == CHUNK_SIZE) {
+				chunk++;
+				offset = 0;
+			}
+			return true;
+		}
+
+		/* Getters for the current sample */
+		public int getIndex() { return index; }
+		public long getFrame() { return frames[chunk][offset]; }
+		public double getTimestamp() { return timestamps[chunk][offset]; }
+		public float getX() { return xs[chunk][offset]; }
+		public float getY() { return ys[chunk][offset]; }
+		public int getFlags() { return flags[chunk][offset]; }
+	}
+}
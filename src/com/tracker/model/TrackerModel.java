@@ -1,7 +1,7 @@
 package com.tracker.model;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -14,17 +14,51 @@ import org.opencv.core.Point;
 import org.opencv.core.Size;
 import org.opencv.videoio.Videoio;
 
+import com.tracker.engine.CsvTrackImporter;
+import com.tracker.engine.CsvTrackWriter;
+import com.tracker.engine.StreamingTrackWriter;
+import com.tracker.engine.TrackReplayer;
+import com.tracker.engine.TrackingEngine;
+import com.tracker.engine.TrackingListener;
+
 public class TrackerModel extends Observable {
+	public final static String AUTOSAVE_EXTENSION = ".autosave.csv";
+	private final static long AUTOSAVE_MILLIS = 5000;
+	private final static long FRAME_CACHE_BYTES = 256L << 20; // about 400 frames at the default scale
 	private MoviePlayer player;
-	private List<Fish> fishes = new ArrayList<Fish>(Fish.NUM_FISH);
+	private List<Fish> fishes = new ArrayList<Fish>();
+	private TankMask tank = null;
+	private File tankFile = null; // where the tank is saved, next to the first video
+	private StreamingTrackWriter autosave = null; // streams the tracks next to the first video, in case of a crash
+	private File autosaveFile = null;
+	private final List<FrameIndex> frameIndexes = new ArrayList<FrameIndex>(); // one per video, built in the background
+	private final FrameCache frameCache = new FrameCache(FRAME_CACHE_BYTES); // recently played frames
+	private final Mat browsedFrame = new Mat();
+	private volatile int browsedIndex = -1; // the cached frame shown while paused, or -1 to show the player's frame
+	private volatile int playingIndex = 0; // the frame the player is on, over every video
 	
-	public TrackerModel(Queue<File> videoFiles) {
+	/**
+	 * Builds a model that tracks a given number of fish through a queue of videos.
+	 * @param videoFiles The videos to be tracked, in order.
+	 * @param numFish The number of fish in the tank.
+	 */
+	public TrackerModel(Queue<File> videoFiles, int numFish) {
 		player = new MoviePlayer(videoFiles);
-		initialiseFish(new Point(20,20));
+		startIndexing(videoFiles);
+		initialiseFish(new Point(20,20), numFish);
+		if (!videoFiles.isEmpty()) {
+			tankFile = TankMask.sidecarOf(videoFiles.peek());
+			loadTank();
+			startAutosave(new File(videoFiles.peek().getPath() + AUTOSAVE_EXTENSION));
+		}
 		// TODO calibrate first before allowing user to play
 		player.start(); pauseMovie();
 	}
 	
+	public TrackerModel(Queue<File> videoFiles) {
+		this(videoFiles, Fish.NUM_FISH);
+	}
+	
 	public TrackerModel(File videoFile) {
 		this(new LinkedList<File>(Arrays.asList(videoFile)));
 	}
@@ -36,7 +70,14 @@ public class TrackerModel extends Observable {
 		this(new LinkedList<File>());
 	}
 	
+    /**
+     * Plays the movie on from the frame shown. If a cached frame was being browsed, the player seeks to it first.
+     */
     public synchronized void resumeMovie() {
+    	if (browsedIndex >= 0 && browsedIndex != playingIndex) {
+    		seek(browsedIndex);
+    	}
+    	browsedIndex = -1;
     	player.unpause();
     }
     
@@ -57,19 +98,155 @@ public class TrackerModel extends Observable {
     }
     
 	public int getTotalFrames() {
-		int totalFrameCount = 0;
-		for (MotionVideoCapture video: player.videos) {
-			totalFrameCount += (int) video.get(Videoio.CAP_PROP_FRAME_COUNT);
-		}
-		return totalFrameCount;
+		return getFirstFrame(player.engine.getVideos().size());
 	}
 	
+	/**
+	 * @return The frame shown, which is a cached frame while one is being browsed.
+	 */
 	public Mat getCurrentFrame() {
-		return player.currentVideo().getFrame();
+		return browsedIndex >= 0 ? browsedFrame : player.currentVideo().getFrame();
 	}
 	
+	/**
+	 * @return The index of the frame shown, over every video.
+	 */
 	public int getCurrentFrameIndex() {
-		return player.frameCounter;
+		return browsedIndex >= 0 ? browsedIndex : playingIndex;
+	}
+	
+	/**
+	 * @return The number of frames in a video, from its FrameIndex once that is complete, or from the video's header.
+	 */
+	private int getFrameCount(int video) {
+		if (video < frameIndexes.size() && frameIndexes.get(video).isComplete()) {
+			return frameIndexes.get(video).size();
+		}
+		return (int) player.engine.getVideos().get(video).get(Videoio.CAP_PROP_FRAME_COUNT);
+	}
+	
+	/**
+	 * @return The index over every video of the first frame of a video.
+	 */
+	private int getFirstFrame(int video) {
+		int first = 0;
+		for (int i = 0; i < video; i++) {
+			first += getFrameCount(i);
+		}
+		return first;
+	}
+	
+	/**
+	 * Pauses the movie and shows a frame, such as when the user lets go of the seek bar. A frame that was played 
+	 * recently is shown from the FrameCache straight away, and the player only seeks to it if the movie is resumed 
+	 * from there. Any other frame is sought straight away, which starts motion capture again from it.
+	 * @param index The index of the frame over every video.
+	 */
+	public void showFrame(int index) {
+		pauseMovie();
+		index = Math.max(0, Math.min(index, getTotalFrames() - 1));
+		if (index == playingIndex) {
+			browsedIndex = -1;
+		} else if (frameCache.get(index, browsedFrame)) {
+			browsedIndex = index;
+		} else {
+			seek(index);
+		}
+		setChanged(); notifyObservers();
+	}
+	
+	/**
+	 * Pauses the movie and shows the cached frame nearest to a frame, without seeking, so that dragging the seek bar 
+	 * never waits on the decoder.
+	 * @param index The index of the frame over every video.
+	 * @return The index of the frame shown, or -1 if no frames are cached.
+	 */
+	public int previewFrame(int index) {
+		pauseMovie();
+		long nearest = frameCache.nearest(index);
+		if (nearest < 0 || !frameCache.get(nearest, browsedFrame)) {
+			return -1;
+		}
+		browsedIndex = nearest == playingIndex ? -1 : (int) nearest;
+		setChanged(); notifyObservers();
+		return (int) nearest;
+	}
+	
+	/**
+	 * Pauses the movie and shows the frame before the one shown.
+	 */
+	public void stepBackward() {
+		showFrame(getCurrentFrameIndex() - 1);
+	}
+	
+	/**
+	 * Pauses the movie and shows the frame after the one shown. If that is the player's next frame, it is tracked as
+	 * usual.
+	 */
+	public void stepForward() {
+		if (browsedIndex >= 0) {
+			showFrame(browsedIndex + 1);
+			return;
+		}
+		pauseMovie();
+		synchronized (player.pauseLock) {
+			boolean stepped = false;
+			while (!stepped && player.engine.hasNext()) {
+				stepped = player.engine.step();
+			}
+		}
+	}
+	
+	/**
+	 * Moves the player to a frame. The player must already be paused.
+	 * @param index The index of the frame over every video.
+	 */
+	private void seek(int index) {
+		synchronized (player.pauseLock) {
+			int video = 0, frame = index;
+			while (video + 1 < player.engine.getVideos().size() && frame >= getFrameCount(video)) {
+				frame -= getFrameCount(video);
+				video++;
+			}
+			FrameIndex frames = video < frameIndexes.size() ? frameIndexes.get(video) : null;
+			if (player.engine.seek(video, frame, index, frames)) {
+				playingIndex = index;
+				frameCache.put(index, player.currentVideo().getFrame());
+				restartAutosave();
+			} else {
+				System.out.println("Error: Unable to seek to frame " + index);
+			}
+			browsedIndex = -1;
+		}
+	}
+	
+	/**
+	 * Builds the FrameIndex of every video on a background thread, one after the other, so that seeking is checked
+	 * against them and the frame counts are exact once they are done.
+	 */
+	private void startIndexing(Queue<File> videoFiles) {
+		for (File file: videoFiles) {
+			frameIndexes.add(new FrameIndex(file.getAbsolutePath()));
+		}
+		Thread indexer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				int frames = 0;
+				for (FrameIndex index: frameIndexes) {
+					index.build();
+					frames += index.size();
+				}
+				System.out.printf("Indexed %d frames in %.1f s\n", frames, (System.nanoTime() - start)/1e9);
+			}
+		}, "Frame indexer");
+		indexer.setDaemon(true);
+		indexer.setPriority(Thread.MIN_PRIORITY);
+		indexer.start();
+	}
+	
+	public TrackReplayer getReplayer() {
+		return player.engine.getReplayer();
 	}
 	
 	public double getFps() {
@@ -77,11 +254,110 @@ public class TrackerModel extends Observable {
 	}
 	
 	/** 
-	 * Initialises fish location based on user's click location.
+	 * Initialises the fish in a row starting from pos, spaced far enough apart that each one can be picked up and 
+	 * dragged to its real location with Calibrate Fish.
+	 */
+	private void initialiseFish(Point pos, int numFish) {
+		for (int i = 0; i < numFish; i++) {
+			fishes.add(new Fish(new Point(pos.x + 30*i, pos.y), i));
+		}
+	}
+	
+	/**
+	 * Gets the outline of the tank that motion is captured in.
+	 * @return The corners of the tank, or null if motion is captured in the whole frame.
+	 */
+	public List<Point> getTankPolygon() {
+		return tank != null ? tank.getPolygon() : null;
+	}
+	
+	/**
+	 * Restricts motion capture to the tank, and saves its outline next to the first video so that it is used again the
+	 * next time the video is opened.
+	 * @param polygon The corners of the tank in pixels of the frame, or null to capture motion in the whole frame.
+	 */
+	public void setTankPolygon(List<Point> polygon) {
+		applyTank(polygon);
+		if (tankFile == null) {
+			return;
+		}
+		if (tank == null) {
+			tankFile.delete();
+			return;
+		}
+		try {
+			tank.save(tankFile);
+		} catch (FileNotFoundException e) {
+			System.out.println("Error: Unable to save the tank to " + tankFile.getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Uses the tank saved next to the first video, if there is one.
+	 */
+	private void loadTank() {
+		if (!tankFile.isFile()) {
+			return;
+		}
+		try {
+			applyTank(TankMask.load(tankFile));
+			System.out.println("Tank loaded from " + tankFile.getAbsolutePath());
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println("Error: Unable to load the tank, " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Streams each data point to a file while tracking, so that little is lost if the tracker crashes before the data
+	 * is saved. The tracks are still kept in memory for Save Data.
+	 */
+	private void startAutosave(File file) {
+		autosaveFile = file;
+		try {
+			autosave = new StreamingTrackWriter(file, AUTOSAVE_MILLIS, false);
+			player.engine.setTrackWriter(autosave);
+		} catch (IOException e) {
+			System.out.println("Error: Unable to autosave to " + file.getAbsolutePath());
+		}
+	}
+	
+	private void stopAutosave() {
+		if (autosave == null) {
+			return;
+		}
+		player.engine.setTrackWriter(null);
+		try {
+			autosave.close();
+		} catch (IOException e) {
+			System.out.println("Error: Unable to finish the autosave, " + e.getMessage());
+		}
+		autosave = null;
+	}
+	
+	/**
+	 * Rewrites the autosave from the tracks in memory and carries on streaming to it, after a seek has dropped samples 
+	 * from the tracks or the autosave was closed at the end of the last video.
 	 */
-	private void initialiseFish(Point pos) {
-		for (int i = 0; i < Fish.NUM_FISH; i++) {
-			fishes.add(new Fish(pos, i));
+	private void restartAutosave() {
+		if (autosaveFile == null || player.engine.getReplayer() != null) {
+			return;
+		}
+		stopAutosave();
+		try {
+			CsvTrackWriter.write(fishes, autosaveFile);
+			autosave = new StreamingTrackWriter(autosaveFile, AUTOSAVE_MILLIS, false, true);
+			player.engine.setTrackWriter(autosave);
+		} catch (IOException e) {
+			System.out.println("Error: Unable to autosave to " + autosaveFile.getAbsolutePath());
+		}
+	}
+	
+	private void applyTank(List<Point> polygon) {
+		TankMask old = tank;
+		tank = polygon != null ? new TankMask(polygon, getFrameSize()) : null;
+		player.engine.setTankMask(tank);
+		if (old != null) {
+			old.release();
 		}
 	}
 	
@@ -107,24 +383,48 @@ public class TrackerModel extends Observable {
 		return null;
 	}
 	
+	/**
+	 * Loads the tracks saved in a csv or tsv file and replays them over the videos, instead of tracking the fish. The
+	 * fish are replaced by those in the file, and each is moved to its recorded position as the frames are read, from
+	 * the current frame onwards.
+	 * @param file A csv file saved by the tracker, or a tsv file with the same layout.
+	 * @throws IOException If the file can't be read, or isn't a csv file of tracks.
+	 */
+	public void loadTracks(File file) throws IOException {
+		CsvTrackImporter importer = new CsvTrackImporter(file, file.getName().endsWith(".tsv") ? '\t' : ',');
+		try {
+			importer.run();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + file);
+		}
+		synchronized (player.pauseLock) {
+			fishes.clear();
+			for (int k = 0; k < importer.getFishCount(); k++) {
+				TrackStore track = importer.getTracks().get(k);
+				Point start = track.size() > 0 ? new Point(track.getX(0), track.getY(0)) : new Point(20 + 30*k, 20);
+				fishes.add(new Fish(start, importer.getFishIndex(k), track));
+			}
+			TrackReplayer replayer = new TrackReplayer(fishes);
+			for (int i = 0; i < player.engine.getVideoIndex(); i++) {
+				replayer.nextVideo();
+			}
+			replayer.moveTo(player.currentVideo().get(Videoio.CAP_PROP_POS_MSEC));
+			player.engine.setReplayer(replayer);
+		}
+		System.out.printf("Loaded %d rows of %d fish in %d chunks\n", importer.getRows(), importer.getFishCount(), 
+				importer.getChunkCount());
+		setChanged(); notifyObservers();
+	}
+	
 	/**
 	 * Saves the data from each fish into a csv file. Each fish is separated by an empty column.
 	 * @param file The location for the data to be saved to.
 	 * @throws FileNotFoundException If location is invalid.
 	 */
 	public void saveDataAsCSV(File file) throws FileNotFoundException {
-		try (PrintWriter writer = new PrintWriter(file)) {
-			int n_data = fishes.get(0).data.size();
-			for (int i = 0; i < n_data; i++) {
-				StringBuilder sb = new StringBuilder();
-				for (Fish fish: fishes) {
-					sb.append(fish.data.get(i).toCSV());
-					sb.append(",,");
-				}
-				sb.append("\n");
-				writer.write(sb.toString());
-			}
-			
+		try {
+			CsvTrackWriter.write(fishes, file);
 		} catch (FileNotFoundException e) {
 			System.out.println("Error: File not found");
 			throw new FileNotFoundException();
@@ -133,14 +433,13 @@ public class TrackerModel extends Observable {
 	
 	/**
 	 * An internal class to handle the multi-threading necessary to have the movie playing while performing gui actions.
+	 * The tracking itself is done by a TrackingEngine, which the player steps through one frame at a time.
 	 */
-	public class MoviePlayer extends Thread implements Runnable {
+	public class MoviePlayer extends Thread implements Runnable, TrackingListener {
 		private volatile boolean running = true;
 	    private volatile boolean paused = false;
 	    private final Object pauseLock = new Object();
-	    private List<MotionVideoCapture> videos;
-		private int videoIndex = 0;
-		private int frameCounter = 0, dataCounter = 0, framesPerDataCount = 10;
+	    private TrackingEngine engine;
 		
 		
 		public MoviePlayer() {
@@ -148,14 +447,17 @@ public class TrackerModel extends Observable {
 		}
 		
 		public MoviePlayer(Queue<File> videoFiles) {
-			videos = new ArrayList<MotionVideoCapture>();
+			List<MotionVideoCapture> videos = new ArrayList<MotionVideoCapture>();
 			for (File file: videoFiles) {
 				videos.add(new MotionVideoCapture(file.getAbsolutePath()));
 			}
+			engine = new TrackingEngine(videos, fishes);
+			engine.setStaticFrameFloor(FrameSignature.DEFAULT_NOISE_FLOOR);
+			engine.addListener(this);
 		}
 		
 		public void run() {
-			while (running && currentVideo().isOpened()) {
+			while (running) {
 				synchronized (pauseLock) {
 					if (!running) { // may have changed while waiting to synchronise on pauseLock
 						break;
@@ -171,33 +473,39 @@ public class TrackerModel extends Observable {
 	                    } catch (InterruptedException ex) {
 	                        break;
 	                    } finally {
-	                    	dataCounter = 0;
+	                    	engine.resetDataCounter();
 	                    }
 	                    if (!running) { // running might have changed since we paused
 	                        break;
 	                    }
 	                }
 					
-					// get the next frame of the video
-					if (currentVideo().nextFrame()) {
-						frameCounter++;
-						dataCounter = (dataCounter + 1) % framesPerDataCount;
-						// now that we've handled the pause mechanism of the movie player, it's time to track the fish
-						for (Fish fish: fishes) {
-							fish.moveToBestCenter(currentVideo().getContours());
-							if (dataCounter == 0) {
-								fish.addData(currentVideo().get(Videoio.CAP_PROP_POS_MSEC));
-							}
-						}
-						setChanged(); notifyObservers();
-					} else {
-						// no frames left in this video, so load the next one
-						loadNextVideo();
+					if (!engine.hasNext()) {
+						// wait at the end, so the movie can still be sought back and played on from there
+						paused = true;
+						continue;
 					}
+					
+					// now that we've handled the pause mechanism of the movie player, it's time to track the fish
+					engine.step();
 				}
 			}
 		}
 		
+		@Override
+		public void frameTracked(TrackingEngine engine) {
+			MotionVideoCapture video = engine.currentVideo();
+			playingIndex = getFirstFrame(engine.getVideoIndex()) + (int) video.get(Videoio.CAP_PROP_POS_FRAMES) - 1;
+			frameCache.put(playingIndex, video.getFrame());
+			setChanged(); notifyObservers();
+		}
+		
+		@Override
+		public void trackingFinished(TrackingEngine engine) {
+			stopAutosave();
+			pause();
+		}
+		
 		/**
 		 * Stops the video from playing and closes the thread. To start the video again, you must start() the player 
 		 * again.
@@ -229,17 +537,7 @@ public class TrackerModel extends Observable {
 		 * @return The current motion video object.
 		 */
 		public MotionVideoCapture currentVideo() {
-			return videos.get(videoIndex);
-		}
-		
-		public void loadNextVideo() {
-			videoIndex++;
-			if (videoIndex >= videos.size()) {
-				System.out.println("All videos finished.");
-				stopPlayer();
-			} else {
-				currentVideo().linkToPrevious(videos.get(videoIndex - 1));
-			}
+			return engine.currentVideo();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -5,6 +5,8 @@ import java.awt.Dimension;
 import java.awt.EventQueue;
 import java.awt.Font;
 import java.awt.GridLayout;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -22,10 +24,12 @@ import org.opencv.core.Point;
 import com.tracker.model.Fish;
 import com.tracker.model.TrackerModel;
 
-public class StatisticsPanel extends JPanel {
+public class StatisticsPanel extends JPanel implements Observer {
 	private static final long serialVersionUID = 4461113695422006986L;
 	private TrackerModel model = null;
 	private int statsWidth = 120;
+	private JTabbedPane tabbedPane;
+	private List<Fish> shownFish = new ArrayList<Fish>(); // the fish that the tabs were built for
 	
 	public static void main(String[] args) {
 		// load library
@@ -63,17 +67,47 @@ public class StatisticsPanel extends JPanel {
 		lblStatistics.setPreferredSize(new Dimension(statsWidth, 30));
 		add(lblStatistics);
 		
-		//JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP);
-		//lblStatistics.setLabelFor(tabbedPane);
-		//add(tabbedPane);
+		// one tab per fish, scrolling rather than wrapping once there are too many tabs to fit
+		tabbedPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+		lblStatistics.setLabelFor(tabbedPane);
+		add(tabbedPane);
 		
-		for (Fish fish: model.getFishes()) {
-			JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP);
+		buildTabs();
+		model.addObserver(this);
+	}
+	
+	@Override
+	public void update(Observable o, Object arg) {
+		if (model == o && !shownFish.equals(model.getFishes())) {
+			// the fish have been replaced, such as by loading tracks
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					buildTabs();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Builds a tab for each of the model's fish, replacing any tabs built before.
+	 */
+	private void buildTabs() {
+		if (shownFish.equals(model.getFishes())) {
+			return;
+		}
+		for (Component tab: tabbedPane.getComponents()) {
+			if (tab instanceof FishPanel) {
+				model.deleteObserver((FishPanel) tab);
+			}
+		}
+		tabbedPane.removeAll();
+		shownFish = new ArrayList<Fish>(model.getFishes());
+		for (Fish fish: shownFish) {
 			JComponent fishPanel = new FishPanel(fish);
 			tabbedPane.add(fish.getName(), fishPanel);
-			add(tabbedPane);
-			
 		}
+		tabbedPane.revalidate();
+		tabbedPane.repaint();
 	}
 	
 	public class FishPanel extends JPanel implements Observer {
@@ -30,8 +30,8 @@ public class TrackerGUI2 extends JFrame {
 
 	private static final long serialVersionUID = -1243292443717623794L;
 	public VideoContainer videoContainer = null;
-	public JMenuItem mntmUndo, mntmRedo, mntmCalibrateFish, mntmCalibrateScale;
-	public JMenuItem mntmSave, mntmSaveAs;
+	public JMenuItem mntmUndo, mntmRedo, mntmCalibrateFish, mntmCalibrateScale, mntmDrawTank;
+	public JMenuItem mntmSave, mntmSaveAs, mntmLoadTracks;
 	
 	public static void main(String[] args) {
 		// load library;
@@ -99,6 +99,9 @@ public class TrackerGUI2 extends JFrame {
 		mntmSaveAs = new JMenuItem("Save As...");
 		mnFile.add(mntmSaveAs);
 		
+		mntmLoadTracks = new JMenuItem("Load Tracks...");
+		mnFile.add(mntmLoadTracks);
+		
 		JSeparator separator_1 = new JSeparator();
 		mnFile.add(separator_1);
 		
@@ -128,6 +131,9 @@ public class TrackerGUI2 extends JFrame {
 		mntmCalibrateScale = new JMenuItem("Calibrate Scale");
 		mnEdit.add(mntmCalibrateScale);
 		
+		mntmDrawTank = new JMenuItem("Draw Tank");
+		mnEdit.add(mntmDrawTank);
+		
 		getContentPane().setLayout(new BoxLayout(getContentPane(), BoxLayout.X_AXIS));
 		
 		videoContainer = new VideoContainer(model);
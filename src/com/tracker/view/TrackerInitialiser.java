@@ -9,6 +9,8 @@ import javax.swing.JFileChooser;
 
 import javax.swing.JLabel;
 import javax.swing.JButton;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import java.awt.Font;
 import javax.swing.BoxLayout;
 import javax.swing.SwingConstants;
@@ -16,6 +18,7 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.opencv.core.Core;
 
+import com.tracker.model.Fish;
 import com.tracker.model.TrackerModel;
 
 import java.awt.Dimension;
@@ -33,6 +36,8 @@ public class TrackerInitialiser extends JFrame {
 	private final JPanel videoListPanel = new JPanel();
 	private final JButton btnSelectVideos = new JButton("Select Videos");
 	private final JButton btnRemoveVideos = new JButton("Remove Videos");
+	private final JPanel fishPanel = new JPanel();
+	private final JSpinner numFishSpinner = new JSpinner(new SpinnerNumberModel(Fish.NUM_FISH, 1, 100, 1));
 	private final JPanel goPanel = new JPanel();
 	private final JButton btnGo  = new JButton("Go!");
 	
@@ -142,6 +147,13 @@ public class TrackerInitialiser extends JFrame {
 		videoListPanel.setPreferredSize(new Dimension(320, 80));
 		syncVideos();
 		
+		/* Number of fish in the tank */
+		getContentPane().add(fishPanel);
+		JLabel lblNumFish = new JLabel("Number of fish:");
+		lblNumFish.setFont(new Font("Dialog", Font.BOLD, 14));
+		fishPanel.add(lblNumFish);
+		fishPanel.add(numFishSpinner);
+		
 		/* Go panel ready for motion tracking */
 		getContentPane().add(goPanel);
 		
@@ -162,7 +174,7 @@ public class TrackerInitialiser extends JFrame {
 					public void run() {
 						try {
 							// TODO Actually load the videos
-							TrackerModel model = new TrackerModel(videoFiles);
+							TrackerModel model = new TrackerModel(videoFiles, (Integer) numFishSpinner.getValue());
 							new TrackerGUI2(model);
 						} catch (Exception e) {
 							System.err.println("Error: Unable to load panel");
@@ -16,6 +16,8 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.opencv.core.Core;
 
@@ -26,6 +28,7 @@ public class VideoContainer extends JPanel implements Observer {
 	private JLabel lblCommand, currentTimeLabel, totalTimeLabel;
 	private JSlider movieSeekBar;
 	private double fps;
+	private boolean updatingSeekBar = false; // set while the model moves the seek bar, so it isn't taken as a seek
 	
 	public VideoPanel videoPanel;
 	
@@ -79,10 +82,22 @@ public class VideoContainer extends JPanel implements Observer {
 		
 		movieSeekBar = new JSlider();
 		movieSeekBar.setPaintLabels(true);
-		movieSeekBar.setEnabled(false);
 		movieSeekBar.setValue(0);
-		movieSeekBar.setMaximum(model.getTotalFrames());
+		movieSeekBar.setMaximum(Math.max(model.getTotalFrames() - 1, 0));
 		timePanel.add(movieSeekBar, BorderLayout.CENTER);
+		movieSeekBar.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				if (updatingSeekBar) {
+					return;
+				}
+				// only cached frames are shown while dragging, and the frame let go on is sought exactly
+				if (movieSeekBar.getValueIsAdjusting()) {
+					model.previewFrame(movieSeekBar.getValue());
+				} else {
+					model.showFrame(movieSeekBar.getValue());
+				}
+			}
+		});
 		
 		currentTimeLabel = new JLabel();
 		timePanel.add(currentTimeLabel, BorderLayout.WEST);
@@ -95,7 +110,13 @@ public class VideoContainer extends JPanel implements Observer {
 	@Override
 	public void update(Observable o, Object arg) {
 		if (o instanceof TrackerModel) {
-			movieSeekBar.setValue(((TrackerModel) o).getCurrentFrameIndex());
+			if (!movieSeekBar.getValueIsAdjusting()) {
+				updatingSeekBar = true;
+				// the frame count becomes exact once the videos have been indexed
+				movieSeekBar.setMaximum(Math.max(((TrackerModel) o).getTotalFrames() - 1, 0));
+				movieSeekBar.setValue(((TrackerModel) o).getCurrentFrameIndex());
+				updatingSeekBar = false;
+			}
 			updateSeekTime(((TrackerModel) o).getCurrentFrameIndex());
 			
 			if (((TrackerModel) o).isPaused() == false) {
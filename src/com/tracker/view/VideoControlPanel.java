@@ -18,7 +18,7 @@ import com.tracker.model.TrackerModel;
 
 public class VideoControlPanel extends JPanel implements Observer {
 	private static final long serialVersionUID = -8130131613272786062L;
-	private JButton playButton, pauseButton;
+	private JButton playButton, pauseButton, backButton, forwardButton;
 	
 	/**
 	 * Constructs a control panel for managing the playing/pausing of the movie.
@@ -43,6 +43,20 @@ public class VideoControlPanel extends JPanel implements Observer {
 		gbc_lblVideoControls.gridy = 0;
 		add(lblVideoControls, gbc_lblVideoControls);
 		
+		backButton = new JButton("<");
+		backButton.setToolTipText("Step back a frame");
+		GridBagConstraints gbc_backButton = new GridBagConstraints();
+		gbc_backButton.insets = new Insets(0, 0, 0, 5);
+		gbc_backButton.fill = GridBagConstraints.BOTH;
+		gbc_backButton.gridx = 0;
+		gbc_backButton.gridy = 1;
+		add(backButton, gbc_backButton);
+		backButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				model.stepBackward();
+			}
+		});
+		
 		playButton = new JButton("Play");
 		GridBagConstraints gbc_playButton = new GridBagConstraints();
 		gbc_playButton.insets = new Insets(0, 0, 0, 5);
@@ -69,6 +83,19 @@ public class VideoControlPanel extends JPanel implements Observer {
 			}
 		});		
 		
+		forwardButton = new JButton(">");
+		forwardButton.setToolTipText("Step forward a frame");
+		GridBagConstraints gbc_forwardButton = new GridBagConstraints();
+		gbc_forwardButton.fill = GridBagConstraints.BOTH;
+		gbc_forwardButton.gridx = 3;
+		gbc_forwardButton.gridy = 1;
+		add(forwardButton, gbc_forwardButton);
+		forwardButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				model.stepForward();
+			}
+		});
+		
 		model.addObserver(this);
 		update(model, null);
 	}
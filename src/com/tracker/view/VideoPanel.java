@@ -1,9 +1,11 @@
 package com.tracker.view;
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -13,16 +15,20 @@ import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Size;
 
+import com.tracker.engine.TrackReplayer;
 import com.tracker.model.Fish;
+import com.tracker.model.TrackStore;
 import com.tracker.model.TrackerModel;
 
 public class VideoPanel extends JPanel implements Observer {
 		private static final long serialVersionUID = 140178207667905157L;
+		private static final int TRAIL = 60; // samples of a replayed track drawn behind each fish
 		private TrackerModel model = null;
 		private BufferedImage image;
 		private Dimension movieDimension;
 		private Point calibratingPoint = null;
 		private Fish calibratingFish = null;
+		private List<Point> tankCorners = null;
 
 		public void setCalibratingPoint(Point calibratingPoint) {
 			this.calibratingPoint = calibratingPoint;
@@ -32,6 +38,10 @@ public class VideoPanel extends JPanel implements Observer {
 			this.calibratingFish = calibratingFish;
 		}
 
+		public void setTankCorners(List<Point> tankCorners) {
+			this.tankCorners = tankCorners;
+		}
+
 		public VideoPanel(TrackerModel model) {
         	super(new FlowLayout());
         	model.addObserver(this);
@@ -66,6 +76,18 @@ public class VideoPanel extends JPanel implements Observer {
         	if (image != null) {
         		g.drawImage(image, 0, 0, this);
         	}
+        	g.setColor(Color.GREEN);
+        	if (tankCorners != null) {
+        		drawOutline(g, tankCorners, false);
+        	} else if (model.getTankPolygon() != null) {
+        		drawOutline(g, model.getTankPolygon(), true);
+        	}
+        	TrackReplayer replayer = model.getReplayer();
+        	if (replayer != null) {
+        		for (int k = 0; k < model.getFishes().size(); k++) {
+        			drawTrail(g, model.getFishes().get(k), replayer.getPosition(k));
+        		}
+        	}
         	for (Fish fish: model.getFishes()) {
         		if (!fish.equals(calibratingFish)) {
             		fish.drawCenter(g);
@@ -76,6 +98,43 @@ public class VideoPanel extends JPanel implements Observer {
         	}
         }
         
+    	/**
+    	 * Draws the outline of the tank, or as much of it as has been drawn so far.
+    	 * @param closed True, if the last corner should be joined back to the first.
+    	 */
+    	private static void drawOutline(Graphics g, List<Point> corners, boolean closed) {
+    		int n = corners.size();
+    		int[] xs = new int[n], ys = new int[n];
+    		for (int i = 0; i < n; i++) {
+    			xs[i] = (int) corners.get(i).x;
+    			ys[i] = (int) corners.get(i).y;
+    		}
+    		if (closed) {
+    			g.drawPolygon(xs, ys, n);
+    		} else {
+    			g.drawPolyline(xs, ys, n);
+    		}
+    	}
+    	
+    	/**
+    	 * Draws the last few samples of a replayed track, up to the one the fish is at.
+    	 * @param last The index of the sample the fish is at.
+    	 */
+    	private static void drawTrail(Graphics g, Fish fish, int last) {
+    		TrackStore track = fish.getTrack();
+    		int first = Math.max(last - TRAIL + 1, 0), n = Math.min(last, track.size() - 1) - first + 1;
+    		if (n < 2) {
+    			return;
+    		}
+    		int[] xs = new int[n], ys = new int[n];
+    		for (int i = 0; i < n; i++) {
+    			xs[i] = (int) track.getX(first + i);
+    			ys[i] = (int) track.getY(first + i);
+    		}
+    		g.setColor(Fish.colourOf(fish.getIndex()));
+    		g.drawPolyline(xs, ys, n);
+    	}
+    	
     	/** 
     	 * Converts a Mat to Buffered Image for displaying inside a JFrame. This is the primary method for showing 
     	 * videos inside the gui.